@@ -0,0 +1,125 @@
+package Collections;
+
+import Help.BitTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Пакетная запись в {@link PersistentArray} из многих потоков.
+ * <p>
+ * Запросы добавления и обновления помещаются в неблокирующую очередь. Поток, захвативший роль
+ * комбайнера (flat combining), забирает из очереди накопившиеся запросы, применяет их к одной копии
+ * дерева и публикует результат одной версией, после чего завершает будущие результаты запросов.
+ * Остальные потоки не ждут комбайнера и не обращаются к истории версий, поэтому запись не создаёт
+ * конкуренции за стеки истории, а пока пакет применяется, в очереди копится следующий.
+ * <p>
+ * Пока используется запись пакетами, массив нельзя изменять напрямую. Действия, зависящие
+ * от будущих результатов, выполняются в потоке комбайнера, если не заданы асинхронно.
+ *
+ * @param <T> Тип хранимых объектов в коллекции.
+ */
+public final class BatchWriter<T> {
+    /**
+     * Наибольшее количество запросов в одной версии.
+     */
+    public static final int MAX_BATCH = 4_096;
+
+    private static final class Request<T> {
+        /**
+         * Индекс обновляемого элемента либо -1 для добавления.
+         */
+        private final int index;
+        private final T element;
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        private Request(int index, T element) {
+            this.index = index;
+            this.element = element;
+        }
+    }
+
+    private final PersistentArray<T> array;
+    private final ConcurrentLinkedQueue<Request<T>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean combining = new AtomicBoolean();
+
+    BatchWriter(PersistentArray<T> array) {
+        this.array = array;
+    }
+
+    /**
+     * Ставит в очередь добавление элемента в конец массива.
+     * @return Номер версии, в которой элемент добавлен.
+     */
+    public CompletableFuture<Integer> add(T element) {
+        return submit(new Request<>(-1, element));
+    }
+
+    /**
+     * Ставит в очередь обновление элемента. Индекс проверяется при применении пакета, поэтому
+     * допустимо обновлять элемент, добавление которого стоит в очереди раньше.
+     * @return Номер версии, в которой элемент обновлён; при недопустимом индексе будущий результат
+     * завершается {@link IndexOutOfBoundsException}.
+     */
+    public CompletableFuture<Integer> update(int index, T element) {
+        if (index < 0) {
+            return CompletableFuture.failedFuture(new IndexOutOfBoundsException(index));
+        }
+        return submit(new Request<>(index, element));
+    }
+
+    private CompletableFuture<Integer> submit(Request<T> request) {
+        queue.add(request);
+        combine();
+        return request.result;
+    }
+
+    /**
+     * Применяет запросы, пока очередь не пуста и роль комбайнера свободна. После освобождения роли
+     * очередь проверяется снова: запрос, добавленный во время применения пакета, не останется без комбайнера.
+     */
+    private void combine() {
+        while (!queue.isEmpty() && combining.compareAndSet(false, true)) {
+            List<Request<T>> applied = new ArrayList<>();
+            int version;
+            try {
+                int size = array.size();
+                boolean adds = false;
+                Request<T> request;
+                while (applied.size() < MAX_BATCH && (request = queue.poll()) != null) {
+                    if (request.index < 0) {
+                        size++;
+                        adds = true;
+                        applied.add(request);
+                    } else if (request.index < size) {
+                        applied.add(request);
+                    } else {
+                        request.result.completeExceptionally(new IndexOutOfBoundsException(request.index));
+                    }
+                }
+                version = applied.isEmpty() ? array.currentVersionIndex() : array.pushBatch(bitTree -> {
+                    BitTree<T> copy = new BitTree<>(bitTree);
+                    for (Request<T> next : applied) {
+                        if (next.index < 0) {
+                            copy.add(next.element);
+                        } else {
+                            copy.update(next.index, next.element);
+                        }
+                    }
+                    return copy;
+                }, adds);
+            } catch (RuntimeException e) {
+                applied.forEach(failed -> failed.result.completeExceptionally(e));
+                continue;
+            } finally {
+                combining.set(false);
+            }
+            for (Request<T> request : applied) {
+                request.result.complete(version);
+            }
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package Collections;
+
+import Metrics.MemoryFootprint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+/**
+ * Неизменяемая корзина {@link PersistentHashMap}.
+ * <p>
+ * Пока записей немного, корзина — цепочка ({@link Chain}). Когда длина цепочки превышает
+ * {@link #TREEIFY_THRESHOLD}, корзина превращается в сбалансированное AVL-дерево ({@link TreeNode}),
+ * упорядоченное по хеш-коду, затем по {@link Comparable} ключам, поэтому поиск даже при неудачном
+ * распределении ключей остаётся логарифмическим. Если в дереве остаётся не больше
+ * {@link #UNTREEIFY_THRESHOLD} записей, оно снова становится цепочкой.
+ * <p>
+ * Все изменения копируют только путь от корня корзины до изменённого звена или узла.
+ *
+ * @param <K> Тип ключей.
+ * @param <V> Тип значений.
+ */
+abstract class Bucket<K, V> {
+    static final int TREEIFY_THRESHOLD = 8;
+    static final int UNTREEIFY_THRESHOLD = 6;
+
+    /**
+     * Обработчик записей корзины.
+     */
+    interface EntryVisitor<K, V> {
+        void visit(int hash, Entry<K, V> entry);
+    }
+
+    /**
+     * @return Количество записей.
+     */
+    abstract int size();
+
+    /**
+     * @return Наибольшее количество звеньев или узлов, просматриваемых при поиске.
+     */
+    abstract int chainLength();
+
+    /**
+     * @return Запись с указанным ключом либо null.
+     */
+    abstract Entry<K, V> find(int hash, Object key);
+
+    /**
+     * @return Корзина с добавленной (или заменённой, если ключ уже есть) записью.
+     */
+    abstract Bucket<K, V> put(int hash, Entry<K, V> entry);
+
+    /**
+     * @return Корзина без записи с указанным ключом; null, если корзина стала пустой.
+     */
+    abstract Bucket<K, V> remove(int hash, Object key);
+
+    /**
+     * Обходит записи корзины в порядке хранения.
+     */
+    abstract void forEach(EntryVisitor<K, V> visitor);
+
+    /**
+     * Учитывает звенья или узлы корзины и её записи.
+     */
+    abstract void visit(MemoryFootprint.Visitor visitor, long entryBytes);
+
+    /**
+     * @return Сумма хеш-кодов записей по контракту {@link Entry#hashCode()}; вычисляется при создании звена или узла.
+     */
+    abstract int entriesHashCode();
+
+    /**
+     * Хеш-код содержимого корзины. Равенство корзин остаётся ссылочным: равные (одинаковые) корзины
+     * имеют равные хеш-коды, а сумма по корзинам даёт хеш-код таблицы, который кешируется в узлах
+     * {@link Help.BitTree}.
+     */
+    @Override
+    public final int hashCode() {
+        return entriesHashCode();
+    }
+
+    static int entryHash(Entry<?, ?> entry) {
+        return Objects.hashCode(entry.getKey()) ^ Objects.hashCode(entry.getValue());
+    }
+
+    static <K, V> Bucket<K, V> put(Bucket<K, V> bucket, int hash, Entry<K, V> entry) {
+        return bucket == null ? new Chain<>(hash, entry, null) : bucket.put(hash, entry);
+    }
+
+    /**
+     * Строит корзину из записей, отобранных из корзины {@code source} (например, при её разделении).
+     */
+    static <K, V> Bucket<K, V> build(List<Integer> hashes, List<Entry<K, V>> entries, Bucket<K, V> source) {
+        if (entries.isEmpty()) {
+            return null;
+        }
+        if (source instanceof TreeNode && entries.size() > UNTREEIFY_THRESHOLD) {
+            // Записи дерева обходятся по порядку, поэтому дерево строится без сравнений
+            return TreeNode.build(hashes, entries, 0, entries.size());
+        }
+        Chain<K, V> chain = null;
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            chain = new Chain<>(hashes.get(i), entries.get(i), chain);
+        }
+        return chain;
+    }
+
+    /**
+     * Сравнивает ключи по хеш-коду, а при равных хеш-кодах — по {@link Comparable}, если ключи одного класса.
+     * @return 0, если порядок ключей этим способом не определяется.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static int compareKeys(int hash, Object key, int otherHash, Object otherKey) {
+        if (hash != otherHash) {
+            return Integer.compare(hash, otherHash);
+        }
+        if (key instanceof Comparable && otherKey != null && key.getClass() == otherKey.getClass()) {
+            return ((Comparable) key).compareTo(otherKey);
+        }
+        return 0;
+    }
+
+    /**
+     * Произвольный, но детерминированный порядок ключей, неразличимых {@link #compareKeys}. Используется
+     * только при вставке; поиск таких ключей просматривает оба поддерева.
+     */
+    static int tieBreak(Object key, Object otherKey) {
+        int order = 0;
+        if (key != null && otherKey != null) {
+            order = key.getClass().getName().compareTo(otherKey.getClass().getName());
+        }
+        if (order == 0) {
+            order = System.identityHashCode(key) <= System.identityHashCode(otherKey) ? -1 : 1;
+        }
+        return order;
+    }
+
+    /**
+     * Звено цепочки.
+     */
+    static final class Chain<K, V> extends Bucket<K, V> {
+        private static final long CHAIN_BYTES = MemoryFootprint.align(MemoryFootprint.OBJECT_HEADER
+                + 2 * MemoryFootprint.REFERENCE + 3 * Integer.BYTES);
+
+        private final int hash;
+        private final Entry<K, V> entry;
+        private final Chain<K, V> next;
+        private final int size;
+        private final int entriesHash;
+
+        Chain(int hash, Entry<K, V> entry, Chain<K, V> next) {
+            this.hash = hash;
+            this.entry = entry;
+            this.next = next;
+            this.size = next == null ? 1 : next.size + 1;
+            this.entriesHash = entryHash(entry) + (next == null ? 0 : next.entriesHash);
+        }
+
+        @Override
+        int entriesHashCode() {
+            return entriesHash;
+        }
+
+        int getHash() {
+            return hash;
+        }
+
+        Entry<K, V> getEntry() {
+            return entry;
+        }
+
+        Chain<K, V> getNext() {
+            return next;
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        int chainLength() {
+            return size;
+        }
+
+        @Override
+        Entry<K, V> find(int hash, Object key) {
+            for (Chain<K, V> chain = this; chain != null; chain = chain.next) {
+                if (chain.hash == hash && Objects.equals(chain.entry.getKey(), key)) {
+                    return chain.entry;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        Bucket<K, V> put(int hash, Entry<K, V> entry) {
+            if (find(hash, entry.getKey()) != null) {
+                return new Chain<>(hash, entry, without(this, hash, entry.getKey()));
+            }
+            if (size >= TREEIFY_THRESHOLD) {
+                return treeify().put(hash, entry);
+            }
+            return new Chain<>(hash, entry, this);
+        }
+
+        @Override
+        Bucket<K, V> remove(int hash, Object key) {
+            return find(hash, key) == null ? this : without(this, hash, key);
+        }
+
+        /**
+         * @return Цепочка без записи с указанным ключом. Звенья после удалённого остаются общими с исходной цепочкой.
+         */
+        private static <K, V> Chain<K, V> without(Chain<K, V> chain, int hash, Object key) {
+            if (chain == null) {
+                return null;
+            }
+            if (chain.hash == hash && Objects.equals(chain.entry.getKey(), key)) {
+                return chain.next;
+            }
+            return new Chain<>(chain.hash, chain.entry, without(chain.next, hash, key));
+        }
+
+        private TreeNode<K, V> treeify() {
+            TreeNode<K, V> root = null;
+            for (Chain<K, V> chain = this; chain != null; chain = chain.next) {
+                root = TreeNode.insert(root, chain.hash, chain.entry);
+            }
+            return root;
+        }
+
+        @Override
+        void forEach(EntryVisitor<K, V> visitor) {
+            for (Chain<K, V> chain = this; chain != null; chain = chain.next) {
+                visitor.visit(chain.hash, chain.entry);
+            }
+        }
+
+        @Override
+        void visit(MemoryFootprint.Visitor visitor, long entryBytes) {
+            for (Chain<K, V> chain = this; chain != null && visitor.visit(chain, CHAIN_BYTES); chain = chain.next) {
+                visitor.visit(chain.entry, entryBytes);
+            }
+        }
+    }
+
+    /**
+     * Узел AVL-дерева. Корень дерева является корзиной.
+     */
+    static final class TreeNode<K, V> extends Bucket<K, V> {
+        private static final long TREE_NODE_BYTES = MemoryFootprint.align(MemoryFootprint.OBJECT_HEADER
+                + 3 * MemoryFootprint.REFERENCE + 4 * Integer.BYTES);
+
+        private final int hash;
+        private final Entry<K, V> entry;
+        private final TreeNode<K, V> left;
+        private final TreeNode<K, V> right;
+        private final int height;
+        private final int size;
+        private final int entriesHash;
+
+        TreeNode(int hash, Entry<K, V> entry, TreeNode<K, V> left, TreeNode<K, V> right) {
+            this.hash = hash;
+            this.entry = entry;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = count(left) + count(right) + 1;
+            this.entriesHash = entryHash(entry) + (left == null ? 0 : left.entriesHash)
+                    + (right == null ? 0 : right.entriesHash);
+        }
+
+        @Override
+        int entriesHashCode() {
+            return entriesHash;
+        }
+
+        int getHash() {
+            return hash;
+        }
+
+        Entry<K, V> getEntry() {
+            return entry;
+        }
+
+        TreeNode<K, V> getLeft() {
+            return left;
+        }
+
+        TreeNode<K, V> getRight() {
+            return right;
+        }
+
+        private static int height(TreeNode<?, ?> node) {
+            return node == null ? 0 : node.height;
+        }
+
+        private static int count(TreeNode<?, ?> node) {
+            return node == null ? 0 : node.size;
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        int chainLength() {
+            return height;
+        }
+
+        @Override
+        Entry<K, V> find(int hash, Object key) {
+            TreeNode<K, V> node = find(this, hash, key);
+            return node == null ? null : node.entry;
+        }
+
+        private static <K, V> TreeNode<K, V> find(TreeNode<K, V> node, int hash, Object key) {
+            while (node != null) {
+                int order = compareKeys(hash, key, node.hash, node.entry.getKey());
+                if (order < 0) {
+                    node = node.left;
+                } else if (order > 0) {
+                    node = node.right;
+                } else if (Objects.equals(key, node.entry.getKey())) {
+                    return node;
+                } else {
+                    // Порядок не определён: ключ может быть в любом из поддеревьев
+                    TreeNode<K, V> found = find(node.right, hash, key);
+                    if (found != null) {
+                        return found;
+                    }
+                    node = node.left;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        Bucket<K, V> put(int hash, Entry<K, V> entry) {
+            return find(this, hash, entry.getKey()) != null ? replace(this, hash, entry) : insert(this, hash, entry);
+        }
+
+        @Override
+        Bucket<K, V> remove(int hash, Object key) {
+            if (find(this, hash, key) == null) {
+                return this;
+            }
+            TreeNode<K, V> root = delete(this, hash, key);
+            if (root == null || root.size > UNTREEIFY_THRESHOLD) {
+                return root;
+            }
+            List<Integer> hashes = new ArrayList<>(root.size);
+            List<Entry<K, V>> entries = new ArrayList<>(root.size);
+            root.forEach((entryHash, entry) -> {
+                hashes.add(entryHash);
+                entries.add(entry);
+            });
+            return build(hashes, entries, null);
+        }
+
+        /**
+         * Направление к ключу, который точно есть в поддереве.
+         */
+        private static <K, V> int direction(TreeNode<K, V> node, int hash, Object key) {
+            int order = compareKeys(hash, key, node.hash, node.entry.getKey());
+            if (order != 0) {
+                return order;
+            }
+            return find(node.right, hash, key) != null ? 1 : -1;
+        }
+
+        private static <K, V> TreeNode<K, V> replace(TreeNode<K, V> node, int hash, Entry<K, V> entry) {
+            if (node.hash == hash && Objects.equals(node.entry.getKey(), entry.getKey())) {
+                return new TreeNode<>(hash, entry, node.left, node.right);
+            }
+            return direction(node, hash, entry.getKey()) < 0
+                    ? new TreeNode<>(node.hash, node.entry, replace(node.left, hash, entry), node.right)
+                    : new TreeNode<>(node.hash, node.entry, node.left, replace(node.right, hash, entry));
+        }
+
+        static <K, V> TreeNode<K, V> insert(TreeNode<K, V> node, int hash, Entry<K, V> entry) {
+            if (node == null) {
+                return new TreeNode<>(hash, entry, null, null);
+            }
+            int order = compareKeys(hash, entry.getKey(), node.hash, node.entry.getKey());
+            if (order == 0) {
+                order = tieBreak(entry.getKey(), node.entry.getKey());
+            }
+            return order < 0
+                    ? balance(node.hash, node.entry, insert(node.left, hash, entry), node.right)
+                    : balance(node.hash, node.entry, node.left, insert(node.right, hash, entry));
+        }
+
+        private static <K, V> TreeNode<K, V> delete(TreeNode<K, V> node, int hash, Object key) {
+            if (node.hash == hash && Objects.equals(node.entry.getKey(), key)) {
+                if (node.left == null) {
+                    return node.right;
+                }
+                if (node.right == null) {
+                    return node.left;
+                }
+                TreeNode<K, V> min = node.right;
+                while (min.left != null) {
+                    min = min.left;
+                }
+                return balance(min.hash, min.entry, node.left, deleteMin(node.right));
+            }
+            return direction(node, hash, key) < 0
+                    ? balance(node.hash, node.entry, delete(node.left, hash, key), node.right)
+                    : balance(node.hash, node.entry, node.left, delete(node.right, hash, key));
+        }
+
+        private static <K, V> TreeNode<K, V> deleteMin(TreeNode<K, V> node) {
+            if (node.left == null) {
+                return node.right;
+            }
+            return balance(node.hash, node.entry, deleteMin(node.left), node.right);
+        }
+
+        private static <K, V> TreeNode<K, V> balance(int hash, Entry<K, V> entry,
+                                                     TreeNode<K, V> left, TreeNode<K, V> right) {
+            int difference = height(left) - height(right);
+            if (difference > 1) {
+                if (height(left.left) < height(left.right)) {
+                    left = rotateLeft(left.hash, left.entry, left.left, left.right);
+                }
+                return rotateRight(hash, entry, left, right);
+            }
+            if (difference < -1) {
+                if (height(right.right) < height(right.left)) {
+                    right = rotateRight(right.hash, right.entry, right.left, right.right);
+                }
+                return rotateLeft(hash, entry, left, right);
+            }
+            return new TreeNode<>(hash, entry, left, right);
+        }
+
+        private static <K, V> TreeNode<K, V> rotateLeft(int hash, Entry<K, V> entry,
+                                                        TreeNode<K, V> left, TreeNode<K, V> right) {
+            return new TreeNode<>(right.hash, right.entry, new TreeNode<>(hash, entry, left, right.left), right.right);
+        }
+
+        private static <K, V> TreeNode<K, V> rotateRight(int hash, Entry<K, V> entry,
+                                                         TreeNode<K, V> left, TreeNode<K, V> right) {
+            return new TreeNode<>(left.hash, left.entry, left.left, new TreeNode<>(hash, entry, left.right, right));
+        }
+
+        /**
+         * Строит сбалансированное дерево из упорядоченных записей [from, to).
+         */
+        static <K, V> TreeNode<K, V> build(List<Integer> hashes, List<Entry<K, V>> entries, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            int middle = (from + to) >>> 1;
+            return new TreeNode<>(hashes.get(middle), entries.get(middle),
+                    build(hashes, entries, from, middle), build(hashes, entries, middle + 1, to));
+        }
+
+        @Override
+        void forEach(EntryVisitor<K, V> visitor) {
+            if (left != null) {
+                left.forEach(visitor);
+            }
+            visitor.visit(hash, entry);
+            if (right != null) {
+                right.forEach(visitor);
+            }
+        }
+
+        @Override
+        void visit(MemoryFootprint.Visitor visitor, long entryBytes) {
+            if (visitor.visit(this, TREE_NODE_BYTES)) {
+                visitor.visit(entry, entryBytes);
+                if (left != null) {
+                    left.visit(visitor, entryBytes);
+                }
+                if (right != null) {
+                    right.visit(visitor, entryBytes);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package Collections;
+
+import java.util.Objects;
+
+/**
+ * Различие двух версий коллекции по одному ключу (индексу массива или ключу словаря).
+ *
+ * @param <K> Тип ключей.
+ * @param <V> Тип значений.
+ */
+public final class Change<K, V> {
+    public enum Type {
+        /**
+         * Ключ есть только в новой версии.
+         */
+        ADDED,
+        /**
+         * Ключ есть только в старой версии.
+         */
+        REMOVED,
+        /**
+         * Ключ есть в обеих версиях с разными значениями.
+         */
+        CHANGED
+    }
+
+    private final Type type;
+    private final K key;
+    private final V oldValue;
+    private final V newValue;
+
+    public Change(Type type, K key, V oldValue, V newValue) {
+        this.type = type;
+        this.key = key;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    public static <K, V> Change<K, V> added(K key, V newValue) {
+        return new Change<>(Type.ADDED, key, null, newValue);
+    }
+
+    public static <K, V> Change<K, V> removed(K key, V oldValue) {
+        return new Change<>(Type.REMOVED, key, oldValue, null);
+    }
+
+    public static <K, V> Change<K, V> changed(K key, V oldValue, V newValue) {
+        return new Change<>(Type.CHANGED, key, oldValue, newValue);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public K getKey() {
+        return key;
+    }
+
+    /**
+     * @return Значение в старой версии либо null для {@link Type#ADDED}.
+     */
+    public V getOldValue() {
+        return oldValue;
+    }
+
+    /**
+     * @return Значение в новой версии либо null для {@link Type#REMOVED}.
+     */
+    public V getNewValue() {
+        return newValue;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Change<?, ?> change)) {
+            return false;
+        }
+        return type == change.type && Objects.equals(key, change.key)
+                && Objects.equals(oldValue, change.oldValue) && Objects.equals(newValue, change.newValue);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, key, oldValue, newValue);
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + key + ": " + oldValue + " -> " + newValue;
+    }
+}
@@ -0,0 +1,135 @@
+package Collections;
+
+import Help.BitTree;
+import Storage.ElementCodec;
+import Storage.SnapshotFormat;
+import Storage.SnapshotWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Инкрементальная запись контрольных точек {@link PersistentArray} в фоновом потоке.
+ * <p>
+ * Версии дерева разделяют неизменённые узлы, поэтому каждая следующая контрольная точка дописывает
+ * в файл только узлы и элементы, появившиеся после предыдущей, и ссылается на уже записанные.
+ * Записывается зафиксированная (pinned) версия коллекции: опубликованные версии не изменяются,
+ * и коллекцию можно продолжать изменять во время записи. Файл в любой момент читается
+ * {@link PersistentArray#load(Path, ElementCodec)} и {@link MappedPersistentArray} как снимок
+ * последней завершённой контрольной точки.
+ *
+ * @param <T> Тип хранимых объектов в коллекции.
+ */
+public class IncrementalCheckpointer<T> implements Closeable {
+    /**
+     * Минимальное количество запомненных объектов, после которого выполняется очистка ссылок
+     * на узлы, недостижимые из последней записанной версии.
+     */
+    private static final int MIN_PRUNE_THRESHOLD = 1 << 12;
+
+    private final SnapshotWriter writer;
+    private final SnapshotWriter.ValueWriter<T> values;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "incremental-checkpointer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int pruneThreshold = MIN_PRUNE_THRESHOLD;
+
+    /**
+     * @param path Путь к файлу контрольных точек (перезаписывается).
+     * @param codec Кодек элементов.
+     */
+    public IncrementalCheckpointer(Path path, ElementCodec<T> codec) throws IOException {
+        this.writer = new SnapshotWriter(path);
+        this.values = element -> writer.writeValue(element, codec);
+    }
+
+    /**
+     * Фиксирует текущую версию коллекции и записывает её в фоновом потоке.
+     * @param array Коллекция.
+     * @return Количество байт, дописанных в файл этой контрольной точкой.
+     */
+    public CompletableFuture<Long> checkpoint(PersistentArray<T> array) {
+        BitTree<T> pinned = array.currentVersion();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return write(pinned);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private long write(BitTree<T> pinned) throws IOException {
+        long start = writer.output().position();
+
+        long tree = writer.writeTree(pinned, values);
+        long ref = writer.beginRecord(SnapshotFormat.ARRAY);
+        writer.output().writeRefs(new long[]{tree});
+        writer.output().writeRefs(new long[0]);
+        writer.finish(ref);
+
+        if (writer.rememberedCount() > pruneThreshold) {
+            prune(pinned);
+        }
+        return writer.output().position() - start;
+    }
+
+    /**
+     * Оставляет ссылки только на объекты, достижимые из записанной версии: узлы более старых версий
+     * в новых версиях уже не появятся, и удерживать их в памяти не нужно.
+     */
+    private void prune(BitTree<T> pinned) {
+        Set<Object> reachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        reachable.add(pinned);
+        collect(pinned.getRoot(), reachable);
+        writer.retainAll(reachable);
+        pruneThreshold = Math.max(MIN_PRUNE_THRESHOLD, writer.rememberedCount() * 2);
+    }
+
+    private void collect(BitTree.Node<T> node, Set<Object> reachable) {
+        if (node == null || !reachable.add(node)) {
+            return;
+        }
+        List<T> nodeValues = node.getValue();
+        if (nodeValues != null) {
+            for (T value : nodeValues) {
+                if (value != null) {
+                    reachable.add(value);
+                }
+            }
+        }
+        List<BitTree.Node<T>> children = node.getChild();
+        if (children != null) {
+            for (BitTree.Node<T> child : children) {
+                collect(child, reachable);
+            }
+        }
+    }
+
+    /**
+     * Дожидается завершения начатых контрольных точек и закрывает файл.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            writer.close();
+        }
+    }
+}
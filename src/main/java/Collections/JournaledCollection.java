@@ -0,0 +1,214 @@
+package Collections;
+
+import API.PersistentCollection;
+import Storage.ElementCodec;
+import Storage.Journal;
+import Storage.SnapshotReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map.Entry;
+
+/**
+ * Коллекция, каждая операция которой дописывается в журнал {@link Journal}.
+ * <p>
+ * Состояние хранится в каталоге в виде последнего снимка и журнала операций, выполненных после него.
+ * При открытии загружается снимок и применяются операции из журнала, не учтённые в снимке.
+ * Метод {@link #checkpoint()} записывает новый снимок и очищает журнал.
+ *
+ * @param <T> Тип хранимых объектов в коллекции.
+ */
+public class JournaledCollection<T> implements PersistentCollection<T>, Closeable {
+    public static final String SNAPSHOT_FILE = "collection.snapshot";
+    public static final String JOURNAL_FILE = "collection.journal";
+
+    /**
+     * Запись снимка коллекции с указанием номера последней учтённой операции журнала.
+     */
+    @FunctionalInterface
+    private interface SnapshotSaver {
+        void save(Path path, long sequence) throws IOException;
+    }
+
+    private final PersistentCollection<T> collection;
+    private final Journal<T> journal;
+    private final Path directory;
+    private final SnapshotSaver saver;
+
+    private JournaledCollection(PersistentCollection<T> collection, Journal<T> journal, Path directory,
+                                SnapshotSaver saver) {
+        this.collection = collection;
+        this.journal = journal;
+        this.directory = directory;
+        this.saver = saver;
+    }
+
+    /**
+     * Открывает (или создаёт) журналируемый {@link PersistentArray}.
+     * @param directory Каталог со снимком и журналом.
+     * @param codec Кодек элементов.
+     * @param durability Гарантия сохранности операций.
+     * @return Восстановленная коллекция.
+     */
+    public static <T> JournaledCollection<T> openArray(Path directory, ElementCodec<T> codec,
+                                                       Journal.Durability durability) throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        PersistentArray<T> array = Files.exists(snapshot)
+                ? PersistentArray.load(snapshot, codec)
+                : new PersistentArray<>();
+        return open(array, new Journal<>(directory.resolve(JOURNAL_FILE), codec, durability), directory,
+                (path, sequence) -> array.save(path, codec, sequence));
+    }
+
+    /**
+     * Открывает (или создаёт) журналируемый {@link PersistentHashMap}.
+     * @param directory Каталог со снимком и журналом.
+     * @param keyCodec Кодек ключей.
+     * @param valueCodec Кодек значений.
+     * @param durability Гарантия сохранности операций.
+     * @return Восстановленная коллекция.
+     */
+    public static <K, V> JournaledCollection<Entry<K, V>> openHashMap(Path directory, ElementCodec<K> keyCodec,
+                                                                     ElementCodec<V> valueCodec,
+                                                                     Journal.Durability durability)
+            throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        PersistentHashMap<K, V> map = Files.exists(snapshot)
+                ? PersistentHashMap.load(snapshot, keyCodec, valueCodec)
+                : new PersistentHashMap<>();
+        return open(map, new Journal<>(directory.resolve(JOURNAL_FILE),
+                        ElementCodec.entry(keyCodec, valueCodec), durability), directory,
+                (path, sequence) -> map.save(path, keyCodec, valueCodec, sequence));
+    }
+
+    private static <T> JournaledCollection<T> open(PersistentCollection<T> collection, Journal<T> journal,
+                                                   Path directory, SnapshotSaver saver) throws IOException {
+        try {
+            long sequence = 0;
+            Path snapshot = directory.resolve(SNAPSHOT_FILE);
+            if (Files.exists(snapshot)) {
+                try (SnapshotReader reader = SnapshotReader.open(snapshot)) {
+                    sequence = reader.getSequence();
+                }
+            }
+            journal.skipTo(journal.replay(sequence, (operation, index, element) ->
+                    apply(collection, operation, index, element)));
+            return new JournaledCollection<>(collection, journal, directory, saver);
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            throw e;
+        }
+    }
+
+    private static <T> void apply(PersistentCollection<T> collection, Journal.Operation operation,
+                                  int index, T element) {
+        switch (operation) {
+            case ADD -> collection.add(element);
+            case UPDATE -> collection.update(index, element);
+            case REMOVE -> collection.remove(element);
+            case UNDO -> collection.undo();
+            case REDO -> collection.redo();
+        }
+    }
+
+    /**
+     * @return Коллекция, изменения которой журналируются.
+     */
+    public PersistentCollection<T> getCollection() {
+        return collection;
+    }
+
+    public Journal<T> getJournal() {
+        return journal;
+    }
+
+    private void log(Journal.Operation operation, int index, T element) {
+        try {
+            journal.append(operation, index, element);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public JournaledCollection<T> add(T element) {
+        collection.add(element);
+        log(Journal.Operation.ADD, -1, element);
+        return this;
+    }
+
+    @Override
+    public JournaledCollection<T> update(int index, T element) {
+        collection.update(index, element);
+        log(Journal.Operation.UPDATE, index, element);
+        return this;
+    }
+
+    @Override
+    public JournaledCollection<T> remove(T element) {
+        if (collection.remove(element) == null) {
+            return null;
+        }
+        log(Journal.Operation.REMOVE, -1, element);
+        return this;
+    }
+
+    @Override
+    public T get(Object param) {
+        return collection.get(param);
+    }
+
+    @Override
+    public boolean contains(T element) {
+        return collection.contains(element);
+    }
+
+    @Override
+    public int size() {
+        return collection.size();
+    }
+
+    @Override
+    public JournaledCollection<T> undo() {
+        collection.undo();
+        log(Journal.Operation.UNDO, -1, null);
+        return this;
+    }
+
+    @Override
+    public JournaledCollection<T> redo() {
+        collection.redo();
+        log(Journal.Operation.REDO, -1, null);
+        return this;
+    }
+
+    /**
+     * Принудительно сбрасывает журнал на диск независимо от выбранной гарантии сохранности.
+     */
+    public void sync() throws IOException {
+        journal.sync();
+    }
+
+    /**
+     * Записывает снимок текущего состояния вместе с историей и очищает журнал.
+     * Снимок сначала пишется во временный файл и атомарно заменяет предыдущий, поэтому при сбое
+     * в любой момент остаётся согласованная пара «снимок + журнал».
+     */
+    public void checkpoint() throws IOException {
+        journal.sync();
+        Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        saver.save(temporary, journal.getLastSequence());
+        Files.move(temporary, directory.resolve(SNAPSHOT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal.reset();
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+}
@@ -0,0 +1,223 @@
+package Collections;
+
+import Help.BitTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Ленивая персистентная последовательность.
+ * <p>
+ * Операции ({@link #map(Function)}, {@link #filter(Predicate)}, {@link #take(int)}) не вычисляют
+ * элементы, а строят новую последовательность поверх исходной. Вычисление идёт порциями:
+ * последовательность из {@link PersistentArray} делится на порции по листьям дерева (32 элемента
+ * при ширине узла по умолчанию), и каждая операция обрабатывает порцию целиком. Вычисленная
+ * порция запоминается, поэтому повторный обход и обход из нескольких потоков вызывают функции
+ * операций для каждого элемента один раз.
+ * <p>
+ * Последовательность неизменяема: операции не влияют на исходную последовательность, а частичный
+ * обход вычисляет только пройденные порции.
+ *
+ * @param <T> Тип элементов.
+ */
+public final class LazyPersistentSeq<T> implements Iterable<T> {
+    /**
+     * Вычисленная порция элементов и остаток последовательности.
+     */
+    private static final class Chunk<T> {
+        private final Object[] elements;
+        /**
+         * Последовательность после порции либо null в конце.
+         */
+        private final LazyPersistentSeq<T> rest;
+
+        private Chunk(Object[] elements, LazyPersistentSeq<T> rest) {
+            this.elements = elements;
+            this.rest = rest;
+        }
+    }
+
+    private static final Chunk<?> END = new Chunk<>(new Object[0], null);
+
+    /**
+     * Количество бит индекса на уровень дерева, которое получит {@link #toPersistentArray()}.
+     */
+    private final int bits;
+    /**
+     * Вычисление первой порции; после вычисления обнуляется, чтобы не удерживать источник.
+     */
+    private Supplier<Chunk<T>> producer;
+    private volatile Chunk<T> chunk;
+
+    private LazyPersistentSeq(int bits, Supplier<Chunk<T>> producer) {
+        this.bits = bits;
+        this.producer = producer;
+    }
+
+    /**
+     * @return Последовательность элементов текущей версии массива.
+     */
+    public static <T> LazyPersistentSeq<T> of(PersistentArray<T> array) {
+        BitTree<T> tree = array.currentVersion();
+        return leaves(tree, 0);
+    }
+
+    /**
+     * @return Пустая последовательность.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> LazyPersistentSeq<T> empty() {
+        LazyPersistentSeq<T> seq = new LazyPersistentSeq<>(BitTree.DEFAULT_BITS, null);
+        seq.chunk = (Chunk<T>) END;
+        return seq;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> LazyPersistentSeq<T> leaves(BitTree<T> tree, int start) {
+        return new LazyPersistentSeq<>(tree.getBits(), () -> start >= tree.getSize() ? (Chunk<T>) END
+                : new Chunk<>(tree.getLeaf(start).toArray(), leaves(tree, start + tree.getWidth())));
+    }
+
+    /**
+     * Вычисляет первую порцию один раз; при гонке потоков остальные ждут результата.
+     */
+    private Chunk<T> chunk() {
+        Chunk<T> result = chunk;
+        if (result == null) {
+            synchronized (this) {
+                result = chunk;
+                if (result == null) {
+                    result = producer.get();
+                    chunk = result;
+                    producer = null;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Последовательность результатов функции, применённой к каждому элементу.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> LazyPersistentSeq<R> map(Function<? super T, ? extends R> function) {
+        return new LazyPersistentSeq<>(bits, () -> {
+            Chunk<T> source = chunk();
+            if (source.rest == null) {
+                return (Chunk<R>) END;
+            }
+            Object[] mapped = new Object[source.elements.length];
+            for (int i = 0; i < mapped.length; i++) {
+                mapped[i] = function.apply((T) source.elements[i]);
+            }
+            return new Chunk<>(mapped, source.rest.map(function));
+        });
+    }
+
+    /**
+     * @return Последовательность элементов, удовлетворяющих условию.
+     */
+    @SuppressWarnings("unchecked")
+    public LazyPersistentSeq<T> filter(Predicate<? super T> predicate) {
+        return new LazyPersistentSeq<>(bits, () -> {
+            // Порции без подходящих элементов пропускаются, чтобы обход не видел пустых порций
+            for (LazyPersistentSeq<T> seq = this; ; ) {
+                Chunk<T> source = seq.chunk();
+                if (source.rest == null) {
+                    return (Chunk<T>) END;
+                }
+                Object[] kept = new Object[source.elements.length];
+                int count = 0;
+                for (Object element : source.elements) {
+                    if (predicate.test((T) element)) {
+                        kept[count++] = element;
+                    }
+                }
+                if (count > 0) {
+                    return new Chunk<>(count == kept.length ? kept : Arrays.copyOf(kept, count),
+                            source.rest.filter(predicate));
+                }
+                seq = source.rest;
+            }
+        });
+    }
+
+    /**
+     * @return Последовательность из первых {@code count} элементов.
+     */
+    @SuppressWarnings("unchecked")
+    public LazyPersistentSeq<T> take(int count) {
+        if (count <= 0) {
+            return empty();
+        }
+        return new LazyPersistentSeq<>(bits, () -> {
+            Chunk<T> source = chunk();
+            if (source.rest == null) {
+                return (Chunk<T>) END;
+            }
+            if (source.elements.length >= count) {
+                return new Chunk<>(Arrays.copyOf(source.elements, count), empty());
+            }
+            return new Chunk<>(source.elements, source.rest.take(count - source.elements.length));
+        });
+    }
+
+    /**
+     * @return true, если в последовательности нет элементов. Вычисляет первую непустую порцию.
+     */
+    public boolean isEmpty() {
+        return chunk().rest == null;
+    }
+
+    /**
+     * Обход элементов; пройденные порции вычисляются и запоминаются.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<>() {
+            private Chunk<T> current = chunk();
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                // Пустые порции пропускаются
+                while (current.rest != null && index == current.elements.length) {
+                    current = current.rest.chunk();
+                    index = 0;
+                }
+                return current.rest != null;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return (T) current.elements[index++];
+            }
+        };
+    }
+
+    /**
+     * Вычисляет всю последовательность и строит из неё массив одним проходом,
+     * без копирования пути дерева на каждом элементе.
+     * @return Массив с элементами последовательности в качестве начальной версии.
+     */
+    @SuppressWarnings("unchecked")
+    public PersistentArray<T> toPersistentArray() {
+        List<T> elements = new ArrayList<>();
+        for (Chunk<T> current = chunk(); current.rest != null; current = current.rest.chunk()) {
+            for (Object element : current.elements) {
+                elements.add((T) element);
+            }
+        }
+        return new PersistentArray<>(BitTree.fromList(elements, bits));
+    }
+}
@@ -0,0 +1,207 @@
+package Collections;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Ограниченный кеш результатов поиска по версиям коллекции.
+ * <p>
+ * Ключ кеша — пара «идентификатор версии, ключ поиска». Опубликованные версии не изменяются, поэтому
+ * результат поиска в версии не устаревает, пока версия существует; записи удалённых версий удаляются
+ * {@link #invalidate(Set)}. Кеш разделён на сегменты со своей блокировкой, а в сегменте записи
+ * вытесняются по алгоритму CLOCK: запись, к которой обращались после прошлого прохода стрелки,
+ * получает ещё один проход. Отсутствие результата (null) тоже кешируется.
+ *
+ * @param <R> Тип результата поиска.
+ */
+public final class LookupCache<R> {
+    private static final int SEGMENTS = 16;
+    /**
+     * Свободная ячейка сегмента.
+     */
+    private static final Object FREE = new Object();
+    private static final Object ABSENT = new Object();
+
+    private static final class Key {
+        private final long version;
+        private final Object key;
+        private final int hash;
+
+        private Key(long version, Object key) {
+            this.version = version;
+            this.key = key;
+            this.hash = Long.hashCode(version) * 31 + Objects.hashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && version == other.version && Objects.equals(key, other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Segment {
+        private final Key[] keys;
+        private final Object[] values;
+        private final boolean[] referenced;
+        private final Map<Key, Integer> slots = new HashMap<>();
+        private int hand;
+        private int used;
+
+        private Segment(int capacity) {
+            keys = new Key[capacity];
+            values = new Object[capacity];
+            referenced = new boolean[capacity];
+        }
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity Наибольшее количество записей.
+     */
+    public LookupCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be positive");
+        }
+        int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+        this.capacity = perSegment * SEGMENTS;
+    }
+
+    /**
+     * Возвращает закешированный результат поиска либо выполняет поиск и запоминает результат.
+     * Поиск выполняется без блокировки сегмента.
+     * @param version Идентификатор версии.
+     * @param key Ключ поиска.
+     * @param lookup Поиск в версии.
+     */
+    @SuppressWarnings("unchecked")
+    public R get(long version, Object key, Supplier<R> lookup) {
+        Key cacheKey = new Key(version, key);
+        Segment segment = segment(cacheKey);
+        synchronized (segment) {
+            Integer slot = segment.slots.get(cacheKey);
+            if (slot != null) {
+                segment.referenced[slot] = true;
+                hits.increment();
+                Object value = segment.values[slot];
+                return value == ABSENT ? null : (R) value;
+            }
+        }
+        misses.increment();
+        R result = lookup.get();
+        synchronized (segment) {
+            if (!segment.slots.containsKey(cacheKey)) {
+                insert(segment, cacheKey, result == null ? ABSENT : result);
+            }
+        }
+        return result;
+    }
+
+    private void insert(Segment segment, Key key, Object value) {
+        int slot;
+        if (segment.used < segment.keys.length) {
+            slot = segment.used++;
+        } else {
+            // Стрелка снимает отметки обращения, пока не найдёт запись без отметки
+            while (segment.referenced[segment.hand]) {
+                segment.referenced[segment.hand] = false;
+                segment.hand = (segment.hand + 1) % segment.keys.length;
+            }
+            slot = segment.hand;
+            segment.hand = (segment.hand + 1) % segment.keys.length;
+            if (segment.values[slot] != FREE) {
+                segment.slots.remove(segment.keys[slot]);
+                evictions.increment();
+            }
+        }
+        segment.keys[slot] = key;
+        segment.values[slot] = value;
+        segment.referenced[slot] = false;
+        segment.slots.put(key, slot);
+    }
+
+    /**
+     * Удаляет записи версий, которые больше не существуют.
+     * @param versions Идентификаторы удалённых версий.
+     */
+    public void invalidate(Set<Long> versions) {
+        if (versions.isEmpty()) {
+            return;
+        }
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (int slot = 0; slot < segment.used; slot++) {
+                    Key key = segment.keys[slot];
+                    if (key != null && versions.contains(key.version)) {
+                        segment.slots.remove(key);
+                        segment.keys[slot] = null;
+                        segment.values[slot] = FREE;
+                        segment.referenced[slot] = false;
+                    }
+                }
+            }
+        }
+    }
+
+    private Segment segment(Key key) {
+        int hash = key.hash;
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * @return Наибольшее количество записей (ёмкость, округлённая до кратной количеству сегментов).
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Текущее количество записей.
+     */
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.slots.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Доля обращений, найденных в кеше, либо 0, если обращений не было.
+     */
+    public double getHitRate() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+}
@@ -0,0 +1,230 @@
+package Collections;
+
+import API.PersistentCollection;
+import Help.BitTree;
+import Storage.ElementCodec;
+import Storage.SnapshotFormat;
+import Storage.SnapshotReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Неизменяемый массив, работающий напрямую со снимком {@link PersistentArray}, отображённым в память.
+ * <p>
+ * При открытии читаются только заголовок и запись истории версий, поэтому время открытия не зависит
+ * от объёма данных. Доступ по индексу спускается по записям узлов внутри отображённого файла,
+ * а элементы декодируются при первом обращении и кэшируются.
+ *
+ * @param <T> Тип хранимых объектов в коллекции.
+ */
+public class MappedPersistentArray<T> implements PersistentCollection<T>, Closeable {
+    private final SnapshotReader reader;
+    private final ElementCodec<T> codec;
+    private final Map<Long, T> values = new ConcurrentHashMap<>();
+    /**
+     * Смещения списков ссылок на версии внутри записи {@link SnapshotFormat#ARRAY}.
+     */
+    private final long undoRefs;
+    private final long redoRefs;
+    private final int undoCount;
+    private final int redoCount;
+    /**
+     * Номер текущей версии: сначала идут версии истории undo, затем версии истории redo
+     * в порядке их повторного применения.
+     */
+    private volatile int version;
+
+    private MappedPersistentArray(SnapshotReader reader, ElementCodec<T> codec, long arrayRef) throws IOException {
+        this.reader = reader;
+        this.codec = codec;
+        if (reader.byteAt(arrayRef) != SnapshotFormat.ARRAY) {
+            throw new IOException("Snapshot does not contain a PersistentArray");
+        }
+        this.undoRefs = arrayRef + Byte.BYTES + Integer.BYTES;
+        this.undoCount = reader.intAt(arrayRef + Byte.BYTES);
+        this.redoRefs = undoRefs + (long) undoCount * Long.BYTES + Integer.BYTES;
+        this.redoCount = reader.intAt(redoRefs - Integer.BYTES);
+        if (undoCount <= 0) {
+            throw new IOException("Snapshot does not contain any version");
+        }
+        this.version = undoCount - 1;
+    }
+
+    /**
+     * Открывает снимок, записанный методом {@link PersistentArray#save(Path, ElementCodec)}.
+     * @param path Путь к файлу снимка.
+     * @param codec Кодек элементов.
+     * @return Коллекция, доступная только для чтения.
+     */
+    public static <T> MappedPersistentArray<T> open(Path path, ElementCodec<T> codec) throws IOException {
+        SnapshotReader reader = SnapshotReader.open(path);
+        try {
+            return new MappedPersistentArray<>(reader, codec, reader.getRootRef());
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Материализует текущую версию в обычную изменяемую коллекцию.
+     * @return Коллекция с текущей версией в качестве единственной версии истории.
+     */
+    public PersistentArray<T> toPersistentArray() {
+        try {
+            long tree = treeRef(version);
+            int bits = reader.intAt(tree + Byte.BYTES);
+            int size = reader.intAt(tree + Byte.BYTES + Integer.BYTES * 2);
+            List<T> elements = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                elements.add(element(tree, i));
+            }
+            // Дерево строится за один проход и сохраняет ширину узла снимка
+            return new PersistentArray<>(BitTree.fromList(elements, bits));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public PersistentCollection<T> add(T element) {
+        throw new UnsupportedOperationException("MappedPersistentArray is read-only");
+    }
+
+    @Override
+    public PersistentCollection<T> update(int index, T element) {
+        throw new UnsupportedOperationException("MappedPersistentArray is read-only");
+    }
+
+    @Override
+    public PersistentCollection<T> remove(T element) {
+        throw new UnsupportedOperationException("MappedPersistentArray is read-only");
+    }
+
+    /**
+     * Получить элемент коллекции по индексу.
+     * @param param Индекс элемента.
+     * @return Значение элемента коллекции.
+     */
+    @Override
+    public T get(Object param) {
+        int index = (Integer) param;
+        try {
+            return element(treeRef(version), index);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param tree Смещение записи дерева версии.
+     */
+    private T element(long tree, int index) throws IOException {
+        int bits = reader.intAt(tree + Byte.BYTES);
+        int depth = reader.intAt(tree + Byte.BYTES + Integer.BYTES);
+        int size = reader.intAt(tree + Byte.BYTES + Integer.BYTES * 2);
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int mask = (1 << bits) - 1;
+
+        long node = reader.longAt(tree + Byte.BYTES + Integer.BYTES * 3);
+        for (int level = bits * (depth - 1); level > 0; level -= bits) {
+            node = childRef(node, (index >> level) & mask);
+        }
+        return value(valueRef(node, index & mask));
+    }
+
+    @Override
+    public boolean contains(T element) {
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            if (element.equals(get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        try {
+            return reader.intAt(treeRef(version) + Byte.BYTES + Integer.BYTES * 2);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Переход к предыдущей версии из сохранённой истории.
+     */
+    @Override
+    public MappedPersistentArray<T> undo() {
+        if (version > 0) {
+            version--;
+        }
+        return this;
+    }
+
+    /**
+     * Переход к следующей версии из сохранённой истории.
+     */
+    @Override
+    public MappedPersistentArray<T> redo() {
+        if (version < undoCount + redoCount - 1) {
+            version++;
+        }
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        values.clear();
+        reader.close();
+    }
+
+    private long treeRef(int version) throws IOException {
+        if (version < undoCount) {
+            return reader.longAt(undoRefs + (long) version * Long.BYTES);
+        }
+        // История redo хранится как стек: следующая версия находится на его вершине
+        return reader.longAt(redoRefs + (long) (undoCount + redoCount - 1 - version) * Long.BYTES);
+    }
+
+    private long childRef(long node, int index) throws IOException {
+        int valueCount = reader.intAt(node + Byte.BYTES);
+        long children = node + Byte.BYTES + Integer.BYTES + (long) Math.max(valueCount, 0) * Long.BYTES;
+        int childCount = reader.intAt(children);
+        if (index >= childCount) {
+            throw new IOException("Corrupted node at " + node);
+        }
+        return reader.longAt(children + Integer.BYTES + (long) index * Long.BYTES);
+    }
+
+    private long valueRef(long node, int index) throws IOException {
+        int valueCount = reader.intAt(node + Byte.BYTES);
+        if (index >= valueCount) {
+            throw new IOException("Corrupted node at " + node);
+        }
+        return reader.longAt(node + Byte.BYTES + Integer.BYTES + (long) index * Long.BYTES);
+    }
+
+    private T value(long ref) throws IOException {
+        if (ref == SnapshotFormat.NULL_REF) {
+            return null;
+        }
+        T value = values.get(ref);
+        if (value == null) {
+            value = codec.read(reader.record(ref, SnapshotFormat.VALUE));
+            values.putIfAbsent(ref, value);
+        }
+        return value;
+    }
+}
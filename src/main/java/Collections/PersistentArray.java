@@ -2,13 +2,31 @@ package Collections;
 
 import API.PersistentCollection;
 import Help.BitTree;
+import Help.CompactLeaf;
+import Metrics.CollectionMetrics;
+import Metrics.MemoryFootprint;
+import Storage.ElementCodec;
+import Storage.SnapshotFormat;
+import Storage.SnapshotInput;
+import Storage.SnapshotReader;
+import Storage.SnapshotWriter;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
 import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.UnaryOperator;
 
-public class PersistentArray<T> implements PersistentCollection<T> {
-    private final Stack<BitTree<T>> undoHistory = new Stack<>();
+public class PersistentArray<T> implements PersistentCollection<T>, Iterable<T> {
+    private final VersionHistory<BitTree<T>> undoHistory = new VersionHistory<>();
     private final Stack<BitTree<T>> redoHistory = new Stack<>();
     public static final int INITIAL_PERSISTENT_ARRAY_SIZE = 16;
+    private volatile BatchWriter<T> writer;
 
     public PersistentArray() {
         BitTree<T> bitTree = new BitTree<>(INITIAL_PERSISTENT_ARRAY_SIZE);
@@ -21,6 +39,30 @@ public class PersistentArray<T> implements PersistentCollection<T> {
         this.redoHistory.clear();
     }
 
+    /**
+     * Создаёт пустой массив с заданной шириной узла дерева.
+     * @param bits Количество бит индекса на уровень: 4, 5 или 6 (16, 32 или 64 потомка у узла).
+     */
+    public static <T> PersistentArray<T> withBranching(int bits) {
+        return new PersistentArray<>(BitTree.withCapacity(INITIAL_PERSISTENT_ARRAY_SIZE, bits));
+    }
+
+    /**
+     * Создаёт пустой массив, ширина узла которого подобрана по {@link BitTree#tuneBits(int, BitTree.Workload)}.
+     * @param expectedSize Ожидаемое количество элементов.
+     * @param workload Преобладающий вид операций.
+     */
+    public static <T> PersistentArray<T> tuned(int expectedSize, BitTree.Workload workload) {
+        return withBranching(BitTree.tuneBits(expectedSize, workload));
+    }
+
+    /**
+     * @return Количество бит индекса на уровень дерева текущей версии.
+     */
+    public int getBranchingBits() {
+        return this.undoHistory.peek().getBits();
+    }
+
     /**
      * Метод для вставки элемента в коллекцию.
      * @param element Элемент для добавления.
@@ -28,10 +70,14 @@ public class PersistentArray<T> implements PersistentCollection<T> {
      */
     @Override
     public PersistentArray<T> add(T element) {
-        BitTree<T> bitTree = new BitTree<>(this.undoHistory.peek());
-        this.undoHistory.push(bitTree);
-        this.redoHistory.clear();
-        bitTree.addArray(element);
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        push(version -> {
+            BitTree<T> bitTree = new BitTree<>(version);
+            bitTree.addArray(element);
+            return bitTree;
+        });
+        record(CollectionMetrics.Operation.ADD, start, copies);
         return this;
     }
 
@@ -40,11 +86,14 @@ public class PersistentArray<T> implements PersistentCollection<T> {
         if (index < 0 || index >= size()) {
             throw new IndexOutOfBoundsException();
         }
-        BitTree<T> bitTree = new BitTree<>(this.undoHistory.peek());
-        bitTree.update(index, element);
-
-        this.undoHistory.push(bitTree);
-        this.redoHistory.clear();
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        push(version -> {
+            BitTree<T> bitTree = new BitTree<>(version);
+            bitTree.update(index, element);
+            return bitTree;
+        });
+        record(CollectionMetrics.Operation.UPDATE, start, copies);
 
         return this;
     }
@@ -56,21 +105,67 @@ public class PersistentArray<T> implements PersistentCollection<T> {
      */
     @Override
     public PersistentArray<T> remove(T element) {
-        BitTree<T> bitTree = new BitTree<>(this.undoHistory.peek());
-        this.undoHistory.push(bitTree);
-        this.redoHistory.clear();
-        bitTree.removeArray(element);
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        push(version -> {
+            BitTree<T> bitTree = new BitTree<>(version);
+            bitTree.removeArray(element);
+            return bitTree;
+        });
+        record(CollectionMetrics.Operation.REMOVE, start, copies);
         return this;
     }
 
+    /**
+     * Добавляет версию, полученную операцией из текущей. Операция сохраняется в истории,
+     * чтобы восстановить версию, освобождённую при многоуровневом хранении.
+     */
+    private void push(UnaryOperator<BitTree<T>> operation) {
+        this.undoHistory.push(operation.apply(this.undoHistory.peek()), operation);
+        this.redoHistory.clear();
+    }
+
+    /**
+     * Публикует версию, полученную из текущей применением пакета запросов {@link BatchWriter}.
+     * @param adds Есть ли в пакете добавления: пакет учитывается в метриках как добавление,
+     *             а пакет только из обновлений — как обновление.
+     * @return Номер опубликованной версии.
+     */
+    int pushBatch(UnaryOperator<BitTree<T>> batch, boolean adds) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        push(batch);
+        record(adds ? CollectionMetrics.Operation.ADD : CollectionMetrics.Operation.UPDATE, start, copies);
+        return currentVersionIndex();
+    }
+
+    /**
+     * Пакетная запись в массив из многих потоков. Для массива создаётся один объект записи,
+     * чтобы все запросы проходили через одного комбайнера.
+     */
+    public BatchWriter<T> writer() {
+        BatchWriter<T> current = writer;
+        if (current == null) {
+            synchronized (this) {
+                current = writer;
+                if (current == null) {
+                    writer = current = new BatchWriter<>(this);
+                }
+            }
+        }
+        return current;
+    }
+
     /**
      * Получить последнюю сохранённую версию коллекции (до выполнения любой операции).
      */
     @Override
     public PersistentArray<T> undo() {
+        long start = CollectionMetrics.start();
         if (!undoHistory.isEmpty()) {
-            redoHistory.push(undoHistory.pop());
+            redoHistory.push(undoHistory.undo());
         }
+        record(CollectionMetrics.Operation.UNDO, start, 0);
         return this;
     }
 
@@ -79,9 +174,11 @@ public class PersistentArray<T> implements PersistentCollection<T> {
      */
     @Override
     public PersistentArray<T> redo() {
+        long start = CollectionMetrics.start();
         if (!redoHistory.isEmpty()) {
-            undoHistory.push(redoHistory.pop());
+            undoHistory.redo(redoHistory.pop());
         }
+        record(CollectionMetrics.Operation.REDO, start, 0);
         return this;
     }
 
@@ -92,7 +189,35 @@ public class PersistentArray<T> implements PersistentCollection<T> {
      */
     @Override
     public T get(Object param) {
-        return this.undoHistory.peek().get((Integer) param);
+        long start = CollectionMetrics.start();
+        T value = this.undoHistory.peek().get((Integer) param);
+        record(CollectionMetrics.Operation.GET, start, 0);
+        return value;
+    }
+
+    /**
+     * Курсор по текущей версии: последовательный и локальный доступ через него не спускается
+     * от корня дерева на каждом обращении. Последующие изменения массива на курсор не влияют.
+     * @param index Индекс, с которого начинается обход.
+     */
+    public BitTree.Cursor<T> cursor(int index) {
+        return this.undoHistory.peek().cursor(index);
+    }
+
+    /**
+     * Ленивая последовательность элементов текущей версии, вычисляемая по листьям дерева.
+     * Последующие изменения массива на последовательность не влияют.
+     */
+    public LazyPersistentSeq<T> lazy() {
+        return LazyPersistentSeq.of(this);
+    }
+
+    /**
+     * Обход элементов текущей версии по порядку индексов.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return cursor(0);
     }
 
     /**
@@ -102,8 +227,12 @@ public class PersistentArray<T> implements PersistentCollection<T> {
      */
     @Override
     public boolean contains(T element) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
         BitTree<T> bitTree = new BitTree<>(this.undoHistory.peek());
-        return bitTree.contains(element);
+        boolean contains = bitTree.contains(element);
+        record(CollectionMetrics.Operation.CONTAINS, start, copies);
+        return contains;
     }
 
     /**
@@ -114,4 +243,223 @@ public class PersistentArray<T> implements PersistentCollection<T> {
     public int size() {
         return this.undoHistory.peek().getSize();
     }
-}
+
+    /**
+     * Массивы равны, если текущие версии содержат равные элементы в том же порядке. Общие узлы
+     * не обходятся, поэтому сравнение близких версий быстрее полного.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof PersistentArray<?> other
+                && BitTree.elementsEqual(currentVersion(), (BitTree<T>) other.currentVersion());
+    }
+
+    /**
+     * @return Хеш-код текущей версии, совпадающий с {@link List#hashCode()} списка тех же элементов.
+     * Хеш-коды поддеревьев кешируются в узлах.
+     */
+    @Override
+    public int hashCode() {
+        return currentVersion().elementsHashCode();
+    }
+
+    private void record(CollectionMetrics.Operation operation, long start, long copies) {
+        if (start != 0) {
+            CollectionMetrics.record(CollectionMetrics.Kind.ARRAY, operation, start, copies,
+                    undoHistory.isEmpty() ? 0 : undoHistory.peek().getDepth(), undoHistory.size(),
+                    CollectionMetrics.NO_CHAIN);
+        }
+    }
+
+    /**
+     * @return Текущая версия. Опубликованные версии не изменяются, поэтому её можно читать из других потоков.
+     */
+    BitTree<T> currentVersion() {
+        return undoHistory.peek();
+    }
+
+    /**
+     * @return Количество версий в истории: отменяемых, текущей и повторяемых.
+     */
+    public int versionCount() {
+        return undoHistory.size() + redoHistory.size();
+    }
+
+    /**
+     * @return Номер текущей версии. Версии нумеруются от самой старой (0) до самой новой из повторяемых.
+     */
+    public int currentVersionIndex() {
+        return undoHistory.size() - 1;
+    }
+
+    private BitTree<T> version(int index) {
+        if (index < 0 || index >= versionCount()) {
+            throw new IndexOutOfBoundsException("Version " + index + " out of " + versionCount());
+        }
+        return index < undoHistory.size()
+                ? undoHistory.get(index) : redoHistory.get(redoHistory.size() - 1 - (index - undoHistory.size()));
+    }
+
+    /**
+     * Вычисляет различия двух версий по индексам элементов. Деревья версий обходятся одновременно,
+     * общие узлы пропускаются, поэтому время пропорционально количеству изменений, а не размеру массива.
+     * @param fromVersion Номер старой версии.
+     * @param toVersion Номер новой версии.
+     * @return Изменения в порядке возрастания индексов.
+     */
+    public List<Change<Integer, T>> diff(int fromVersion, int toVersion) {
+        List<Change<Integer, T>> changes = new ArrayList<>();
+        BitTree.diff(version(fromVersion), version(toVersion), (index, hadOld, oldValue, hasNew, newValue) -> {
+            if (!hasNew) {
+                changes.add(Change.removed(index, oldValue));
+            } else if (!hadOld) {
+                changes.add(Change.added(index, newValue));
+            } else if (!Objects.equals(oldValue, newValue)) {
+                changes.add(Change.changed(index, oldValue, newValue));
+            }
+        });
+        return changes;
+    }
+
+    /**
+     * Оценивает память текущей версии и всей истории (без учёта самих элементов).
+     * Версии, освобождённые при многоуровневом хранении, не учитываются.
+     * @return Память, принадлежащая только текущей версии, разделяемая с другими версиями и удерживаемая историей.
+     */
+    public MemoryFootprint memoryFootprint() {
+        List<BitTree<T>> versions = undoHistory.retained();
+        int current = versions.size() - 1;
+        versions.addAll(redoHistory);
+        return MemoryFootprint.compute(versions, current,
+                (BitTree<T> version, MemoryFootprint.Visitor visitor) -> visitor.visitTree(version, (element, v) -> {
+                }));
+    }
+
+    /**
+     * Сжимает листья холодных версий — всех отменяемых версий, кроме {@code hotVersions} последних.
+     * Листья, общие с горячими версиями, не затрагиваются. Сжатый лист ({@link CompactLeaf}) декодируется
+     * при чтении, а при изменении копируется в обычный список, поэтому поведение версий не меняется.
+     * Две последние версии всегда остаются горячими: самая новая может изменяться во время сжатия.
+     * @param hotVersions Количество последних версий, которые не сжимаются.
+     * @return Количество сжатых листьев.
+     */
+    public int compactHistory(int hotVersions) {
+        if (hotVersions < 1) {
+            throw new IllegalArgumentException("At least one version must stay uncompacted");
+        }
+        List<BitTree<T>> versions = undoHistory.retained();
+        int boundary = versions.size() - Math.max(hotVersions, 2);
+        if (boundary <= 0) {
+            return 0;
+        }
+        return CompactLeaf.compact(versions.subList(0, boundary), versions.get(boundary));
+    }
+
+    /**
+     * Выполняет {@link #compactHistory(int)} в фоне. Изменять массив во время сжатия можно
+     * из потока-владельца; опубликованные версии читаются без ограничений.
+     * @return Количество сжатых листьев.
+     */
+    public CompletableFuture<Integer> compactHistoryAsync(int hotVersions, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> compactHistory(hotVersions), executor);
+    }
+
+    /**
+     * Включает многоуровневое хранение истории: последние {@code strongVersions} отменяемых версий
+     * и каждая {@code checkpointInterval}-я версия удерживаются сильными ссылками, остальные — мягкими
+     * и освобождаются при нехватке памяти. Освобождённая версия восстанавливается при обращении
+     * (отмене, {@link #diff(int, int)}, сохранении) повтором операций от ближайшей контрольной точки.
+     * Повторяемые версии удерживаются сильно.
+     * @return Этот массив.
+     */
+    public PersistentArray<T> tieredHistory(int strongVersions, int checkpointInterval) {
+        undoHistory.setTiers(strongVersions, checkpointInterval);
+        return this;
+    }
+
+    /**
+     * Освобождает версии, удерживаемые мягкими ссылками, не дожидаясь нехватки памяти.
+     * @return Количество освобождённых версий.
+     */
+    public int releaseHistory() {
+        return undoHistory.release();
+    }
+
+    /**
+     * Сохраняет коллекцию вместе с историей версий в бинарный снимок.
+     * Узлы, общие для нескольких версий, записываются один раз.
+     * @param path Путь к файлу снимка.
+     * @param codec Кодек элементов.
+     */
+    public void save(Path path, ElementCodec<T> codec) throws IOException {
+        save(path, codec, 0);
+    }
+
+    void save(Path path, ElementCodec<T> codec, long sequence) throws IOException {
+        try (SnapshotWriter writer = new SnapshotWriter(path)) {
+            writer.finish(writeSnapshot(writer, element -> writer.writeValue(element, codec)), sequence);
+        }
+    }
+
+    /**
+     * Загружает коллекцию вместе с историей версий из бинарного снимка.
+     * @param path Путь к файлу снимка.
+     * @param codec Кодек элементов.
+     * @return Восстановленная коллекция.
+     */
+    public static <T> PersistentArray<T> load(Path path, ElementCodec<T> codec) throws IOException {
+        try (SnapshotReader reader = SnapshotReader.open(path)) {
+            return readSnapshot(reader, reader.getRootRef(), ref -> reader.readValue(ref, codec));
+        }
+    }
+
+    long writeSnapshot(SnapshotWriter writer, SnapshotWriter.ValueWriter<T> values) throws IOException {
+        Long known = writer.lookup(this);
+        if (known != null) {
+            return known;
+        }
+        long[] undo = writeHistory(writer, undoHistory.toList(), values);
+        long[] redo = writeHistory(writer, redoHistory, values);
+
+        long ref = writer.beginRecord(SnapshotFormat.ARRAY);
+        writer.output().writeRefs(undo);
+        writer.output().writeRefs(redo);
+        writer.remember(this, ref);
+        return ref;
+    }
+
+    private static <T> long[] writeHistory(SnapshotWriter writer, List<BitTree<T>> history,
+                                           SnapshotWriter.ValueWriter<T> values) throws IOException {
+        long[] refs = new long[history.size()];
+        for (int i = 0; i < refs.length; i++) {
+            refs[i] = writer.writeTree(history.get(i), values);
+        }
+        return refs;
+    }
+
+    static <T> PersistentArray<T> readSnapshot(SnapshotReader reader, long ref,
+                                               SnapshotReader.ValueReader<T> values) throws IOException {
+        PersistentArray<T> array = reader.cached(ref);
+        if (array != null) {
+            return array;
+        }
+        SnapshotInput in = reader.record(ref, SnapshotFormat.ARRAY);
+        long[] undo = in.readRefs();
+        long[] redo = in.readRefs();
+
+        array = new PersistentArray<>();
+        array.undoHistory.clear();
+        for (long treeRef : undo) {
+            array.undoHistory.push(reader.readTree(treeRef, values));
+        }
+        for (long treeRef : redo) {
+            array.redoHistory.push(reader.readTree(treeRef, values));
+        }
+        reader.cache(ref, array);
+        return array;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,267 @@
+package Collections;
+
+import API.PersistentCollection;
+import Help.BitTrie;
+import Metrics.CollectionMetrics;
+import Metrics.MemoryFootprint;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Stack;
+
+/**
+ * Персистентное множество битов.
+ * <p>
+ * Каждая версия — неизменяемое {@link BitTrie}, листья которого хранят биты упакованными в слова long,
+ * поэтому флаг занимает около одного бита. Установка и сброс бита копируют путь от корня
+ * за O(log n); мощность вычисляется за O(1), а операции {@link #and}, {@link #or}, {@link #xor}
+ * и {@link #andNot} обрабатывают листья по словам и пропускают поддеревья, общие для версий.
+ * <p>
+ * Как коллекция множество хранит индексы установленных битов: {@link #add(Integer)} устанавливает бит,
+ * {@link #remove(Integer)} сбрасывает его.
+ */
+public class PersistentBitSet implements PersistentCollection<Integer>, Iterable<Integer> {
+    private final Stack<BitTrie> undoHistory = new Stack<>();
+    private final Stack<BitTrie> redoHistory = new Stack<>();
+
+    public PersistentBitSet() {
+        undoHistory.push(new BitTrie());
+    }
+
+    PersistentBitSet(BitTrie trie) {
+        undoHistory.push(trie);
+    }
+
+    private BitTrie current() {
+        return undoHistory.peek();
+    }
+
+    /**
+     * @return Текущая неизменяемая версия для {@link TransactionalStore}.
+     */
+    BitTrie currentVersion() {
+        return current();
+    }
+
+    /**
+     * Создаёт независимое множество с текущей версией в качестве начальной за O(1).
+     */
+    public PersistentBitSet copy() {
+        return new PersistentBitSet(current());
+    }
+
+    /**
+     * Устанавливает бит, создавая новую версию, если значение изменилось.
+     */
+    public PersistentBitSet set(int index, boolean value) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        BitTrie trie = current();
+        BitTrie updated = trie.set(index, value);
+        if (updated != trie) {
+            push(updated);
+        }
+        record(value ? CollectionMetrics.Operation.ADD : CollectionMetrics.Operation.REMOVE, start, copies);
+        return this;
+    }
+
+    public PersistentBitSet set(int index) {
+        return set(index, true);
+    }
+
+    public PersistentBitSet clear(int index) {
+        return set(index, false);
+    }
+
+    public boolean get(int index) {
+        long start = CollectionMetrics.start();
+        boolean value = current().get(index);
+        record(CollectionMetrics.Operation.GET, start, 0);
+        return value;
+    }
+
+    @Override
+    public PersistentBitSet add(Integer element) {
+        return set(element, true);
+    }
+
+    @Override
+    public PersistentCollection<Integer> update(int index, Integer element) {
+        throw new UnsupportedOperationException("Method 'update' is not supported for PersistentBitSet");
+    }
+
+    /**
+     * Сбрасывает бит, как {@link #clear(int)}.
+     * @return Это множество либо null, если бит не был установлен.
+     */
+    @Override
+    public PersistentBitSet remove(Integer element) {
+        BitTrie trie = current();
+        set(element, false);
+        return current() == trie ? null : this;
+    }
+
+    /**
+     * @return Индекс, если бит установлен, либо null.
+     */
+    @Override
+    public Integer get(Object param) {
+        int index = (Integer) param;
+        return get(index) ? index : null;
+    }
+
+    @Override
+    public boolean contains(Integer element) {
+        return get((int) element);
+    }
+
+    /**
+     * @return Количество установленных битов текущей версии.
+     */
+    @Override
+    public int size() {
+        return cardinality();
+    }
+
+    public int cardinality() {
+        return current().cardinality();
+    }
+
+    /**
+     * @return Индекс первого установленного бита, не меньшего {@code from}, либо -1.
+     */
+    public int nextSetBit(int from) {
+        return current().nextSetBit(from);
+    }
+
+    /**
+     * Пересечение с текущей версией другого множества, создаёт новую версию.
+     */
+    public PersistentBitSet and(PersistentBitSet other) {
+        return combine(current().and(other.current()));
+    }
+
+    /**
+     * Объединение с текущей версией другого множества, создаёт новую версию.
+     */
+    public PersistentBitSet or(PersistentBitSet other) {
+        return combine(current().or(other.current()));
+    }
+
+    /**
+     * Симметрическая разность с текущей версией другого множества, создаёт новую версию.
+     */
+    public PersistentBitSet xor(PersistentBitSet other) {
+        return combine(current().xor(other.current()));
+    }
+
+    /**
+     * Сбрасывает биты, установленные в текущей версии другого множества, создаёт новую версию.
+     */
+    public PersistentBitSet andNot(PersistentBitSet other) {
+        return combine(current().andNot(other.current()));
+    }
+
+    private PersistentBitSet combine(BitTrie result) {
+        if (result != current()) {
+            push(result);
+        }
+        return this;
+    }
+
+    private void push(BitTrie trie) {
+        undoHistory.push(trie);
+        redoHistory.clear();
+    }
+
+    /**
+     * Обход индексов установленных битов текущей версии по возрастанию.
+     */
+    @Override
+    public Iterator<Integer> iterator() {
+        BitTrie trie = current();
+        return new Iterator<>() {
+            private int next = trie.nextSetBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Integer next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                int index = next;
+                next = index == Integer.MAX_VALUE ? -1 : trie.nextSetBit(index + 1);
+                return index;
+            }
+        };
+    }
+
+    /**
+     * Множества равны, если в текущих версиях установлены одни и те же биты.
+     * Общие поддеревья при сравнении пропускаются.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PersistentBitSet other)) {
+            return false;
+        }
+        BitTrie first = current();
+        BitTrie second = other.current();
+        return first.cardinality() == second.cardinality() && first.indexHashCode() == second.indexHashCode()
+                && first.xor(second).cardinality() == 0;
+    }
+
+    /**
+     * @return Сумма индексов установленных битов, как в {@link java.util.Set#hashCode()}.
+     */
+    @Override
+    public int hashCode() {
+        return current().indexHashCode();
+    }
+
+    /**
+     * Оценка памяти текущей версии и всей истории.
+     */
+    public MemoryFootprint memoryFootprint() {
+        List<BitTrie> versions = new ArrayList<>(undoHistory);
+        versions.addAll(redoHistory);
+        return MemoryFootprint.compute(versions, undoHistory.size() - 1, BitTrie::visit);
+    }
+
+    @Override
+    public PersistentBitSet undo() {
+        long start = CollectionMetrics.start();
+        // Начальная версия остаётся в истории всегда
+        if (undoHistory.size() > 1) {
+            redoHistory.push(undoHistory.pop());
+        }
+        record(CollectionMetrics.Operation.UNDO, start, 0);
+        return this;
+    }
+
+    @Override
+    public PersistentBitSet redo() {
+        long start = CollectionMetrics.start();
+        if (!redoHistory.isEmpty()) {
+            undoHistory.push(redoHistory.pop());
+        }
+        record(CollectionMetrics.Operation.REDO, start, 0);
+        return this;
+    }
+
+    private void record(CollectionMetrics.Operation operation, long start, long copies) {
+        if (start != 0) {
+            CollectionMetrics.record(CollectionMetrics.Kind.BIT_SET, operation, start, copies,
+                    current().getHeight() + 1, undoHistory.size(), CollectionMetrics.NO_CHAIN);
+        }
+    }
+}
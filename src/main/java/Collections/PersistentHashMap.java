@@ -1,58 +1,322 @@
 package Collections;
 import API.PersistentCollection;
+import Help.BitTree;
+import Metrics.CollectionMetrics;
+import Metrics.MemoryFootprint;
+import Storage.ElementCodec;
+import Storage.SnapshotFormat;
+import Storage.SnapshotInput;
+import Storage.SnapshotReader;
+import Storage.SnapshotWriter;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
 
+/**
+ * Персистентная хеш-таблица.
+ * <p>
+ * Каждая версия ({@link State}) неизменяема: таблица корзин хранится в {@link BitTree} с копированием пути,
+ * а корзины ({@link Bucket}) — неизменяемые цепочки или деревья, поэтому изменение копирует только путь
+ * к корзине и путь внутри неё.
+ * Отмена и повтор переключают версии целиком и остаются корректными при любом количестве корзин.
+ * <p>
+ * Таблица растёт по схеме линейного хеширования: при превышении {@link #LOAD_FACTOR} операция
+ * добавления разделяет корзину, на которую указывает {@code split}, и дописывает в конец таблицы
+ * одну новую, поэтому перехеширование распределено по операциям и ни одна из них не перестраивает
+ * таблицу целиком.
+ * <p>
+ * Таблица не больше {@link #SMALL_MAP_MAX} записей хранится плоским массивом записей без дерева
+ * и корзин: поиск просматривает массив, а изменение копирует его целиком. Добавление записи сверх
+ * этого размера переводит версию в обычную таблицу; удаление записей обратно не переводит.
+ *
+ * @param <K> Тип ключей.
+ * @param <V> Тип значений.
+ */
 public class PersistentHashMap<K, V> implements PersistentCollection<Entry<K, V>> {
-    private static class UndoRedoAction<K, V> {
-        private final int index;
-        private final Entry<K, V> entry;
+    /**
+     * Начальное количество корзин (степень двойки).
+     */
+    public static final int INITIAL_CAPACITY = PersistentArray.INITIAL_PERSISTENT_ARRAY_SIZE;
+    /**
+     * Допустимое среднее количество записей на корзину.
+     */
+    public static final float LOAD_FACTOR = 0.75f;
+    /**
+     * Наибольшее количество записей таблицы, хранимой плоским массивом.
+     */
+    public static final int SMALL_MAP_MAX = 8;
 
-        public UndoRedoAction(int index, Entry<K, V> entry) {
-            this.index = index;
-            this.entry = entry;
+    /**
+     * Неизменяемая версия таблицы.
+     */
+    private static final class State<K, V> {
+        private static final AtomicLong IDS = new AtomicLong();
+
+        /**
+         * Идентификатор версии для {@link LookupCache}; уникален среди всех таблиц.
+         */
+        private final long id = IDS.incrementAndGet();
+        /**
+         * Корзины. Пустая корзина хранится как null. У малой таблицы — null.
+         */
+        private final BitTree<Bucket<K, V>> table;
+        /**
+         * Записи малой таблицы либо null, если записи хранятся в корзинах.
+         */
+        private final Entry<K, V>[] entries;
+        /**
+         * Количество записей.
+         */
+        private final int size;
+        /**
+         * Маска адреса текущего раунда: (INITIAL_CAPACITY * 2^раунд) - 1.
+         */
+        private final int mask;
+        /**
+         * Номер следующей разделяемой корзины. Корзины с меньшим номером уже разделены в этом раунде
+         * и адресуются маской следующего раунда.
+         */
+        private final int split;
+
+        private State(BitTree<Bucket<K, V>> table, int size, int mask, int split) {
+            this.table = table;
+            this.entries = null;
+            this.size = size;
+            this.mask = mask;
+            this.split = split;
         }
 
-        public int getIndex() {
-            return index;
+        private State(Entry<K, V>[] entries) {
+            this.table = null;
+            this.entries = entries;
+            this.size = entries.length;
+            this.mask = INITIAL_CAPACITY - 1;
+            this.split = 0;
         }
 
-        public Entry<K, V> getEntry() {
-            return entry;
+        /**
+         * @return Номер записи с ключом в массиве малой таблицы либо -1.
+         */
+        private int slotOf(Object key) {
+            for (int i = 0; i < entries.length; i++) {
+                if (Objects.equals(entries[i].getKey(), key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int indexOf(int hash) {
+            int index = hash & mask;
+            return index < split ? hash & ((mask << 1) | 1) : index;
+        }
+
+        /**
+         * Корзины читаются в случайном порядке, поэтому без фокуса дерева: поиск не создаёт объектов.
+         */
+        private Bucket<K, V> bucket(int index) {
+            return table.getDirect(index);
         }
     }
-    private final PersistentArray<PersistentLinkedList<Entry<K, V>>> hashMap = new PersistentArray<>();
-    private final Stack<UndoRedoAction<K, V>> undoHistory = new Stack<>();
-    private final Stack<UndoRedoAction<K, V>> redoHistory = new Stack<>();
 
+    /**
+     * Оценки размеров объектов для {@link #memoryFootprint()}.
+     */
+    private static final long STATE = MemoryFootprint.align(MemoryFootprint.OBJECT_HEADER
+            + 2 * MemoryFootprint.REFERENCE + 3 * Integer.BYTES + Long.BYTES);
+    private static final long ENTRY = MemoryFootprint.align(MemoryFootprint.OBJECT_HEADER + 2 * MemoryFootprint.REFERENCE);
+
+    private final VersionHistory<State<K, V>> undoHistory = new VersionHistory<>();
+    private final Stack<State<K, V>> redoHistory = new Stack<>();
+    private volatile LookupCache<Entry<K, V>> lookupCache;
+
+    @SuppressWarnings("rawtypes")
+    private static final Entry[] NO_ENTRIES = new Entry[0];
 
+    @SuppressWarnings("unchecked")
     public PersistentHashMap() {
-        for (int i = 0; i < PersistentArray.INITIAL_PERSISTENT_ARRAY_SIZE; i++) {
-            hashMap.add(new PersistentLinkedList<>());
-        }
+        undoHistory.push(new State<>((Entry<K, V>[]) NO_ENTRIES));
+    }
+
+    private PersistentHashMap(Stack<State<K, V>> undoHistory, Stack<State<K, V>> redoHistory) {
+        undoHistory.forEach(this.undoHistory::push);
+        this.redoHistory.addAll(redoHistory);
+    }
+
+    private PersistentHashMap(State<K, V> state) {
+        undoHistory.push(state);
+    }
+
+    private State<K, V> current() {
+        return undoHistory.peek();
+    }
+
+    /**
+     * @return Текущая неизменяемая версия для {@link TransactionalStore}.
+     */
+    Object currentVersion() {
+        return current();
+    }
+
+    /**
+     * @return Таблица с единственной версией, полученной из {@link #currentVersion()}.
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> ofVersion(Object version) {
+        return new PersistentHashMap<>((State<K, V>) version);
+    }
+
+    /**
+     * Создаёт независимую таблицу с текущей версией в качестве начальной. Копия разделяет
+     * с таблицей всю структуру, поэтому создаётся за O(1).
+     */
+    public PersistentHashMap<K, V> copy() {
+        return new PersistentHashMap<>(current());
+    }
+
+    /**
+     * Распределяет биты старшей половины хеш-кода по младшим, которые используются для адресации корзин.
+     */
+    static int spread(Object key) {
+        int hash = Objects.hashCode(key);
+        return hash ^ (hash >>> 16);
     }
 
     public PersistentHashMap<K, V> add(K key, V value) {
-        return add(new AbstractMap.SimpleEntry<>(key, value));
+        return add(new AbstractMap.SimpleImmutableEntry<>(key, value));
     }
 
     @Override
     public PersistentHashMap<K, V> add(Entry<K, V> element) {
-        int index = hashcodeIndex(Objects.hashCode(element.getKey()));
-        for (int i = 0; i < hashMap.get(index).size(); i++) {
-            Entry<K, V> entry = hashMap.get(index).get(i);
-            if (entry.getKey().equals(element.getKey())) {
-                hashMap.get(index).update(i, element);
-                undoHistory.push(new UndoRedoAction<>(index, entry));
-                redoHistory.clear();
-                return this;
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        State<K, V> state = current();
+        if (state.entries != null) {
+            int slot = state.slotOf(element.getKey());
+            push(putSmall(state, slot, element), version -> put(version, element));
+            record(slot >= 0 ? CollectionMetrics.Operation.UPDATE : CollectionMetrics.Operation.ADD, start, copies, 0);
+            return this;
+        }
+        int hash = spread(element.getKey());
+        int index = state.indexOf(hash);
+        Bucket<K, V> bucket = state.bucket(index);
+        boolean replace = bucket != null && bucket.find(hash, element.getKey()) != null;
+        push(put(state, hash, index, bucket, replace, element), version -> put(version, element));
+        record(replace ? CollectionMetrics.Operation.UPDATE : CollectionMetrics.Operation.ADD, start, copies, index);
+        return this;
+    }
+
+    private static <K, V> State<K, V> put(State<K, V> state, Entry<K, V> element) {
+        if (state.entries != null) {
+            return putSmall(state, state.slotOf(element.getKey()), element);
+        }
+        int hash = spread(element.getKey());
+        int index = state.indexOf(hash);
+        Bucket<K, V> bucket = state.bucket(index);
+        boolean replace = bucket != null && bucket.find(hash, element.getKey()) != null;
+        return put(state, hash, index, bucket, replace, element);
+    }
+
+    /**
+     * @return Версия с добавленной или заменённой записью.
+     */
+    private static <K, V> State<K, V> put(State<K, V> state, int hash, int index, Bucket<K, V> bucket,
+                                          boolean replace, Entry<K, V> element) {
+        BitTree<Bucket<K, V>> table = new BitTree<>(state.table);
+        table.update(index, Bucket.put(bucket, hash, element));
+        int size = replace ? state.size : state.size + 1;
+        int mask = state.mask;
+        int split = state.split;
+        // Каждая запись требует 1/LOAD_FACTOR корзин, поэтому добавление разделяет одну или две корзины
+        while (size > LOAD_FACTOR * table.getSize()) {
+            splitBucket(table, split, mask + 1);
+            if (++split > mask) {
+                mask = (mask << 1) | 1;
+                split = 0;
             }
         }
-        hashMap.get(index).add(element);
-        undoHistory.push(new UndoRedoAction<>(index, null));
+        return new State<>(table, size, mask, split);
+    }
+
+    /**
+     * @param slot Номер заменяемой записи либо -1.
+     * @return Версия малой таблицы с добавленной или заменённой записью; добавление сверх
+     * {@link #SMALL_MAP_MAX} записей переводит версию в обычную таблицу.
+     */
+    private static <K, V> State<K, V> putSmall(State<K, V> state, int slot, Entry<K, V> element) {
+        Entry<K, V>[] entries;
+        if (slot >= 0) {
+            entries = state.entries.clone();
+            entries[slot] = element;
+        } else if (state.size < SMALL_MAP_MAX) {
+            entries = Arrays.copyOf(state.entries, state.size + 1);
+            entries[state.size] = element;
+        } else {
+            return put(promote(state), element);
+        }
+        return new State<>(entries);
+    }
+
+    /**
+     * @return Версия с записями малой таблицы, разложенными по {@link #INITIAL_CAPACITY} корзинам.
+     * Записей не больше {@link #SMALL_MAP_MAX}, поэтому таблица не разделяет корзины.
+     */
+    private static <K, V> State<K, V> promote(State<K, V> state) {
+        BitTree<Bucket<K, V>> table = new BitTree<>(1, BitTree.DEFAULT_BITS);
+        for (int i = 0; i < INITIAL_CAPACITY; i++) {
+            table.add(null);
+        }
+        for (Entry<K, V> entry : state.entries) {
+            int hash = spread(entry.getKey());
+            int index = hash & (INITIAL_CAPACITY - 1);
+            table.update(index, Bucket.put(table.get(index), hash, entry));
+        }
+        return new State<>(table, state.size, INITIAL_CAPACITY - 1, 0);
+    }
+
+    /**
+     * Разделяет корзину: записи, у которых установлен бит {@code highBit}, переносятся в новую корзину
+     * в конце таблицы.
+     */
+    private static <K, V> void splitBucket(BitTree<Bucket<K, V>> table, int index, int highBit) {
+        Bucket<K, V> bucket = table.get(index);
+        List<Integer> lowHashes = new ArrayList<>();
+        List<Entry<K, V>> low = new ArrayList<>();
+        List<Integer> highHashes = new ArrayList<>();
+        List<Entry<K, V>> high = new ArrayList<>();
+        if (bucket != null) {
+            bucket.forEach((hash, entry) -> {
+                if ((hash & highBit) == 0) {
+                    lowHashes.add(hash);
+                    low.add(entry);
+                } else {
+                    highHashes.add(hash);
+                    high.add(entry);
+                }
+            });
+        }
+        table.update(index, Bucket.build(lowHashes, low, bucket));
+        table.add(Bucket.build(highHashes, high, bucket));
+    }
+
+    /**
+     * @param operation Операция, получающая версию из предыдущей, для восстановления версии,
+     *                  освобождённой при многоуровневом хранении.
+     */
+    private void push(State<K, V> state, UnaryOperator<State<K, V>> operation) {
+        LookupCache<Entry<K, V>> cache = lookupCache;
+        if (cache != null && !redoHistory.isEmpty()) {
+            Set<Long> discarded = new HashSet<>();
+            redoHistory.forEach(version -> discarded.add(version.id));
+            cache.invalidate(discarded);
+        }
+        undoHistory.push(state, operation);
         redoHistory.clear();
-        return this;
     }
 
     @Override
@@ -60,119 +324,616 @@ public class PersistentHashMap<K, V> implements PersistentCollection<Entry<K, V>
         throw new UnsupportedOperationException("Method 'update' is not supported for PersistentHashMap");
     }
 
+    /**
+     * Удаляет запись с ключом. Если ключа нет, не создаёт объектов.
+     * @return Таблица без записи либо null, если ключа не было.
+     */
     public PersistentHashMap<K, V> delete(K key) {
-        return remove(new AbstractMap.SimpleEntry<>(key, null));
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        State<K, V> state = current();
+        if (state.entries != null) {
+            int slot = state.slotOf(key);
+            if (slot >= 0) {
+                push(removeSmall(state, slot), version -> remove(version, key));
+            }
+            record(CollectionMetrics.Operation.REMOVE, start, copies, 0);
+            return slot >= 0 ? this : null;
+        }
+        int hash = spread(key);
+        int index = state.indexOf(hash);
+        Bucket<K, V> bucket = state.bucket(index);
+        if (bucket == null || bucket.find(hash, key) == null) {
+            record(CollectionMetrics.Operation.REMOVE, start, copies, index);
+            return null;
+        }
+        push(remove(state, hash, index, bucket, key), version -> remove(version, key));
+        record(CollectionMetrics.Operation.REMOVE, start, copies, index);
+        return this;
     }
 
+    /**
+     * Удаляет запись с ключом элемента; значение элемента не учитывается.
+     */
     @Override
     public PersistentHashMap<K, V> remove(Entry<K, V> element) {
-        int index = hashcodeIndex(Objects.hashCode(element.getKey()));
-        for (int i = 0; i < hashMap.get(index).size(); i++) {
-            Entry<K, V> entry = hashMap.get(index).get(i);
-            if (entry.getKey().equals(element.getKey())) {
-                hashMap.get(index).remove(entry);
-                undoHistory.push(new UndoRedoAction<>(index, entry));
-                redoHistory.clear();
-                return this;
-            }
+        return delete(element.getKey());
+    }
+
+    private static <K, V> State<K, V> remove(State<K, V> state, Object key) {
+        if (state.entries != null) {
+            int slot = state.slotOf(key);
+            return slot < 0 ? state : removeSmall(state, slot);
+        }
+        int hash = spread(key);
+        int index = state.indexOf(hash);
+        Bucket<K, V> bucket = state.bucket(index);
+        if (bucket == null || bucket.find(hash, key) == null) {
+            return state;
         }
-        return null;
+        return remove(state, hash, index, bucket, key);
+    }
+
+    /**
+     * @return Версия без записи, которая находится в указанной корзине.
+     */
+    private static <K, V> State<K, V> remove(State<K, V> state, int hash, int index, Bucket<K, V> bucket, Object key) {
+        BitTree<Bucket<K, V>> table = new BitTree<>(state.table);
+        table.update(index, bucket.remove(hash, key));
+        return new State<>(table, state.size - 1, state.mask, state.split);
+    }
+
+    /**
+     * @return Версия малой таблицы без записи с указанным номером.
+     */
+    private static <K, V> State<K, V> removeSmall(State<K, V> state, int slot) {
+        Entry<K, V>[] entries = Arrays.copyOf(state.entries, state.size - 1);
+        System.arraycopy(state.entries, slot + 1, entries, slot, state.size - 1 - slot);
+        return new State<>(entries);
     }
 
     @Override
     public Entry<K, V> get(Object key) {
-        int index = hashcodeIndex(Objects.hashCode(key));
-        PersistentLinkedList<Entry<K, V>> get = hashMap.get(index);
-        int size = get.size();
-        for (int i = 0; i < size; i++) {
-            Entry<K, V> entry = get.get(i);
-            if (entry.getKey().equals(key)) {
-                return entry;
-            }
+        long start = CollectionMetrics.start();
+        State<K, V> state = current();
+        if (state.entries != null) {
+            Entry<K, V> found = find(state, key);
+            record(CollectionMetrics.Operation.GET, start, 0, 0);
+            return found;
+        }
+        int hash = spread(key);
+        int index = state.indexOf(hash);
+        Bucket<K, V> bucket = state.bucket(index);
+        Entry<K, V> found = bucket == null ? null : bucket.find(hash, key);
+        record(CollectionMetrics.Operation.GET, start, 0, index);
+        return found;
+    }
+
+    /**
+     * Поиск в версии из истории. Если включён {@link #withLookupCache(int)}, результаты поиска
+     * в версиях, отличных от текущей, кешируются.
+     * @param version Номер версии (см. {@link #versionCount()}).
+     * @param key Ключ.
+     * @return Запись с ключом в этой версии либо null.
+     */
+    public Entry<K, V> get(int version, Object key) {
+        long start = CollectionMetrics.start();
+        State<K, V> state = version(version);
+        LookupCache<Entry<K, V>> cache = lookupCache;
+        Entry<K, V> found = cache == null || state == current()
+                ? find(state, key) : cache.get(state.id, key, () -> find(state, key));
+        record(CollectionMetrics.Operation.GET, start, 0, -1);
+        return found;
+    }
+
+    private static <K, V> Entry<K, V> find(State<K, V> state, Object key) {
+        if (state.entries != null) {
+            int slot = state.slotOf(key);
+            return slot < 0 ? null : state.entries[slot];
         }
-        return null;
+        int hash = spread(key);
+        Bucket<K, V> bucket = state.bucket(state.indexOf(hash));
+        return bucket == null ? null : bucket.find(hash, key);
+    }
+
+    /**
+     * Включает кеш поиска в версиях истории для {@link #get(int, Object)}. Записи версий,
+     * удалённых из истории новым изменением после отмены, удаляются из кеша.
+     * @param capacity Наибольшее количество записей кеша.
+     * @return Эта таблица.
+     */
+    public PersistentHashMap<K, V> withLookupCache(int capacity) {
+        lookupCache = new LookupCache<>(capacity);
+        return this;
     }
 
-    private int hashcodeIndex(int hashCode) {
-        return Math.abs(hashCode) % hashMap.size();
+    /**
+     * @return Кеш поиска в версиях истории (со статистикой попаданий) либо null, если он не включён.
+     */
+    public LookupCache<Entry<K, V>> getLookupCache() {
+        return lookupCache;
     }
 
+    /**
+     * Поиск, как и {@link #get(Object)}, не создаёт объектов.
+     */
     public boolean contains(K key, V value) {
-        return contains(new AbstractMap.SimpleEntry<>(key, value));
+        long start = CollectionMetrics.start();
+        State<K, V> state = current();
+        if (state.entries != null) {
+            Entry<K, V> found = find(state, key);
+            boolean contains = found != null && Objects.equals(found.getValue(), value);
+            record(CollectionMetrics.Operation.CONTAINS, start, 0, 0);
+            return contains;
+        }
+        int hash = spread(key);
+        int index = state.indexOf(hash);
+        Bucket<K, V> bucket = state.bucket(index);
+        Entry<K, V> found = bucket == null ? null : bucket.find(hash, key);
+        boolean contains = found != null && Objects.equals(found.getValue(), value);
+        record(CollectionMetrics.Operation.CONTAINS, start, 0, index);
+        return contains;
     }
 
     @Override
     public boolean contains(Entry<K, V> element) {
-        int hashCode = Objects.hashCode(element.getKey());
-        int index = Math.abs(hashCode) % hashMap.size();
-        return hashMap.get(index).contains(element);
+        return contains(element.getKey(), element.getValue());
     }
 
     @Override
     public int size() {
-        int size = 0;
-        for (int i = 0; i < hashMap.size(); i++) {
-            size += hashMap.get(i).size();
-        }
-        return size;
+        return current().size;
+    }
+
+    /**
+     * @return Количество корзин в текущей версии; для малой таблицы — {@link #INITIAL_CAPACITY},
+     * столько корзин она получит при переходе в обычную таблицу.
+     */
+    public int capacity() {
+        State<K, V> state = current();
+        return state.entries != null ? INITIAL_CAPACITY : state.table.getSize();
     }
 
     @Override
     public PersistentHashMap<K, V> undo() {
-        if (!undoHistory.isEmpty()) {
-            UndoRedoAction<K, V> action = undoHistory.pop();
-            int index = action.getIndex();
-            Entry<K, V> entry = action.getEntry();
-
-            if (entry != null) {
-                hashMap.get(index).remove(entry);
-            } else if (index == PersistentArray.INITIAL_PERSISTENT_ARRAY_SIZE) {
-                for (int i = 0; i < PersistentArray.INITIAL_PERSISTENT_ARRAY_SIZE; i++) {
-                    undoHistory.pop();
-                    redoHistory.push(new UndoRedoAction<>(PersistentArray.INITIAL_PERSISTENT_ARRAY_SIZE, null));
-                }
-            } else if (index > PersistentArray.INITIAL_PERSISTENT_ARRAY_SIZE) {
-                int count = index - PersistentArray.INITIAL_PERSISTENT_ARRAY_SIZE;
-                for (int i = 0; i < count; i++) {
-                    hashMap.get(undoHistory.peek().getIndex()).undo();
-                    redoHistory.push(undoHistory.pop());
-                }
-                redoHistory.push(new UndoRedoAction<>(index, null));
-            } else {
-                hashMap.get(index).undo();
-                redoHistory.push(new UndoRedoAction<>(index, null));
-            }
+        long start = CollectionMetrics.start();
+        // Начальная пустая версия остаётся в истории всегда
+        if (undoHistory.size() > 1) {
+            redoHistory.push(undoHistory.undo());
         }
-
+        record(CollectionMetrics.Operation.UNDO, start, 0, -1);
         return this;
     }
 
     @Override
     public PersistentHashMap<K, V> redo() {
+        long start = CollectionMetrics.start();
         if (!redoHistory.isEmpty()) {
-            UndoRedoAction<K, V> action = redoHistory.pop();
-            int index = action.getIndex();
-            Entry<K, V> entry = action.getEntry();
-            if (entry != null) {
-                hashMap.get(index).add(entry);
-            } else if (index == PersistentArray.INITIAL_PERSISTENT_ARRAY_SIZE) {
-                for (int i = 0; i < PersistentArray.INITIAL_PERSISTENT_ARRAY_SIZE; i++) {
-                    redoHistory.pop();
-                    undoHistory.push(new UndoRedoAction<>(PersistentArray.INITIAL_PERSISTENT_ARRAY_SIZE, null));
-                }
-            } else if (index > PersistentArray.INITIAL_PERSISTENT_ARRAY_SIZE) {
-                int count = index - PersistentArray.INITIAL_PERSISTENT_ARRAY_SIZE;
-                for (int i = 0; i < count; i++) {
-                    hashMap.get(redoHistory.peek().getIndex()).redo();
-                    undoHistory.push(redoHistory.pop());
-                }
-                undoHistory.push(new UndoRedoAction<>(index, null));
+            undoHistory.redo(redoHistory.pop());
+        }
+        record(CollectionMetrics.Operation.REDO, start, 0, -1);
+        return this;
+    }
+
+    /**
+     * Включает многоуровневое хранение истории: последние {@code strongVersions} отменяемых версий
+     * и каждая {@code checkpointInterval}-я версия удерживаются сильными ссылками, остальные — мягкими
+     * и освобождаются при нехватке памяти. Освобождённая версия восстанавливается при обращении
+     * повтором добавлений и удалений от ближайшей контрольной точки. Повторяемые версии удерживаются сильно.
+     * @return Эта таблица.
+     */
+    public PersistentHashMap<K, V> tieredHistory(int strongVersions, int checkpointInterval) {
+        undoHistory.setTiers(strongVersions, checkpointInterval);
+        return this;
+    }
+
+    /**
+     * Освобождает версии, удерживаемые мягкими ссылками, не дожидаясь нехватки памяти.
+     * @return Количество освобождённых версий.
+     */
+    public int releaseHistory() {
+        return undoHistory.release();
+    }
+
+    /**
+     * @return Количество версий в истории: отменяемых, текущей и повторяемых.
+     */
+    public int versionCount() {
+        return undoHistory.size() + redoHistory.size();
+    }
+
+    /**
+     * @return Номер текущей версии. Версии нумеруются от самой старой (0) до самой новой из повторяемых.
+     */
+    public int currentVersionIndex() {
+        return undoHistory.size() - 1;
+    }
+
+    private State<K, V> version(int index) {
+        if (index < 0 || index >= versionCount()) {
+            throw new IndexOutOfBoundsException("Version " + index + " out of " + versionCount());
+        }
+        return index < undoHistory.size()
+                ? undoHistory.get(index) : redoHistory.get(redoHistory.size() - 1 - (index - undoHistory.size()));
+    }
+
+    /**
+     * Вычисляет различия двух версий по ключам. Таблицы версий обходятся одновременно, общие узлы
+     * и корзины пропускаются, а записи сравниваются только в различающихся корзинах. Запись,
+     * перенесённая разделением корзины, попадает в различающиеся корзины обеих версий и взаимно
+     * сокращается, поэтому результат верен и при разном количестве корзин. Если одна из версий — малая
+     * таблица, сравниваются все записи обеих версий.
+     * @param fromVersion Номер старой версии.
+     * @param toVersion Номер новой версии.
+     * @return Изменения (порядок не определён).
+     */
+    public List<Change<K, V>> diff(int fromVersion, int toVersion) {
+        return diff(version(fromVersion), version(toVersion));
+    }
+
+    private static <K, V> List<Change<K, V>> diff(State<K, V> from, State<K, V> to) {
+        Map<K, V> removed = new LinkedHashMap<>();
+        Map<K, V> added = new LinkedHashMap<>();
+        if (from.entries != null || to.entries != null) {
+            if (from != to) {
+                forEachEntry(from, removed::put);
+                forEachEntry(to, added::put);
+            }
+        } else {
+            BitTree.diff(from.table, to.table,
+                    (index, hadOld, oldBucket, hasNew, newBucket) -> {
+                        if (oldBucket != null) {
+                            oldBucket.forEach((hash, entry) -> removed.put(entry.getKey(), entry.getValue()));
+                        }
+                        if (newBucket != null) {
+                            newBucket.forEach((hash, entry) -> added.put(entry.getKey(), entry.getValue()));
+                        }
+                    });
+        }
+
+        List<Change<K, V>> changes = new ArrayList<>();
+        for (Entry<K, V> entry : removed.entrySet()) {
+            K key = entry.getKey();
+            if (!added.containsKey(key)) {
+                changes.add(Change.removed(key, entry.getValue()));
+                continue;
+            }
+            V value = added.remove(key);
+            if (!Objects.equals(entry.getValue(), value)) {
+                changes.add(Change.changed(key, entry.getValue(), value));
+            }
+        }
+        for (Entry<K, V> entry : added.entrySet()) {
+            changes.add(Change.added(entry.getKey(), entry.getValue()));
+        }
+        return changes;
+    }
+
+    private static <K, V> void forEachEntry(State<K, V> state, BiConsumer<K, V> action) {
+        if (state.entries != null) {
+            for (Entry<K, V> entry : state.entries) {
+                action.accept(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+        for (int i = 0; i < state.table.getSize(); i++) {
+            Bucket<K, V> bucket = state.bucket(i);
+            if (bucket != null) {
+                bucket.forEach((hash, entry) -> action.accept(entry.getKey(), entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Таблицы равны, если текущие версии содержат одинаковые записи. Сравнение отсекает таблицы
+     * с разными размерами и хеш-кодами, а затем ищет различия одновременным обходом таблиц,
+     * пропуская общие узлы и корзины.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PersistentHashMap<?, ?> other)) {
+            return false;
+        }
+        State<K, V> state = current();
+        State<K, V> otherState = (State<K, V>) other.current();
+        return state == otherState || state.size == otherState.size && hashCode() == other.hashCode()
+                && diff(state, otherState).isEmpty();
+    }
+
+    /**
+     * @return Сумма хеш-кодов записей текущей версии, как в {@link Map#hashCode()}.
+     * Хеш-коды корзин хранятся в корзинах, а суммы по поддеревьям таблицы кешируются в её узлах.
+     */
+    @Override
+    public int hashCode() {
+        State<K, V> state = current();
+        if (state.entries == null) {
+            return state.table.elementsHashSum();
+        }
+        int hash = 0;
+        for (Entry<K, V> entry : state.entries) {
+            hash += Bucket.entryHash(entry);
+        }
+        return hash;
+    }
+
+    /**
+     * Разрешение конфликта трёхстороннего слияния. Отсутствие ключа в версии обозначается значением null.
+     */
+    public interface ConflictResolver<K, V> {
+        /**
+         * @param key Ключ, изменённый в обеих версиях по-разному.
+         * @param base Значение в общей базовой версии.
+         * @param left Значение в левой версии.
+         * @param right Значение в правой версии.
+         * @return Значение в результате слияния либо null, чтобы удалить ключ.
+         */
+        V resolve(K key, V base, V left, V right);
+    }
+
+    /**
+     * Трёхстороннее слияние текущих версий двух таблиц, полученных из общей базовой.
+     * <p>
+     * Изменения каждой стороны относительно базы вычисляются одновременным обходом таблиц
+     * ({@link #diff(int, int)}), после чего изменения стороны с меньшим их числом применяются к другой
+     * стороне. Нетронутые корзины и узлы результата общие с исходными таблицами, а время
+     * пропорционально количеству изменений, а не размеру таблиц. Ключ, изменённый обеими сторонами
+     * одинаково, конфликтом не считается.
+     * @param base Общая базовая таблица.
+     * @param left Левая таблица.
+     * @param right Правая таблица.
+     * @param resolver Разрешение конфликтов, вызывается только для ключей, изменённых обеими сторонами по-разному.
+     * @return Новая таблица с единственной версией — результатом слияния.
+     */
+    public static <K, V> PersistentHashMap<K, V> merge(PersistentHashMap<K, V> base, PersistentHashMap<K, V> left,
+                                                       PersistentHashMap<K, V> right, ConflictResolver<K, V> resolver) {
+        List<Change<K, V>> leftChanges = diff(base.current(), left.current());
+        List<Change<K, V>> rightChanges = diff(base.current(), right.current());
+        boolean fromLeft = leftChanges.size() >= rightChanges.size();
+        State<K, V> state = fromLeft ? left.current() : right.current();
+
+        Map<K, Change<K, V>> applied = new HashMap<>();
+        for (Change<K, V> change : fromLeft ? leftChanges : rightChanges) {
+            applied.put(change.getKey(), change);
+        }
+        for (Change<K, V> change : fromLeft ? rightChanges : leftChanges) {
+            K key = change.getKey();
+            Change<K, V> other = applied.get(key);
+            V value;
+            if (other == null) {
+                value = change.getNewValue();
+            } else if (other.getType() == Change.Type.REMOVED ? change.getType() == Change.Type.REMOVED
+                    : change.getType() != Change.Type.REMOVED && Objects.equals(other.getNewValue(), change.getNewValue())) {
+                continue;
             } else {
-                hashMap.get(index).redo();
-                undoHistory.push(new UndoRedoAction<>(index, null));
+                Change<K, V> leftChange = fromLeft ? other : change;
+                Change<K, V> rightChange = fromLeft ? change : other;
+                value = resolver.resolve(key, change.getOldValue(), leftChange.getNewValue(), rightChange.getNewValue());
             }
+            boolean delete = other == null ? change.getType() == Change.Type.REMOVED : value == null;
+            state = delete ? remove(state, key) : put(state, new AbstractMap.SimpleImmutableEntry<>(key, value));
         }
+        return new PersistentHashMap<>(state);
+    }
 
-        return this;
+    /**
+     * Оценивает память текущей версии таблицы и всей истории (без учёта ключей и значений).
+     * Версии, освобождённые при многоуровневом хранении, не учитываются.
+     * @return Память, принадлежащая только текущей версии, разделяемая с другими версиями и удерживаемая историей.
+     */
+    public MemoryFootprint memoryFootprint() {
+        List<State<K, V>> versions = undoHistory.retained();
+        int current = versions.size() - 1;
+        versions.addAll(redoHistory);
+        return MemoryFootprint.compute(versions, current,
+                (State<K, V> version, MemoryFootprint.Visitor visitor) -> {
+                    if (!visitor.visit(version, STATE)) {
+                        return;
+                    }
+                    if (version.entries == null) {
+                        visitor.visitTree(version.table, (bucket, bucketVisitor) -> bucket.visit(bucketVisitor, ENTRY));
+                    } else if (visitor.visit(version.entries, MemoryFootprint.align(MemoryFootprint.ARRAY_HEADER
+                            + (long) version.size * MemoryFootprint.REFERENCE))) {
+                        for (Entry<K, V> entry : version.entries) {
+                            visitor.visit(entry, ENTRY);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * @param index Номер просмотренной корзины либо -1. Массив малой таблицы считается одной корзиной.
+     */
+    private void record(CollectionMetrics.Operation operation, long start, long copies, int index) {
+        if (start != 0) {
+            State<K, V> state = current();
+            if (state.entries != null) {
+                CollectionMetrics.record(CollectionMetrics.Kind.HASH_MAP, operation, start, copies, 0,
+                        undoHistory.size(), index < 0 ? CollectionMetrics.NO_CHAIN : state.size);
+                return;
+            }
+            Bucket<K, V> bucket = index < 0 || index >= state.table.getSize() ? null : state.bucket(index);
+            CollectionMetrics.record(CollectionMetrics.Kind.HASH_MAP, operation, start, copies,
+                    state.table.getDepth(), undoHistory.size(),
+                    index < 0 ? CollectionMetrics.NO_CHAIN : bucket == null ? 0 : bucket.chainLength());
+        }
+    }
+
+    /**
+     * Сохраняет коллекцию вместе с историей версий в бинарный снимок.
+     * Корзины, записи и узлы, общие для нескольких версий, записываются один раз.
+     * Малые таблицы записываются как обычные и загружаются обычными таблицами.
+     * @param path Путь к файлу снимка.
+     * @param keyCodec Кодек ключей.
+     * @param valueCodec Кодек значений.
+     */
+    public void save(Path path, ElementCodec<K> keyCodec, ElementCodec<V> valueCodec) throws IOException {
+        save(path, keyCodec, valueCodec, 0);
+    }
+
+    void save(Path path, ElementCodec<K> keyCodec, ElementCodec<V> valueCodec, long sequence) throws IOException {
+        try (SnapshotWriter writer = new SnapshotWriter(path)) {
+            SnapshotWriter.ValueWriter<Bucket<K, V>> buckets =
+                    bucket -> writeBucket(writer, bucket, keyCodec, valueCodec);
+            List<State<K, V>> undoVersions = undoHistory.toList();
+            long[] undo = writeTables(writer, undoVersions, buckets);
+            long[] redo = writeTables(writer, redoHistory, buckets);
+
+            long ref = writer.beginRecord(SnapshotFormat.HASH_MAP);
+            writeStates(writer, undoVersions, undo);
+            writeStates(writer, redoHistory, redo);
+            writer.finish(ref, sequence);
+        }
+    }
+
+    /**
+     * Загружает коллекцию вместе с историей версий из бинарного снимка.
+     * @param path Путь к файлу снимка.
+     * @param keyCodec Кодек ключей.
+     * @param valueCodec Кодек значений.
+     * @return Восстановленная коллекция.
+     */
+    public static <K, V> PersistentHashMap<K, V> load(Path path, ElementCodec<K> keyCodec,
+                                                      ElementCodec<V> valueCodec) throws IOException {
+        try (SnapshotReader reader = SnapshotReader.open(path)) {
+            SnapshotReader.ValueReader<Bucket<K, V>> buckets =
+                    ref -> readBucket(reader, ref, keyCodec, valueCodec);
+            SnapshotInput in = reader.record(reader.getRootRef(), SnapshotFormat.HASH_MAP);
+            Stack<State<K, V>> undo = readStates(reader, in, buckets);
+            Stack<State<K, V>> redo = readStates(reader, in, buckets);
+            return new PersistentHashMap<>(undo, redo);
+        }
+    }
+
+    private static <K, V> long[] writeTables(SnapshotWriter writer, List<State<K, V>> history,
+                                             SnapshotWriter.ValueWriter<Bucket<K, V>> buckets) throws IOException {
+        long[] refs = new long[history.size()];
+        for (int i = 0; i < refs.length; i++) {
+            State<K, V> state = history.get(i);
+            refs[i] = writer.writeTree(state.entries == null ? state.table : promote(state).table, buckets);
+        }
+        return refs;
+    }
+
+    private static <K, V> void writeStates(SnapshotWriter writer, List<State<K, V>> history,
+                                           long[] tableRefs) throws IOException {
+        writer.output().writeInt(tableRefs.length);
+        for (int i = 0; i < tableRefs.length; i++) {
+            State<K, V> state = history.get(i);
+            writer.output().writeLong(tableRefs[i]);
+            writer.output().writeInt(state.size);
+            writer.output().writeInt(state.mask);
+            writer.output().writeInt(state.split);
+        }
+    }
+
+    private static <K, V> Stack<State<K, V>> readStates(SnapshotReader reader, SnapshotInput in,
+                                                        SnapshotReader.ValueReader<Bucket<K, V>> buckets)
+            throws IOException {
+        Stack<State<K, V>> history = new Stack<>();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            BitTree<Bucket<K, V>> table = reader.readTree(in.readLong(), buckets);
+            history.push(new State<>(table, in.readInt(), in.readInt(), in.readInt()));
+        }
+        return history;
+    }
+
+    private static <K, V> long writeBucket(SnapshotWriter writer, Bucket<K, V> bucket,
+                                           ElementCodec<K> keyCodec, ElementCodec<V> valueCodec) throws IOException {
+        if (bucket == null) {
+            return SnapshotFormat.NULL_REF;
+        }
+        Long known = writer.lookup(bucket);
+        if (known != null) {
+            return known;
+        }
+        long ref;
+        if (bucket instanceof Bucket.Chain<K, V> chain) {
+            long next = writeBucket(writer, chain.getNext(), keyCodec, valueCodec);
+            long entry = writeEntry(writer, chain.getEntry(), keyCodec, valueCodec);
+            ref = writer.beginRecord(SnapshotFormat.BUCKET);
+            writer.output().writeInt(chain.getHash());
+            writer.output().writeLong(entry);
+            writer.output().writeLong(next);
+        } else {
+            Bucket.TreeNode<K, V> node = (Bucket.TreeNode<K, V>) bucket;
+            long left = writeBucket(writer, node.getLeft(), keyCodec, valueCodec);
+            long right = writeBucket(writer, node.getRight(), keyCodec, valueCodec);
+            long entry = writeEntry(writer, node.getEntry(), keyCodec, valueCodec);
+            ref = writer.beginRecord(SnapshotFormat.BUCKET_TREE_NODE);
+            writer.output().writeInt(node.getHash());
+            writer.output().writeLong(entry);
+            writer.output().writeLong(left);
+            writer.output().writeLong(right);
+        }
+        writer.remember(bucket, ref);
+        return ref;
+    }
+
+    private static <K, V> Bucket<K, V> readBucket(SnapshotReader reader, long ref,
+                                                  ElementCodec<K> keyCodec, ElementCodec<V> valueCodec)
+            throws IOException {
+        if (ref == SnapshotFormat.NULL_REF) {
+            return null;
+        }
+        Bucket<K, V> bucket = reader.cached(ref);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (reader.byteAt(ref) == SnapshotFormat.BUCKET) {
+            SnapshotInput in = reader.record(ref, SnapshotFormat.BUCKET);
+            int hash = in.readInt();
+            long entry = in.readLong();
+            long next = in.readLong();
+            bucket = new Bucket.Chain<>(hash, readEntry(reader, entry, keyCodec, valueCodec),
+                    (Bucket.Chain<K, V>) readBucket(reader, next, keyCodec, valueCodec));
+        } else {
+            SnapshotInput in = reader.record(ref, SnapshotFormat.BUCKET_TREE_NODE);
+            int hash = in.readInt();
+            long entry = in.readLong();
+            long left = in.readLong();
+            long right = in.readLong();
+            bucket = new Bucket.TreeNode<>(hash, readEntry(reader, entry, keyCodec, valueCodec),
+                    (Bucket.TreeNode<K, V>) readBucket(reader, left, keyCodec, valueCodec),
+                    (Bucket.TreeNode<K, V>) readBucket(reader, right, keyCodec, valueCodec));
+        }
+        reader.cache(ref, bucket);
+        return bucket;
+    }
+
+    private static <K, V> long writeEntry(SnapshotWriter writer, Entry<K, V> entry,
+                                          ElementCodec<K> keyCodec, ElementCodec<V> valueCodec) throws IOException {
+        Long known = writer.lookup(entry);
+        if (known != null) {
+            return known;
+        }
+        long key = writer.writeValue(entry.getKey(), keyCodec);
+        long value = writer.writeValue(entry.getValue(), valueCodec);
+        long ref = writer.beginRecord(SnapshotFormat.ENTRY);
+        writer.output().writeLong(key);
+        writer.output().writeLong(value);
+        writer.remember(entry, ref);
+        return ref;
+    }
+
+    private static <K, V> Entry<K, V> readEntry(SnapshotReader reader, long ref,
+                                                ElementCodec<K> keyCodec, ElementCodec<V> valueCodec)
+            throws IOException {
+        Entry<K, V> entry = reader.cached(ref);
+        if (entry != null) {
+            return entry;
+        }
+        SnapshotInput in = reader.record(ref, SnapshotFormat.ENTRY);
+        long key = in.readLong();
+        long value = in.readLong();
+        entry = new AbstractMap.SimpleImmutableEntry<>(reader.readValue(key, keyCodec),
+                reader.readValue(value, valueCodec));
+        reader.cache(ref, entry);
+        return entry;
     }
-}
\ No newline at end of file
+}
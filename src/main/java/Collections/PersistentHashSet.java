@@ -0,0 +1,204 @@
+package Collections;
+
+import API.PersistentCollection;
+import Help.HashTrie;
+import Metrics.CollectionMetrics;
+
+import java.util.Iterator;
+import java.util.Stack;
+
+/**
+ * Персистентное хеш-множество.
+ * <p>
+ * Каждая версия — неизменяемое {@link HashTrie}, в котором элементы хранятся без обёрток,
+ * поэтому проверка наличия не создаёт объектов. Версии одного множества и его копий разделяют
+ * неизменённые поддеревья, и объединение, пересечение и разность пропускают общие поддеревья
+ * по ссылке: на почти совпадающих версиях эти операции выполняются за время, пропорциональное различию.
+ *
+ * @param <T> Тип элементов.
+ */
+public class PersistentHashSet<T> implements PersistentCollection<T>, Iterable<T> {
+    private final Stack<HashTrie<T>> undoHistory = new Stack<>();
+    private final Stack<HashTrie<T>> redoHistory = new Stack<>();
+
+    public PersistentHashSet() {
+        undoHistory.push(new HashTrie<>());
+    }
+
+    PersistentHashSet(HashTrie<T> trie) {
+        undoHistory.push(trie);
+    }
+
+    private HashTrie<T> current() {
+        return undoHistory.peek();
+    }
+
+    /**
+     * @return Текущая неизменяемая версия для {@link TransactionalStore}.
+     */
+    HashTrie<T> currentVersion() {
+        return current();
+    }
+
+    /**
+     * Создаёт независимое множество с текущей версией в качестве начальной. Копия разделяет
+     * со множеством всю структуру, поэтому создаётся за O(1).
+     */
+    public PersistentHashSet<T> copy() {
+        return new PersistentHashSet<>(current());
+    }
+
+    @Override
+    public PersistentHashSet<T> add(T element) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        push(current().add(element));
+        record(CollectionMetrics.Operation.ADD, start, copies);
+        return this;
+    }
+
+    @Override
+    public PersistentCollection<T> update(int index, T element) {
+        throw new UnsupportedOperationException("Method 'update' is not supported for PersistentHashSet");
+    }
+
+    /**
+     * @return Множество без элемента либо null, если элемента не было.
+     */
+    @Override
+    public PersistentHashSet<T> remove(T element) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        HashTrie<T> trie = current();
+        HashTrie<T> removed = trie.remove(element);
+        if (removed != trie) {
+            push(removed);
+        }
+        record(CollectionMetrics.Operation.REMOVE, start, copies);
+        return removed == trie ? null : this;
+    }
+
+    /**
+     * Объединяет текущую версию с текущей версией другого множества, создавая новую версию,
+     * если множество изменилось.
+     */
+    public PersistentHashSet<T> union(PersistentHashSet<T> other) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        return combine(current().union(other.current()), CollectionMetrics.Operation.ADD, start, copies);
+    }
+
+    /**
+     * Оставляет элементы, присутствующие в текущей версии другого множества, создавая новую версию,
+     * если множество изменилось.
+     */
+    public PersistentHashSet<T> intersection(PersistentHashSet<T> other) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        return combine(current().intersection(other.current()), CollectionMetrics.Operation.REMOVE, start, copies);
+    }
+
+    /**
+     * Удаляет элементы, присутствующие в текущей версии другого множества, создавая новую версию,
+     * если множество изменилось.
+     */
+    public PersistentHashSet<T> difference(PersistentHashSet<T> other) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        return combine(current().difference(other.current()), CollectionMetrics.Operation.REMOVE, start, copies);
+    }
+
+    private PersistentHashSet<T> combine(HashTrie<T> result, CollectionMetrics.Operation operation,
+                                         long start, long copies) {
+        if (result != current()) {
+            push(result);
+        }
+        record(operation, start, copies);
+        return this;
+    }
+
+    private void push(HashTrie<T> trie) {
+        undoHistory.push(trie);
+        redoHistory.clear();
+    }
+
+    /**
+     * @return Хранимый элемент, равный указанному, либо null.
+     */
+    @Override
+    public T get(Object param) {
+        long start = CollectionMetrics.start();
+        T element = current().get(param);
+        record(CollectionMetrics.Operation.GET, start, 0);
+        return element;
+    }
+
+    @Override
+    public boolean contains(T element) {
+        long start = CollectionMetrics.start();
+        boolean contains = current().contains(element);
+        record(CollectionMetrics.Operation.CONTAINS, start, 0);
+        return contains;
+    }
+
+    @Override
+    public int size() {
+        return current().getSize();
+    }
+
+    /**
+     * Обход элементов текущей версии. Последующие изменения множества на начатый обход не влияют.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return current().iterator();
+    }
+
+    /**
+     * Множества равны, если равны наборы элементов их текущих версий. Общие поддеревья
+     * не обходятся, поэтому сравнение близких версий быстрее полного.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof PersistentHashSet<?> other && current().equals(other.current());
+    }
+
+    /**
+     * @return Сумма хеш-кодов элементов текущей версии, как в {@link java.util.Set#hashCode()}.
+     */
+    @Override
+    public int hashCode() {
+        return current().hashCode();
+    }
+
+    @Override
+    public PersistentHashSet<T> undo() {
+        long start = CollectionMetrics.start();
+        // Начальная версия остаётся в истории всегда
+        if (undoHistory.size() > 1) {
+            redoHistory.push(undoHistory.pop());
+        }
+        record(CollectionMetrics.Operation.UNDO, start, 0);
+        return this;
+    }
+
+    @Override
+    public PersistentHashSet<T> redo() {
+        long start = CollectionMetrics.start();
+        if (!redoHistory.isEmpty()) {
+            undoHistory.push(redoHistory.pop());
+        }
+        record(CollectionMetrics.Operation.REDO, start, 0);
+        return this;
+    }
+
+    private void record(CollectionMetrics.Operation operation, long start, long copies) {
+        if (start != 0) {
+            CollectionMetrics.record(CollectionMetrics.Kind.HASH_SET, operation, start, copies,
+                    current().getDepth(), undoHistory.size(), CollectionMetrics.NO_CHAIN);
+        }
+    }
+}
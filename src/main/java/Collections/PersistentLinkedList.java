@@ -2,7 +2,19 @@ package Collections;
 
 import API.PersistentCollection;
 import Help.BitTree;
-
+import Metrics.CollectionMetrics;
+import Metrics.MemoryFootprint;
+import Storage.ElementCodec;
+import Storage.SnapshotFormat;
+import Storage.SnapshotInput;
+import Storage.SnapshotReader;
+import Storage.SnapshotWriter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.Stack;
 
 public class PersistentLinkedList<T> implements PersistentCollection<T> {
@@ -24,7 +36,15 @@ public class PersistentLinkedList<T> implements PersistentCollection<T> {
          * Базовый конструктор без параметров.
          */
         public Structure() {
-            super(1, 5);
+            this(DEFAULT_BITS);
+        }
+
+        /**
+         * Конструктор пустой структуры с заданной шириной узла.
+         * @param bits Количество бит индекса на уровень.
+         */
+        public Structure(int bits) {
+            super(1, bits);
         }
 
         /**
@@ -37,6 +57,18 @@ public class PersistentLinkedList<T> implements PersistentCollection<T> {
             this.tail = structureToCopy.tail;
         }
 
+        /**
+         * Конструктор для восстановления структуры из снимка.
+         * @param tree Дерево с узлами списка.
+         * @param head Ссылка на голову списка.
+         * @param tail Ссылка на хвост списка.
+         */
+        public Structure(BitTree<T> tree, int head, int tail) {
+            super(tree);
+            this.head = head;
+            this.tail = tail;
+        }
+
         /**
          * Метод для проверки структуры на наличие элементов.
          * @return true, если структура пуста<br>false, если структура хранит элементы
@@ -127,6 +159,15 @@ public class PersistentLinkedList<T> implements PersistentCollection<T> {
         }
     }
 
+    /**
+     * Оценки размеров объектов для {@link #memoryFootprint()}: структура (дерево с фокусом, головой, хвостом
+     * и ссылкой на список) и узел списка.
+     */
+    private static final long STRUCTURE = MemoryFootprint.align(MemoryFootprint.OBJECT_HEADER
+            + 3 * MemoryFootprint.REFERENCE + 8 * Integer.BYTES);
+    private static final long NODE = MemoryFootprint.align(MemoryFootprint.OBJECT_HEADER
+            + 2 * MemoryFootprint.REFERENCE + 2 * Integer.BYTES);
+
     private final Stack<Structure<Node<T>>> undoHistory= new Stack<>();
     private final Stack<Structure<Node<T>>> redoHistory= new Stack<>();
 
@@ -136,6 +177,33 @@ public class PersistentLinkedList<T> implements PersistentCollection<T> {
         redoHistory.clear();
     }
 
+    /**
+     * Создаёт пустой список с заданной шириной узла дерева.
+     * @param bits Количество бит индекса на уровень: 4, 5 или 6 (16, 32 или 64 потомка у узла).
+     */
+    public static <T> PersistentLinkedList<T> withBranching(int bits) {
+        PersistentLinkedList<T> list = new PersistentLinkedList<>();
+        list.undoHistory.clear();
+        list.undoHistory.push(list.new Structure<>(BitTree.checkBits(bits)));
+        return list;
+    }
+
+    /**
+     * Создаёт пустой список, ширина узла которого подобрана по {@link BitTree#tuneBits(int, BitTree.Workload)}.
+     * @param expectedSize Ожидаемое количество элементов.
+     * @param workload Преобладающий вид операций.
+     */
+    public static <T> PersistentLinkedList<T> tuned(int expectedSize, BitTree.Workload workload) {
+        return withBranching(BitTree.tuneBits(expectedSize, workload));
+    }
+
+    /**
+     * @return Количество бит индекса на уровень дерева текущей версии.
+     */
+    public int getBranchingBits() {
+        return getCurrentStructure().getBits();
+    }
+
     public PersistentLinkedList(BitTree<T> bitTree) {
         Structure<Node<T>> head = new Structure<>();
         // Copy the structure of the BitTree's root node to the linked list's head
@@ -150,6 +218,8 @@ public class PersistentLinkedList<T> implements PersistentCollection<T> {
 
     @Override
     public PersistentLinkedList<T> add(T element) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
         Structure<Node<T>> currentStructure = getCurrentStructure();
         Structure<Node<T>> newStructure = new Structure<>(currentStructure);
 
@@ -175,12 +245,15 @@ public class PersistentLinkedList<T> implements PersistentCollection<T> {
         // Пушим новую структуру в историю
         undoHistory.push(newStructure);
         redoHistory.clear();
+        record(CollectionMetrics.Operation.ADD, start, copies);
 
         return this;
     }
 
     @Override
     public PersistentCollection<T> update(int index, T element) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
         Structure<Node<T>> newStructure = new Structure<>(this.undoHistory.peek());
         Node<T> newNode = new Node<>(newStructure.get(index));
 
@@ -195,12 +268,15 @@ public class PersistentLinkedList<T> implements PersistentCollection<T> {
         // Пушим новую структуру в историю
         undoHistory.push(newStructure);
         redoHistory.clear();
+        record(CollectionMetrics.Operation.UPDATE, start, copies);
 
         return this;
     }
 
     @Override
     public PersistentLinkedList<T> remove(T element) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
         Structure<Node<T>> currentStructure = getCurrentStructure();
         Structure<Node<T>> newStructure = new Structure<>(currentStructure);
 
@@ -246,31 +322,36 @@ public class PersistentLinkedList<T> implements PersistentCollection<T> {
             undoHistory.push(newStructure);
             redoHistory.clear();
         }
+        record(CollectionMetrics.Operation.REMOVE, start, copies);
 
         return this;
     }
 
     @Override
     public T get(Object param) {
+        long start = CollectionMetrics.start();
         Integer index = (Integer) param;
         Structure<Node<T>> currentStructure = getCurrentStructure();
         if (index < 0 || index >= currentStructure.getSize()) {
             throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + currentStructure.getSize());
         }
 
-        return currentStructure.get(index).value;
+        T value = currentStructure.get(index).value;
+        record(CollectionMetrics.Operation.GET, start, 0);
+        return value;
     }
 
     @Override
     public boolean contains(T element) {
+        long start = CollectionMetrics.start();
         Structure<Node<T>> currentStructure = getCurrentStructure();
-        for (int i = 0; i < currentStructure.getSize(); i++) {
+        boolean contains = false;
+        for (int i = 0; i < currentStructure.getSize() && !contains; i++) {
             Node<T> currentNode = currentStructure.get(i);
-            if (currentNode.value.equals(element)) {
-                return true;
-            }
+            contains = currentNode.value.equals(element);
         }
-        return false;
+        record(CollectionMetrics.Operation.CONTAINS, start, 0);
+        return contains;
     }
 
     @Override
@@ -279,19 +360,197 @@ public class PersistentLinkedList<T> implements PersistentCollection<T> {
         return currentStructure.getSize();
     }
 
+    /**
+     * Списки равны, если текущие версии содержат равные элементы в том же порядке.
+     * Узлы списка изменяемы и общие для версий, поэтому хеш-коды в них не кешируются.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PersistentLinkedList<?>)) {
+            return false;
+        }
+        Structure<Node<T>> structure = getCurrentStructure();
+        Structure<Node<T>> otherStructure = ((PersistentLinkedList<T>) o).getCurrentStructure();
+        if (structure.getSize() != otherStructure.getSize()) {
+            return false;
+        }
+        for (int i = 0; i < structure.getSize(); i++) {
+            if (!Objects.equals(structure.get(i).value, otherStructure.get(i).value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Хеш-код текущей версии, совпадающий с {@link List#hashCode()} списка тех же элементов.
+     */
+    @Override
+    public int hashCode() {
+        Structure<Node<T>> structure = getCurrentStructure();
+        int hash = 1;
+        for (int i = 0; i < structure.getSize(); i++) {
+            hash = 31 * hash + Objects.hashCode(structure.get(i).value);
+        }
+        return hash;
+    }
+
     @Override
     public PersistentLinkedList<T> undo() {
+        long start = CollectionMetrics.start();
         if (!undoHistory.isEmpty()) {
             redoHistory.push(undoHistory.pop());
         }
+        record(CollectionMetrics.Operation.UNDO, start, 0);
         return this;
     }
 
     @Override
     public PersistentLinkedList<T> redo() {
+        long start = CollectionMetrics.start();
         if (!redoHistory.isEmpty()) {
             undoHistory.push(redoHistory.pop());
         }
+        record(CollectionMetrics.Operation.REDO, start, 0);
         return this;
     }
+
+    /**
+     * Оценивает память текущей версии и всей истории (без учёта самих элементов).
+     * @return Память, принадлежащая только текущей версии, разделяемая с другими версиями и удерживаемая историей.
+     */
+    public MemoryFootprint memoryFootprint() {
+        List<Structure<Node<T>>> versions = new ArrayList<>(undoHistory);
+        versions.addAll(redoHistory);
+        return MemoryFootprint.compute(versions, undoHistory.size() - 1,
+                (Structure<Node<T>> version, MemoryFootprint.Visitor visitor) -> visitStructure(version, visitor));
+    }
+
+    private void visitStructure(Structure<Node<T>> structure, MemoryFootprint.Visitor visitor) {
+        visitor.visitTree(structure, STRUCTURE, (node, nodeVisitor) -> nodeVisitor.visit(node, NODE));
+    }
+
+    private void record(CollectionMetrics.Operation operation, long start, long copies) {
+        if (start != 0) {
+            CollectionMetrics.record(CollectionMetrics.Kind.LINKED_LIST, operation, start, copies,
+                    getCurrentStructure().getDepth(), undoHistory.size(), CollectionMetrics.NO_CHAIN);
+        }
+    }
+
+    /**
+     * Сохраняет коллекцию вместе с историей версий в бинарный снимок.
+     * Узлы, общие для нескольких версий, записываются один раз.
+     * @param path Путь к файлу снимка.
+     * @param codec Кодек элементов.
+     */
+    public void save(Path path, ElementCodec<T> codec) throws IOException {
+        try (SnapshotWriter writer = new SnapshotWriter(path)) {
+            writer.finish(writeSnapshot(writer, element -> writer.writeValue(element, codec)));
+        }
+    }
+
+    /**
+     * Загружает коллекцию вместе с историей версий из бинарного снимка.
+     * @param path Путь к файлу снимка.
+     * @param codec Кодек элементов.
+     * @return Восстановленная коллекция.
+     */
+    public static <T> PersistentLinkedList<T> load(Path path, ElementCodec<T> codec) throws IOException {
+        try (SnapshotReader reader = SnapshotReader.open(path)) {
+            return readSnapshot(reader, reader.getRootRef(), ref -> reader.readValue(ref, codec));
+        }
+    }
+
+    long writeSnapshot(SnapshotWriter writer, SnapshotWriter.ValueWriter<T> values) throws IOException {
+        Long known = writer.lookup(this);
+        if (known != null) {
+            return known;
+        }
+        SnapshotWriter.ValueWriter<Node<T>> nodes = node -> writeNode(writer, node, values);
+        long[] undo = new long[undoHistory.size()];
+        for (int i = 0; i < undo.length; i++) {
+            undo[i] = writer.writeTree(undoHistory.get(i), nodes);
+        }
+        long[] redo = new long[redoHistory.size()];
+        for (int i = 0; i < redo.length; i++) {
+            redo[i] = writer.writeTree(redoHistory.get(i), nodes);
+        }
+
+        long ref = writer.beginRecord(SnapshotFormat.LIST);
+        writeStructures(writer, undoHistory, undo);
+        writeStructures(writer, redoHistory, redo);
+        writer.remember(this, ref);
+        return ref;
+    }
+
+    private void writeStructures(SnapshotWriter writer, Stack<Structure<Node<T>>> history, long[] refs)
+            throws IOException {
+        writer.output().writeInt(refs.length);
+        for (int i = 0; i < refs.length; i++) {
+            writer.output().writeLong(refs[i]);
+            writer.output().writeInt(history.get(i).getHead());
+            writer.output().writeInt(history.get(i).getTail());
+        }
+    }
+
+    private long writeNode(SnapshotWriter writer, Node<T> node, SnapshotWriter.ValueWriter<T> values)
+            throws IOException {
+        Long known = writer.lookup(node);
+        if (known != null) {
+            return known;
+        }
+        long valueRef = values.write(node.getValue());
+        long ref = writer.beginRecord(SnapshotFormat.LIST_NODE);
+        writer.output().writeLong(valueRef);
+        writer.output().writeInt(node.getPrev());
+        writer.output().writeInt(node.getNext());
+        writer.remember(node, ref);
+        return ref;
+    }
+
+    static <T> PersistentLinkedList<T> readSnapshot(SnapshotReader reader, long ref,
+                                                    SnapshotReader.ValueReader<T> values) throws IOException {
+        PersistentLinkedList<T> list = reader.cached(ref);
+        if (list != null) {
+            return list;
+        }
+        SnapshotInput in = reader.record(ref, SnapshotFormat.LIST);
+        list = new PersistentLinkedList<>();
+        list.undoHistory.clear();
+        list.readStructures(reader, in, list.undoHistory, values);
+        list.readStructures(reader, in, list.redoHistory, values);
+        reader.cache(ref, list);
+        return list;
+    }
+
+    private void readStructures(SnapshotReader reader, SnapshotInput in, Stack<Structure<Node<T>>> history,
+                                SnapshotReader.ValueReader<T> values) throws IOException {
+        SnapshotReader.ValueReader<Node<T>> nodes = nodeRef -> readNode(reader, nodeRef, values);
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            BitTree<Node<T>> tree = reader.readTree(in.readLong(), nodes);
+            int head = in.readInt();
+            int tail = in.readInt();
+            history.push(new Structure<>(tree, head, tail));
+        }
+    }
+
+    private Node<T> readNode(SnapshotReader reader, long ref, SnapshotReader.ValueReader<T> values)
+            throws IOException {
+        Node<T> node = reader.cached(ref);
+        if (node != null) {
+            return node;
+        }
+        SnapshotInput in = reader.record(ref, SnapshotFormat.LIST_NODE);
+        long valueRef = in.readLong();
+        int prev = in.readInt();
+        int next = in.readInt();
+        node = new Node<>(values.read(valueRef), prev, next);
+        reader.cache(ref, node);
+        return node;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,252 @@
+package Collections;
+
+import API.PersistentCollection;
+import Help.LeftistHeap;
+import Metrics.CollectionMetrics;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Персистентная очередь с приоритетом.
+ * <p>
+ * Каждая версия — неизменяемая {@link LeftistHeap}: наименьший элемент доступен за O(1),
+ * добавление, извлечение наименьшего и слияние очередей выполняются за O(log n) в худшем случае
+ * и копируют только правый путь кучи, поэтому версии разделяют остальные узлы.
+ * Элементы упорядочены компаратором (по умолчанию — естественным порядком); равные элементы допускаются.
+ *
+ * @param <T> Тип элементов.
+ */
+public class PersistentPriorityQueue<T> implements PersistentCollection<T>, Iterable<T> {
+    private final Stack<LeftistHeap<T>> undoHistory = new Stack<>();
+    private final Stack<LeftistHeap<T>> redoHistory = new Stack<>();
+
+    @SuppressWarnings("unchecked")
+    public PersistentPriorityQueue() {
+        this((Comparator<? super T>) Comparator.naturalOrder());
+    }
+
+    public PersistentPriorityQueue(Comparator<? super T> comparator) {
+        undoHistory.push(new LeftistHeap<>(comparator));
+    }
+
+    PersistentPriorityQueue(LeftistHeap<T> heap) {
+        undoHistory.push(heap);
+    }
+
+    private LeftistHeap<T> current() {
+        return undoHistory.peek();
+    }
+
+    /**
+     * @return Текущая неизменяемая версия для {@link TransactionalStore}.
+     */
+    LeftistHeap<T> currentVersion() {
+        return current();
+    }
+
+    public Comparator<? super T> comparator() {
+        return current().getComparator();
+    }
+
+    /**
+     * Создаёт независимую очередь с текущей версией в качестве начальной за O(1).
+     */
+    public PersistentPriorityQueue<T> copy() {
+        return new PersistentPriorityQueue<>(current());
+    }
+
+    @Override
+    public PersistentPriorityQueue<T> add(T element) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        push(current().insert(element));
+        record(CollectionMetrics.Operation.ADD, start, copies);
+        return this;
+    }
+
+    @Override
+    public PersistentCollection<T> update(int index, T element) {
+        throw new UnsupportedOperationException("Method 'update' is not supported for PersistentPriorityQueue");
+    }
+
+    /**
+     * Удаляет одно вхождение элемента. Поиск пропускает поддеревья с корнем больше элемента,
+     * но в худшем случае занимает O(n).
+     * @return Очередь без элемента либо null, если элемента не было.
+     */
+    @Override
+    public PersistentPriorityQueue<T> remove(T element) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        LeftistHeap<T> heap = current();
+        LeftistHeap<T> removed = heap.remove(element);
+        if (removed != heap) {
+            push(removed);
+        }
+        record(CollectionMetrics.Operation.REMOVE, start, copies);
+        return removed == heap ? null : this;
+    }
+
+    /**
+     * @return Наименьший элемент текущей версии либо null, если очередь пуста.
+     */
+    public T findMin() {
+        long start = CollectionMetrics.start();
+        T min = current().findMin();
+        record(CollectionMetrics.Operation.GET, start, 0);
+        return min;
+    }
+
+    /**
+     * Извлекает наименьший элемент, создавая новую версию.
+     * @return Очередь без наименьшего элемента либо null, если очередь пуста.
+     */
+    public PersistentPriorityQueue<T> deleteMin() {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        LeftistHeap<T> heap = current();
+        if (!heap.isEmpty()) {
+            push(heap.deleteMin());
+        }
+        record(CollectionMetrics.Operation.REMOVE, start, copies);
+        return heap.isEmpty() ? null : this;
+    }
+
+    /**
+     * Добавляет элементы текущей версии другой очереди за O(log n), создавая новую версию.
+     * Очереди должны быть упорядочены одним компаратором.
+     */
+    public PersistentPriorityQueue<T> merge(PersistentPriorityQueue<T> other) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        push(current().merge(other.current()));
+        record(CollectionMetrics.Operation.ADD, start, copies);
+        return this;
+    }
+
+    private void push(LeftistHeap<T> heap) {
+        undoHistory.push(heap);
+        redoHistory.clear();
+    }
+
+    /**
+     * @return Хранимый элемент, равный указанному, либо null.
+     */
+    @Override
+    public T get(Object param) {
+        long start = CollectionMetrics.start();
+        T element = current().get(param);
+        record(CollectionMetrics.Operation.GET, start, 0);
+        return element;
+    }
+
+    @Override
+    public boolean contains(T element) {
+        long start = CollectionMetrics.start();
+        boolean contains = current().contains(element);
+        record(CollectionMetrics.Operation.CONTAINS, start, 0);
+        return contains;
+    }
+
+    @Override
+    public int size() {
+        return current().getSize();
+    }
+
+    public boolean isEmpty() {
+        return current().isEmpty();
+    }
+
+    /**
+     * Обход элементов текущей версии без определённого порядка.
+     * Для обхода по возрастанию используется {@link #toSortedList()}.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return current().iterator();
+    }
+
+    /**
+     * @return Элементы текущей версии в порядке возрастания.
+     */
+    public List<T> toSortedList() {
+        return current().toSortedList();
+    }
+
+    /**
+     * Очереди равны, если текущие версии содержат одинаковые элементы с учётом повторов.
+     * Порядок элементов, равных по компаратору, в куче не определён, поэтому элементы сравниваются
+     * как мультимножества: подсчётом повторов по {@link Object#equals(Object)}.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PersistentPriorityQueue<?> other) || size() != other.size()
+                || hashCode() != other.hashCode()) {
+            return false;
+        }
+        Map<Object, Integer> counts = new HashMap<>();
+        for (T element : current()) {
+            counts.merge(element, 1, Integer::sum);
+        }
+        for (Object element : other) {
+            Integer count = counts.get(element);
+            if (count == null) {
+                return false;
+            }
+            if (count == 1) {
+                counts.remove(element);
+            } else {
+                counts.put(element, count - 1);
+            }
+        }
+        return counts.isEmpty();
+    }
+
+    /**
+     * @return Сумма хеш-кодов элементов текущей версии.
+     */
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (T element : current()) {
+            hash += element.hashCode();
+        }
+        return hash;
+    }
+
+    @Override
+    public PersistentPriorityQueue<T> undo() {
+        long start = CollectionMetrics.start();
+        // Начальная версия остаётся в истории всегда
+        if (undoHistory.size() > 1) {
+            redoHistory.push(undoHistory.pop());
+        }
+        record(CollectionMetrics.Operation.UNDO, start, 0);
+        return this;
+    }
+
+    @Override
+    public PersistentPriorityQueue<T> redo() {
+        long start = CollectionMetrics.start();
+        if (!redoHistory.isEmpty()) {
+            undoHistory.push(redoHistory.pop());
+        }
+        record(CollectionMetrics.Operation.REDO, start, 0);
+        return this;
+    }
+
+    private void record(CollectionMetrics.Operation operation, long start, long copies) {
+        if (start != 0) {
+            CollectionMetrics.record(CollectionMetrics.Kind.PRIORITY_QUEUE, operation, start, copies,
+                    current().getRank(), undoHistory.size(), CollectionMetrics.NO_CHAIN);
+        }
+    }
+}
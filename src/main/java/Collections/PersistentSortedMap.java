@@ -0,0 +1,242 @@
+package Collections;
+
+import API.PersistentCollection;
+import Help.BTree;
+import Metrics.CollectionMetrics;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Stack;
+
+/**
+ * Персистентный упорядоченный словарь.
+ * <p>
+ * Каждая версия — неизменяемое {@link BTree}: изменение копирует только путь от корня к листу,
+ * поэтому версии разделяют неизменённые узлы, а отмена и повтор переключают версии целиком.
+ * Ключи упорядочены компаратором (по умолчанию — естественным порядком), что позволяет искать
+ * ближайшие ключи и обходить диапазоны ключей.
+ *
+ * @param <K> Тип ключей.
+ * @param <V> Тип значений.
+ */
+public class PersistentSortedMap<K, V> implements PersistentCollection<Entry<K, V>>, Iterable<Entry<K, V>> {
+    private final Stack<BTree<K, V>> undoHistory = new Stack<>();
+    private final Stack<BTree<K, V>> redoHistory = new Stack<>();
+
+    @SuppressWarnings("unchecked")
+    public PersistentSortedMap() {
+        this((Comparator<? super K>) Comparator.naturalOrder());
+    }
+
+    public PersistentSortedMap(Comparator<? super K> comparator) {
+        undoHistory.push(new BTree<>(comparator));
+    }
+
+    PersistentSortedMap(BTree<K, V> tree) {
+        undoHistory.push(tree);
+    }
+
+    private BTree<K, V> current() {
+        return undoHistory.peek();
+    }
+
+    /**
+     * @return Текущая неизменяемая версия для {@link TransactionalStore}.
+     */
+    BTree<K, V> currentVersion() {
+        return current();
+    }
+
+    public Comparator<? super K> comparator() {
+        return current().getComparator();
+    }
+
+    public PersistentSortedMap<K, V> add(K key, V value) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        BTree<K, V> tree = current();
+        boolean replace = tree.containsKey(key);
+        push(tree.put(key, value));
+        record(replace ? CollectionMetrics.Operation.UPDATE : CollectionMetrics.Operation.ADD, start, copies);
+        return this;
+    }
+
+    @Override
+    public PersistentSortedMap<K, V> add(Entry<K, V> element) {
+        return add(element.getKey(), element.getValue());
+    }
+
+    @Override
+    public PersistentCollection<Entry<K, V>> update(int index, Entry<K, V> element) {
+        throw new UnsupportedOperationException("Method 'update' is not supported for PersistentSortedMap");
+    }
+
+    public PersistentSortedMap<K, V> delete(K key) {
+        long start = CollectionMetrics.start();
+        long copies = CollectionMetrics.copies();
+        BTree<K, V> tree = current();
+        BTree<K, V> removed = tree.remove(key);
+        if (removed != tree) {
+            push(removed);
+        }
+        record(CollectionMetrics.Operation.REMOVE, start, copies);
+        return removed == tree ? null : this;
+    }
+
+    @Override
+    public PersistentSortedMap<K, V> remove(Entry<K, V> element) {
+        return delete(element.getKey());
+    }
+
+    private void push(BTree<K, V> tree) {
+        undoHistory.push(tree);
+        redoHistory.clear();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Entry<K, V> get(Object key) {
+        long start = CollectionMetrics.start();
+        BTree<K, V> tree = current();
+        Entry<K, V> entry = tree.containsKey(key)
+                ? new AbstractMap.SimpleImmutableEntry<>((K) key, tree.get(key)) : null;
+        record(CollectionMetrics.Operation.GET, start, 0);
+        return entry;
+    }
+
+    public boolean contains(K key, V value) {
+        return contains(new AbstractMap.SimpleImmutableEntry<>(key, value));
+    }
+
+    @Override
+    public boolean contains(Entry<K, V> element) {
+        long start = CollectionMetrics.start();
+        BTree<K, V> tree = current();
+        boolean contains = tree.containsKey(element.getKey())
+                && Objects.equals(tree.get(element.getKey()), element.getValue());
+        record(CollectionMetrics.Operation.CONTAINS, start, 0);
+        return contains;
+    }
+
+    public boolean containsKey(K key) {
+        return current().containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return current().getSize();
+    }
+
+    public K firstKey() {
+        return current().firstKey();
+    }
+
+    public K lastKey() {
+        return current().lastKey();
+    }
+
+    /**
+     * @return Наибольший ключ, не превышающий указанный, либо null.
+     */
+    public K floorKey(K key) {
+        return current().floorKey(key);
+    }
+
+    /**
+     * @return Наименьший ключ, не меньший указанного, либо null.
+     */
+    public K ceilingKey(K key) {
+        return current().ceilingKey(key);
+    }
+
+    /**
+     * Создаёт словарь из записей текущей версии с ключами из диапазона [fromKey, toKey).
+     * Записи читаются последовательно из листьев, а новое дерево строится без сравнений.
+     * @param fromKey Нижняя граница (включительно).
+     * @param toKey Верхняя граница (не включительно).
+     * @return Новый словарь с единственной версией.
+     */
+    public PersistentSortedMap<K, V> subMap(K fromKey, K toKey) {
+        List<K> keys = new ArrayList<>();
+        List<V> values = new ArrayList<>();
+        for (Iterator<Entry<K, V>> iterator = current().iterator(fromKey, toKey); iterator.hasNext(); ) {
+            Entry<K, V> entry = iterator.next();
+            keys.add(entry.getKey());
+            values.add(entry.getValue());
+        }
+        return new PersistentSortedMap<>(BTree.build(comparator(), keys, values));
+    }
+
+    /**
+     * @param fromKey Нижняя граница (включительно) либо null.
+     * @param toKey Верхняя граница (не включительно) либо null.
+     * @return Записи текущей версии с ключами из диапазона в порядке возрастания ключей.
+     */
+    public Iterable<Entry<K, V>> entries(K fromKey, K toKey) {
+        BTree<K, V> tree = current();
+        return () -> tree.iterator(fromKey, toKey);
+    }
+
+    /**
+     * Обход записей текущей версии в порядке возрастания ключей. Последующие изменения словаря
+     * на начатый обход не влияют.
+     */
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+        return current().iterator();
+    }
+
+    /**
+     * Словари равны, если текущие версии содержат одинаковые записи. Общие узлы не обходятся,
+     * поэтому сравнение близких версий быстрее полного.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof PersistentSortedMap<?, ?> other && BTree.entriesEqual(current(), (BTree<K, V>) other.current());
+    }
+
+    /**
+     * @return Сумма хеш-кодов записей текущей версии, как в {@link java.util.Map#hashCode()}; хранится в корне дерева.
+     */
+    @Override
+    public int hashCode() {
+        return current().entriesHashCode();
+    }
+
+    @Override
+    public PersistentSortedMap<K, V> undo() {
+        long start = CollectionMetrics.start();
+        // Начальная пустая версия остаётся в истории всегда
+        if (undoHistory.size() > 1) {
+            redoHistory.push(undoHistory.pop());
+        }
+        record(CollectionMetrics.Operation.UNDO, start, 0);
+        return this;
+    }
+
+    @Override
+    public PersistentSortedMap<K, V> redo() {
+        long start = CollectionMetrics.start();
+        if (!redoHistory.isEmpty()) {
+            undoHistory.push(redoHistory.pop());
+        }
+        record(CollectionMetrics.Operation.REDO, start, 0);
+        return this;
+    }
+
+    private void record(CollectionMetrics.Operation operation, long start, long copies) {
+        if (start != 0) {
+            CollectionMetrics.record(CollectionMetrics.Kind.SORTED_MAP, operation, start, copies,
+                    current().getHeight(), undoHistory.size(), CollectionMetrics.NO_CHAIN);
+        }
+    }
+}
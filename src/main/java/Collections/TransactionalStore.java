@@ -0,0 +1,299 @@
+package Collections;
+
+import Help.BTree;
+import Help.BitTree;
+import Help.BitTrie;
+import Help.HashTrie;
+import Help.LeftistHeap;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Хранилище нескольких персистентных коллекций с атомарными транзакциями.
+ * <p>
+ * Текущие версии всех коллекций собраны в неизменяемый корень, на который указывает одна атомарная
+ * ссылка. Транзакция ({@link #atomically(Function)}) работает с копиями коллекций, открытыми
+ * из корня за O(1), и запоминает прочитанные версии (множество чтения) и изменённые коллекции
+ * (множество записи). При фиксации проверяется, что прочитанные коллекции не изменились, и корень
+ * заменяется через compareAndSet; если корень успел смениться, проверка повторяется относительно
+ * нового корня, а при конфликте тело транзакции выполняется заново. Конфликтом считается только
+ * изменение коллекции, прочитанной транзакцией, поэтому транзакции над разными коллекциями
+ * не мешают друг другу.
+ * <p>
+ * Каждая зафиксированная транзакция — один шаг истории: {@link #undo()} и {@link #redo()}
+ * переключают версии всех коллекций, изменённых транзакцией, одновременно.
+ * <p>
+ * Поддерживаются коллекции с неизменяемыми версиями: {@link PersistentArray}, {@link PersistentHashMap},
+ * {@link PersistentSortedMap}, {@link PersistentHashSet}, {@link PersistentPriorityQueue} и {@link PersistentBitSet}.
+ */
+public class TransactionalStore {
+    /**
+     * Ссылка на коллекцию, зарегистрированную в хранилище.
+     *
+     * @param <C> Тип коллекции.
+     */
+    public static final class Ref<C> {
+        private final int index;
+        private final Object initial;
+        private final Function<Object, C> open;
+        private final Function<C, Object> version;
+
+        private Ref(int index, Object initial, Function<Object, C> open, Function<C, Object> version) {
+            this.index = index;
+            this.initial = initial;
+            this.open = open;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Неизменяемый корень: версии коллекций и ссылки на соседние шаги истории.
+     */
+    private static final class Root {
+        /**
+         * Версии коллекций по номерам ссылок; null — начальная версия коллекции.
+         */
+        private final Object[] versions;
+        /**
+         * Корень до последней транзакции либо null.
+         */
+        private final Root previous;
+        /**
+         * Отменённый корень, который вернёт {@link #redo()}, либо null.
+         */
+        private final Root next;
+
+        private Root(Object[] versions, Root previous, Root next) {
+            this.versions = versions;
+            this.previous = previous;
+            this.next = next;
+        }
+
+        private Object version(Ref<?> ref) {
+            Object version = ref.index < versions.length ? versions[ref.index] : null;
+            return version == null ? ref.initial : version;
+        }
+    }
+
+    /**
+     * Транзакция над коллекциями хранилища.
+     */
+    public static final class Transaction {
+        private final Root root;
+        /**
+         * Прочитанные версии коллекций.
+         */
+        private final Map<Ref<?>, Object> reads = new IdentityHashMap<>();
+        /**
+         * Открытые копии коллекций.
+         */
+        private final Map<Ref<?>, Object> collections = new IdentityHashMap<>();
+
+        private Transaction(Root root) {
+            this.root = root;
+        }
+
+        /**
+         * Открывает коллекцию в транзакции. Изменения копии станут видны другим потокам только
+         * после фиксации транзакции; повторный вызов возвращает ту же копию.
+         * @param ref Ссылка на коллекцию.
+         * @return Копия коллекции с версией из снимка, на котором выполняется транзакция.
+         */
+        @SuppressWarnings("unchecked")
+        public <C> C get(Ref<C> ref) {
+            Object collection = collections.get(ref);
+            if (collection == null) {
+                C opened = ref.open.apply(root.version(ref));
+                reads.put(ref, ref.version.apply(opened));
+                collections.put(ref, opened);
+                return opened;
+            }
+            return (C) collection;
+        }
+
+        /**
+         * @return true, если в корне остались те же версии прочитанных коллекций.
+         */
+        private boolean validate(Root current) {
+            if (current == root) {
+                return true;
+            }
+            for (Ref<?> ref : reads.keySet()) {
+                if (current.version(ref) != root.version(ref)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return Корень с изменёнными коллекциями поверх {@code current} либо null, если изменений нет.
+         */
+        @SuppressWarnings("unchecked")
+        private Root commit(Root current) {
+            Object[] versions = null;
+            for (Map.Entry<Ref<?>, Object> entry : collections.entrySet()) {
+                Ref<Object> ref = (Ref<Object>) entry.getKey();
+                Object version = ref.version.apply(entry.getValue());
+                if (version != reads.get(ref)) {
+                    if (versions == null) {
+                        versions = current.versions.clone();
+                    }
+                    if (ref.index >= versions.length) {
+                        versions = Arrays.copyOf(versions, ref.index + 1);
+                    }
+                    versions[ref.index] = version;
+                }
+            }
+            return versions == null ? null : new Root(versions, current, null);
+        }
+    }
+
+    private final AtomicReference<Root> root = new AtomicReference<>(new Root(new Object[0], null, null));
+    private final AtomicInteger refs = new AtomicInteger();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+     * Регистрирует массив. Начальная версия — текущая версия массива; сам массив хранилище не изменяет.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Ref<PersistentArray<T>> register(PersistentArray<T> array) {
+        return register(array.currentVersion(),
+                version -> new PersistentArray<>((BitTree<T>) version), PersistentArray::currentVersion);
+    }
+
+    /**
+     * Регистрирует хеш-таблицу. Начальная версия — текущая версия таблицы; саму таблицу хранилище не изменяет.
+     */
+    public <K, V> Ref<PersistentHashMap<K, V>> register(PersistentHashMap<K, V> map) {
+        return register(map.currentVersion(), PersistentHashMap::ofVersion, PersistentHashMap::currentVersion);
+    }
+
+    /**
+     * Регистрирует упорядоченный словарь. Начальная версия — текущая версия словаря.
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> Ref<PersistentSortedMap<K, V>> register(PersistentSortedMap<K, V> map) {
+        return register(map.currentVersion(), version -> new PersistentSortedMap<>((BTree<K, V>) version),
+                PersistentSortedMap::currentVersion);
+    }
+
+    /**
+     * Регистрирует хеш-множество. Начальная версия — текущая версия множества.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Ref<PersistentHashSet<T>> register(PersistentHashSet<T> set) {
+        return register(set.currentVersion(), version -> new PersistentHashSet<>((HashTrie<T>) version),
+                PersistentHashSet::currentVersion);
+    }
+
+    /**
+     * Регистрирует очередь с приоритетом. Начальная версия — текущая версия очереди.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Ref<PersistentPriorityQueue<T>> register(PersistentPriorityQueue<T> queue) {
+        return register(queue.currentVersion(), version -> new PersistentPriorityQueue<>((LeftistHeap<T>) version),
+                PersistentPriorityQueue::currentVersion);
+    }
+
+    /**
+     * Регистрирует множество битов. Начальная версия — текущая версия множества.
+     */
+    public Ref<PersistentBitSet> register(PersistentBitSet bits) {
+        return register(bits.currentVersion(), version -> new PersistentBitSet((BitTrie) version),
+                PersistentBitSet::currentVersion);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <C> Ref<C> register(Object initial, Function<Object, C> open, Function<C, ?> version) {
+        return new Ref<>(refs.getAndIncrement(), initial, open, (Function<C, Object>) version);
+    }
+
+    /**
+     * Выполняет транзакцию. Тело может выполняться несколько раз при конфликтах, поэтому
+     * оно не должно иметь побочных эффектов вне коллекций транзакции.
+     * @param body Тело транзакции.
+     * @return Результат тела при успешной фиксации.
+     */
+    public <R> R atomically(Function<Transaction, R> body) {
+        while (true) {
+            Root snapshot = root.get();
+            Transaction transaction = new Transaction(snapshot);
+            R result = body.apply(transaction);
+
+            Root current = snapshot;
+            while (transaction.validate(current)) {
+                Root committed = transaction.commit(current);
+                if (committed == null) {
+                    // Транзакция только читала: снимок был согласованным
+                    return result;
+                }
+                if (root.compareAndSet(current, committed)) {
+                    commits.incrementAndGet();
+                    return result;
+                }
+                current = root.get();
+            }
+            retries.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return Копия коллекции с текущей зафиксированной версией; её изменения на хранилище не влияют.
+     */
+    public <C> C snapshot(Ref<C> ref) {
+        return ref.open.apply(root.get().version(ref));
+    }
+
+    /**
+     * Отменяет последнюю зафиксированную транзакцию во всех коллекциях одновременно.
+     */
+    public TransactionalStore undo() {
+        while (true) {
+            Root current = root.get();
+            if (current.previous == null) {
+                return this;
+            }
+            Root previous = current.previous;
+            if (root.compareAndSet(current, new Root(previous.versions, previous.previous, current))) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Повторяет последнюю отменённую транзакцию. Новая транзакция очищает историю повтора.
+     */
+    public TransactionalStore redo() {
+        while (true) {
+            Root current = root.get();
+            if (current.next == null) {
+                return this;
+            }
+            if (root.compareAndSet(current, current.next)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * @return Количество зафиксированных изменяющих транзакций.
+     */
+    public long getCommits() {
+        return commits.get();
+    }
+
+    /**
+     * @return Количество повторных выполнений транзакций из-за конфликтов.
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+}
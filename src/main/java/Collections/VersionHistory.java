@@ -0,0 +1,207 @@
+package Collections;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+import java.util.List;
+import java.util.Stack;
+import java.util.function.UnaryOperator;
+
+/**
+ * Стек отменяемых версий коллекции с уровнями хранения.
+ * <p>
+ * По умолчанию все версии удерживаются сильными ссылками, как в {@link Stack}. После {@link #setTiers(int, int)}
+ * сильно удерживаются только последние версии и контрольные точки — версии с номером, кратным интервалу,
+ * а остальные удерживаются через {@link SoftReference} и освобождаются сборщиком мусора при нехватке памяти.
+ * Освобождённая версия восстанавливается при обращении: к ближайшей более старой сохранившейся версии
+ * повторно применяются операции, которыми были получены следующие версии. Поэтому операции должны
+ * зависеть только от исходной версии и не изменять её.
+ * <p>
+ * Восстановленная версия равна исходной, но не разделяет с соседними версиями узлы, созданные после
+ * контрольной точки. Методы синхронизированы, как у {@link Stack}.
+ *
+ * @param <S> Тип версии.
+ */
+final class VersionHistory<S> {
+    private static final class Entry<S> {
+        private S strong;
+        private SoftReference<S> soft;
+        /**
+         * Операция, получившая версию из предыдущей, либо null, если версию нельзя восстановить.
+         */
+        private final UnaryOperator<S> operation;
+
+        private Entry(S version, UnaryOperator<S> operation) {
+            this.strong = version;
+            this.operation = operation;
+        }
+
+        private S get() {
+            return strong != null ? strong : soft == null ? null : soft.get();
+        }
+    }
+
+    private final List<Entry<S>> entries = new ArrayList<>();
+    /**
+     * Операции отменённых версий; вершина соответствует вершине стека повторов коллекции.
+     */
+    private final Stack<UnaryOperator<S>> undone = new Stack<>();
+    private int strongVersions = Integer.MAX_VALUE;
+    private int checkpointInterval = 1;
+
+    /**
+     * Задаёт уровни хранения и сразу переводит на мягкие ссылки версии, вышедшие за их пределы.
+     * @param strongVersions Количество последних версий, удерживаемых сильными ссылками.
+     * @param checkpointInterval Интервал контрольных точек: восстановление версии повторяет
+     *                           не больше {@code checkpointInterval - 1} операций.
+     */
+    synchronized void setTiers(int strongVersions, int checkpointInterval) {
+        if (strongVersions < 1 || checkpointInterval < 1) {
+            throw new IllegalArgumentException("Tier sizes must be positive");
+        }
+        this.strongVersions = strongVersions;
+        this.checkpointInterval = checkpointInterval;
+        for (int i = 0; i < entries.size() - strongVersions; i++) {
+            demote(i);
+        }
+    }
+
+    /**
+     * Добавляет версию, которую нельзя восстановить (начальную, загруженную из снимка).
+     */
+    synchronized void push(S version) {
+        push(version, null);
+    }
+
+    /**
+     * Добавляет новую версию и забывает операции отменённых версий.
+     * @param operation Операция, получающая эту версию из предыдущей.
+     */
+    synchronized void push(S version, UnaryOperator<S> operation) {
+        undone.clear();
+        append(version, operation);
+    }
+
+    private void append(S version, UnaryOperator<S> operation) {
+        entries.add(new Entry<>(version, operation));
+        demote(entries.size() - 1 - strongVersions);
+    }
+
+    /**
+     * Снимает текущую версию, запоминая её операцию для {@link #redo(Object)}.
+     */
+    synchronized S undo() {
+        if (entries.isEmpty()) {
+            throw new EmptyStackException();
+        }
+        S version = get(entries.size() - 1);
+        undone.push(entries.remove(entries.size() - 1).operation);
+        if (!entries.isEmpty()) {
+            // Текущая версия всегда удерживается сильно
+            Entry<S> top = entries.get(entries.size() - 1);
+            top.strong = get(entries.size() - 1);
+            top.soft = null;
+        }
+        return version;
+    }
+
+    /**
+     * Возвращает версию, снятую {@link #undo()}, вместе с её операцией.
+     */
+    synchronized void redo(S version) {
+        append(version, undone.isEmpty() ? null : undone.pop());
+    }
+
+    synchronized S peek() {
+        if (entries.isEmpty()) {
+            throw new EmptyStackException();
+        }
+        return entries.get(entries.size() - 1).strong;
+    }
+
+    /**
+     * @return Версия с указанным номером; освобождённая версия восстанавливается.
+     */
+    synchronized S get(int index) {
+        S version = entries.get(index).get();
+        if (version != null) {
+            return version;
+        }
+        // Начальная версия и версии без операции не освобождаются, поэтому поиск завершится
+        int from = index - 1;
+        S base;
+        while ((base = entries.get(from).get()) == null) {
+            from--;
+        }
+        for (int i = from + 1; i <= index; i++) {
+            Entry<S> entry = entries.get(i);
+            base = entry.operation.apply(base);
+            entry.soft = new SoftReference<>(base);
+        }
+        return base;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        undone.clear();
+    }
+
+    /**
+     * @return Все версии от самой старой; освобождённые версии восстанавливаются.
+     */
+    synchronized List<S> toList() {
+        List<S> versions = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            versions.add(get(i));
+        }
+        return versions;
+    }
+
+    /**
+     * @return Версии, удерживаемые в памяти, от самой старой; текущая версия — последняя.
+     */
+    synchronized List<S> retained() {
+        List<S> versions = new ArrayList<>(entries.size());
+        for (Entry<S> entry : entries) {
+            S version = entry.get();
+            if (version != null) {
+                versions.add(version);
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Освобождает версии, удерживаемые мягкими ссылками, не дожидаясь сборщика мусора.
+     * @return Количество освобождённых версий.
+     */
+    synchronized int release() {
+        int released = 0;
+        for (Entry<S> entry : entries) {
+            if (entry.soft != null && entry.soft.get() != null) {
+                entry.soft.clear();
+                released++;
+            }
+        }
+        return released;
+    }
+
+    private void demote(int index) {
+        if (index <= 0) {
+            return;
+        }
+        Entry<S> entry = entries.get(index);
+        if (entry.strong != null && entry.operation != null && index % checkpointInterval != 0) {
+            entry.soft = new SoftReference<>(entry.strong);
+            entry.strong = null;
+        }
+    }
+}
@@ -0,0 +1,572 @@
+package Help;
+
+import Metrics.CollectionMetrics;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Неизменяемое B+-дерево с копированием пути.
+ * <p>
+ * Ключи и значения хранятся в массивах широких узлов (до {@link #MAX_KEYS} ключей), все записи —
+ * в листьях, поэтому поиск проходит O(log n / log MAX_KEYS) узлов, а обход диапазона последовательно
+ * читает массивы листьев. Каждое изменение создаёт новое дерево, копируя только узлы на пути от корня
+ * к изменённому листу; остальные узлы общие с исходным деревом.
+ *
+ * @param <K> Тип ключей.
+ * @param <V> Тип значений.
+ */
+public class BTree<K, V> implements Iterable<Entry<K, V>> {
+    /**
+     * Наибольшее количество ключей в узле.
+     */
+    public static final int MAX_KEYS = 32;
+    /**
+     * Наименьшее количество ключей в узле (кроме корня).
+     */
+    public static final int MIN_KEYS = MAX_KEYS / 2;
+
+    /**
+     * Узел дерева. У листа {@code children == null} и {@code values} хранит значения ключей;
+     * у внутреннего узла {@code keys[i]} — нижняя граница ключей поддерева {@code children[i + 1]}.
+     */
+    public static final class Node {
+        private final Object[] keys;
+        private final Object[] values;
+        private final Node[] children;
+        /**
+         * Сумма хеш-кодов записей поддерева по контракту {@link Entry#hashCode()}.
+         */
+        private final int entriesHash;
+
+        private Node(Object[] keys, Object[] values, Node[] children) {
+            CollectionMetrics.nodeCopied();
+            this.keys = keys;
+            this.values = values;
+            this.children = children;
+            int hash = 0;
+            if (children == null) {
+                for (int i = 0; i < keys.length; i++) {
+                    hash += Objects.hashCode(keys[i]) ^ Objects.hashCode(values[i]);
+                }
+            } else {
+                for (Node child : children) {
+                    hash += child.entriesHash;
+                }
+            }
+            this.entriesHash = hash;
+        }
+
+        public boolean isLeaf() {
+            return children == null;
+        }
+
+        public Object[] getKeys() {
+            return keys;
+        }
+
+        public Object[] getValues() {
+            return values;
+        }
+
+        public Node[] getChildren() {
+            return children;
+        }
+    }
+
+    private static final Node EMPTY = new Node(new Object[0], new Object[0], null);
+
+    private final Comparator<? super K> comparator;
+    private final Node root;
+    private final int size;
+    private final int height;
+
+    public BTree(Comparator<? super K> comparator) {
+        this(comparator, EMPTY, 0, 1);
+    }
+
+    private BTree(Comparator<? super K> comparator, Node root, int size, int height) {
+        this.comparator = comparator;
+        this.root = root;
+        this.size = size;
+        this.height = height;
+    }
+
+    public Comparator<? super K> getComparator() {
+        return comparator;
+    }
+
+    public Node getRoot() {
+        return root;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return Количество уровней дерева.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Двоичный поиск ключа в узле.
+     * @return Номер ключа либо (-(точка вставки) - 1), если ключа нет.
+     */
+    @SuppressWarnings("unchecked")
+    private int search(Node node, Object key) {
+        int low = 0;
+        int high = node.keys.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int order = comparator.compare((K) node.keys[middle], (K) key);
+            if (order < 0) {
+                low = middle + 1;
+            } else if (order > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return Номер потомка внутреннего узла, в поддереве которого может находиться ключ.
+     */
+    private int childIndex(Node node, Object key) {
+        int index = search(node, key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Node node = root;
+        while (!node.isLeaf()) {
+            node = node.children[childIndex(node, key)];
+        }
+        int index = search(node, key);
+        return index >= 0 ? (V) node.values[index] : null;
+    }
+
+    public boolean containsKey(Object key) {
+        Node node = root;
+        while (!node.isLeaf()) {
+            node = node.children[childIndex(node, key)];
+        }
+        return search(node, key) >= 0;
+    }
+
+    /**
+     * @return Дерево, в котором ключу соответствует указанное значение.
+     */
+    public BTree<K, V> put(K key, V value) {
+        boolean[] added = new boolean[1];
+        Node node = put(root, key, value, added);
+        int newHeight = height;
+        if (node.keys.length > MAX_KEYS) {
+            // Корень переполнен: делим его и добавляем новый уровень
+            Node[] halves = split(node);
+            node = new Node(new Object[]{firstKey(halves[1])}, null, halves);
+            newHeight++;
+        }
+        return new BTree<>(comparator, node, added[0] ? size + 1 : size, newHeight);
+    }
+
+    private Node put(Node node, K key, V value, boolean[] added) {
+        if (node.isLeaf()) {
+            int index = search(node, key);
+            if (index >= 0) {
+                Object[] values = node.values.clone();
+                values[index] = value;
+                return new Node(node.keys, values, null);
+            }
+            added[0] = true;
+            index = -index - 1;
+            return new Node(insert(node.keys, index, key), insert(node.values, index, value), null);
+        }
+        int index = childIndex(node, key);
+        Node child = put(node.children[index], key, value, added);
+        if (child.keys.length <= MAX_KEYS) {
+            Node[] children = node.children.clone();
+            children[index] = child;
+            return new Node(node.keys, null, children);
+        }
+        Node[] halves = split(child);
+        Node[] children = insert(node.children, index + 1, halves[1]);
+        children[index] = halves[0];
+        return new Node(insert(node.keys, index, firstKey(halves[1])), null, children);
+    }
+
+    /**
+     * Делит переполненный узел на два.
+     */
+    private static Node[] split(Node node) {
+        int middle = node.keys.length / 2;
+        if (node.isLeaf()) {
+            return new Node[]{
+                    new Node(copy(node.keys, 0, middle), copy(node.values, 0, middle), null),
+                    new Node(copy(node.keys, middle, node.keys.length),
+                            copy(node.values, middle, node.values.length), null)};
+        }
+        // Ключ middle не нужен ни одной из половин: границей правой половины в родителе станет её первый ключ
+        return new Node[]{
+                new Node(copy(node.keys, 0, middle), null, copy(node.children, 0, middle + 1)),
+                new Node(copy(node.keys, middle + 1, node.keys.length), null,
+                        copy(node.children, middle + 1, node.children.length))};
+    }
+
+    private static Object firstKey(Node node) {
+        while (!node.isLeaf()) {
+            node = node.children[0];
+        }
+        return node.keys[0];
+    }
+
+    /**
+     * @return Дерево без указанного ключа (то же дерево, если ключа нет).
+     */
+    public BTree<K, V> remove(Object key) {
+        if (!containsKey(key)) {
+            return this;
+        }
+        Node node = remove(root, key);
+        int newHeight = height;
+        if (!node.isLeaf() && node.keys.length == 0) {
+            // У корня остался один потомок: уровень больше не нужен
+            node = node.children[0];
+            newHeight--;
+        }
+        return new BTree<>(comparator, node, size - 1, newHeight);
+    }
+
+    private Node remove(Node node, Object key) {
+        if (node.isLeaf()) {
+            int index = search(node, key);
+            return new Node(delete(node.keys, index), delete(node.values, index), null);
+        }
+        int index = childIndex(node, key);
+        Node child = remove(node.children[index], key);
+        Node[] children = node.children.clone();
+        children[index] = child;
+        if (child.keys.length >= MIN_KEYS) {
+            return new Node(node.keys, null, children);
+        }
+        return rebalance(node.keys, children, index);
+    }
+
+    /**
+     * Восполняет недостаток ключей у потомка {@code index}: занимает ключ у соседа или сливает узлы.
+     */
+    private static Node rebalance(Object[] keys, Node[] children, int index) {
+        int leftIndex = index > 0 ? index - 1 : index;
+        Node left = children[leftIndex];
+        Node right = children[leftIndex + 1];
+        Object separator = keys[leftIndex];
+
+        if (left.keys.length + right.keys.length < MAX_KEYS) {
+            Node merged = left.isLeaf()
+                    ? new Node(concat(left.keys, right.keys), concat(left.values, right.values), null)
+                    : new Node(concat(insert(left.keys, left.keys.length, separator), right.keys), null,
+                    concat(left.children, right.children));
+            Node[] newChildren = delete(children, leftIndex + 1);
+            newChildren[leftIndex] = merged;
+            return new Node(delete(keys, leftIndex), null, newChildren);
+        }
+
+        // Перераспределяем ключи поровну между соседями
+        Node[] halves;
+        if (left.isLeaf()) {
+            halves = split(new Node(concat(left.keys, right.keys), concat(left.values, right.values), null));
+        } else {
+            halves = split(new Node(concat(insert(left.keys, left.keys.length, separator), right.keys), null,
+                    concat(left.children, right.children)));
+        }
+        Object[] newKeys = keys.clone();
+        Node[] newChildren = children.clone();
+        newChildren[leftIndex] = halves[0];
+        newChildren[leftIndex + 1] = halves[1];
+        newKeys[leftIndex] = firstKey(halves[1]);
+        return new Node(newKeys, null, newChildren);
+    }
+
+    /**
+     * @return Наибольший ключ, не превышающий указанный, либо null.
+     */
+    public K floorKey(K key) {
+        return floorKey(root, key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private K floorKey(Node node, K key) {
+        if (node.isLeaf()) {
+            int index = search(node, key);
+            index = index >= 0 ? index : -index - 2;
+            return index >= 0 ? (K) node.keys[index] : null;
+        }
+        int index = childIndex(node, key);
+        K found = floorKey(node.children[index], key);
+        return found != null || index == 0 ? found : lastKey(node.children[index - 1]);
+    }
+
+    /**
+     * @return Наименьший ключ, не меньший указанного, либо null.
+     */
+    public K ceilingKey(K key) {
+        return ceilingKey(root, key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private K ceilingKey(Node node, K key) {
+        if (node.isLeaf()) {
+            int index = search(node, key);
+            index = index >= 0 ? index : -index - 1;
+            return index < node.keys.length ? (K) node.keys[index] : null;
+        }
+        int index = childIndex(node, key);
+        K found = ceilingKey(node.children[index], key);
+        return found != null || index == node.children.length - 1
+                ? found : (K) firstKey(node.children[index + 1]);
+    }
+
+    @SuppressWarnings("unchecked")
+    public K firstKey() {
+        return size == 0 ? null : (K) firstKey(root);
+    }
+
+    public K lastKey() {
+        return size == 0 ? null : lastKey(root);
+    }
+
+    @SuppressWarnings("unchecked")
+    private K lastKey(Node node) {
+        while (!node.isLeaf()) {
+            node = node.children[node.children.length - 1];
+        }
+        return node.keys.length == 0 ? null : (K) node.keys[node.keys.length - 1];
+    }
+
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+        return iterator(null, null);
+    }
+
+    /**
+     * Обход записей в порядке возрастания ключей.
+     * @param from Нижняя граница (включительно) либо null.
+     * @param to Верхняя граница (не включительно) либо null.
+     */
+    public Iterator<Entry<K, V>> iterator(K from, K to) {
+        return new RangeIterator(from, to);
+    }
+
+    /**
+     * @return Сумма хеш-кодов записей, как в {@link java.util.Map#hashCode()}; хранится в корне.
+     */
+    public int entriesHashCode() {
+        return root.entriesHash;
+    }
+
+    /**
+     * Сравнивает записи двух деревьев. Пока разделители узлов совпадают, деревья сравниваются поузлово:
+     * общие узлы равны без обхода, а узлы с разными хеш-кодами различны. Если формы деревьев расходятся,
+     * записи сравниваются последовательным обходом.
+     */
+    public static <K, V> boolean entriesEqual(BTree<K, V> first, BTree<K, V> second) {
+        if (first.root == second.root) {
+            return true;
+        }
+        if (first.size != second.size || first.root.entriesHash != second.root.entriesHash) {
+            return false;
+        }
+        if (first.height == second.height) {
+            Boolean equal = alignedEqual(first.root, second.root);
+            if (equal != null) {
+                return equal;
+            }
+        }
+        Iterator<Entry<K, V>> firstEntries = first.iterator();
+        Iterator<Entry<K, V>> secondEntries = second.iterator();
+        while (firstEntries.hasNext()) {
+            if (!firstEntries.next().equals(secondEntries.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Сравнивает узлы одной высоты, покрывающие один диапазон ключей.
+     * @return Результат сравнения либо null, если разделители узлов различаются.
+     */
+    private static Boolean alignedEqual(Node first, Node second) {
+        if (first == second) {
+            return Boolean.TRUE;
+        }
+        if (first.entriesHash != second.entriesHash) {
+            return Boolean.FALSE;
+        }
+        if (first.isLeaf()) {
+            return Arrays.equals(first.keys, second.keys) && Arrays.equals(first.values, second.values);
+        }
+        if (!Arrays.equals(first.keys, second.keys)) {
+            return null;
+        }
+        for (int i = 0; i < first.children.length; i++) {
+            Boolean equal = alignedEqual(first.children[i], second.children[i]);
+            if (equal != Boolean.TRUE) {
+                return equal;
+            }
+        }
+        return Boolean.TRUE;
+    }
+
+    /**
+     * Строит дерево из записей, упорядоченных по возрастанию ключей, без сравнений и копирования путей.
+     */
+    public static <K, V> BTree<K, V> build(Comparator<? super K> comparator, List<K> keys, List<V> values) {
+        if (keys.isEmpty()) {
+            return new BTree<>(comparator);
+        }
+        Node[] level = new Node[chunks(keys.size())];
+        Object[] lowerBounds = new Object[level.length];
+        for (int i = 0, from = 0; i < level.length; i++) {
+            int to = chunkEnd(keys.size(), level.length, i);
+            level[i] = new Node(keys.subList(from, to).toArray(), values.subList(from, to).toArray(), null);
+            lowerBounds[i] = keys.get(from);
+            from = to;
+        }
+        int height = 1;
+        while (level.length > 1) {
+            // Внутренний узел хранит на один ключ меньше, чем потомков
+            Node[] parents = new Node[chunks(level.length - 1)];
+            Object[] parentBounds = new Object[parents.length];
+            for (int i = 0, from = 0; i < parents.length; i++) {
+                int to = chunkEnd(level.length, parents.length, i);
+                parents[i] = new Node(copy(lowerBounds, from + 1, to), null, copy(level, from, to));
+                parentBounds[i] = lowerBounds[from];
+                from = to;
+            }
+            level = parents;
+            lowerBounds = parentBounds;
+            height++;
+        }
+        return new BTree<>(comparator, level[0], keys.size(), height);
+    }
+
+    private static int chunks(int count) {
+        return Math.max(1, (count + MAX_KEYS - 1) / MAX_KEYS);
+    }
+
+    /**
+     * @return Конец {@code chunk}-й из {@code chunks} почти равных частей {@code count} элементов.
+     */
+    private static int chunkEnd(int count, int chunks, int chunk) {
+        return (int) ((long) count * (chunk + 1) / chunks);
+    }
+
+    private static <T> T[] copy(T[] array, int from, int to) {
+        return Arrays.copyOfRange(array, from, to);
+    }
+
+    private static <T> T[] insert(T[] array, int index, T element) {
+        T[] result = Arrays.copyOf(array, array.length + 1);
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        result[index] = element;
+        return result;
+    }
+
+    private static <T> T[] delete(T[] array, int index) {
+        T[] result = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+        return result;
+    }
+
+    private static <T> T[] concat(T[] left, T[] right) {
+        T[] result = Arrays.copyOf(left, left.length + right.length);
+        System.arraycopy(right, 0, result, left.length, right.length);
+        return result;
+    }
+
+    /**
+     * Итератор по диапазону ключей: стек хранит путь от корня до текущего листа.
+     */
+    private final class RangeIterator implements Iterator<Entry<K, V>> {
+        private final Deque<Node> path = new ArrayDeque<>();
+        private final Deque<Integer> positions = new ArrayDeque<>();
+        private final K to;
+        private Node leaf;
+        private int index;
+
+        private RangeIterator(K from, K to) {
+            this.to = to;
+            Node node = root;
+            while (!node.isLeaf()) {
+                int child = from == null ? 0 : childIndex(node, from);
+                path.push(node);
+                positions.push(child);
+                node = node.children[child];
+            }
+            leaf = node;
+            if (from != null) {
+                int found = search(node, from);
+                index = found >= 0 ? found : -found - 1;
+            }
+            advance();
+        }
+
+        /**
+         * Переходит к следующему листу, если текущий исчерпан.
+         */
+        private void advance() {
+            while (leaf != null && index >= leaf.keys.length) {
+                leaf = null;
+                while (!path.isEmpty()) {
+                    Node parent = path.peek();
+                    int child = positions.pop() + 1;
+                    if (child < parent.children.length) {
+                        positions.push(child);
+                        Node node = parent.children[child];
+                        while (!node.isLeaf()) {
+                            path.push(node);
+                            positions.push(0);
+                            node = node.children[0];
+                        }
+                        leaf = node;
+                        index = 0;
+                        break;
+                    }
+                    path.pop();
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean hasNext() {
+            return leaf != null && (to == null || comparator.compare((K) leaf.keys[index], to) < 0);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>((K) leaf.keys[index], (V) leaf.values[index]);
+            index++;
+            advance();
+            return entry;
+        }
+    }
+}
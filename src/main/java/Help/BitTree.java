@@ -2,10 +2,13 @@ package Help;
 
 import Collections.PersistentArray;
 import Collections.PersistentLinkedList;
+import Metrics.CollectionMetrics;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Stack;
 
 public class BitTree<T> {
@@ -17,6 +20,11 @@ public class BitTree<T> {
     public static class Node<T> {
         private List<T> value;
         private List<Node<T>> child;
+        /**
+         * Хеш-коды элементов поддерева, вычисляются при первом обращении. Узлы опубликованных версий
+         * не изменяются, поэтому значение остаётся верным; конструкторы копирования его не переносят.
+         */
+        private Hashes hashes;
 
         public Node() {
             this.child = null;
@@ -24,6 +32,7 @@ public class BitTree<T> {
         }
 
         public Node(Node<T> other) {
+            CollectionMetrics.nodeCopied();
             if (other != null) {
                 if (other.child != null) {
                     child = new ArrayList<>();
@@ -38,6 +47,7 @@ public class BitTree<T> {
         }
 
         public Node(Node<T> other, int endIndex) {
+            CollectionMetrics.nodeCopied();
             if (other.child != null) {
                 child = new ArrayList<>();
                 for (int i = 0; i <= endIndex; i++) {
@@ -70,10 +80,179 @@ public class BitTree<T> {
         }
     }
 
+    /**
+     * Хеш-коды элементов поддерева.
+     * Поля неизменяемы, поэтому объект безопасно публикуется без синхронизации.
+     */
+    private static final class Hashes {
+        /**
+         * Сумма хеш-кодов элементов (без учёта порядка).
+         */
+        private final int sum;
+        /**
+         * Полином Σ hash(e_i) * 31^(n-1-i), как в {@link List#hashCode()} без начального слагаемого.
+         */
+        private final int polynomial;
+        /**
+         * 31^n, где n — количество элементов.
+         */
+        private final int power;
+
+        private Hashes(int sum, int polynomial, int power) {
+            this.sum = sum;
+            this.polynomial = polynomial;
+            this.power = power;
+        }
+    }
+
+    private static final Hashes NO_ELEMENTS = new Hashes(0, 0, 1);
+
+    /**
+     * Фокус: лист, к которому обращались последним, и путь к нему от корня.
+     * Объект неизменяем, поэтому версию можно читать из нескольких потоков без синхронизации:
+     * при гонке теряется только кеш.
+     */
+    private static final class Focus<T> {
+        /**
+         * Индекс первого элемента листа.
+         */
+        private final int start;
+        /**
+         * Узлы пути: path[0] — лист, path[depth - 1] — корень.
+         */
+        private final Node<T>[] path;
+
+        private Focus(int start, Node<T>[] path) {
+            this.start = start;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Количество бит индекса на уровень по умолчанию (32 потомка у узла).
+     */
+    public static final int DEFAULT_BITS = 5;
+    /**
+     * Допустимые значения количества бит на уровень: от 16 до 64 потомков у узла.
+     */
+    public static final int MIN_BITS = 4, MAX_BITS = 6;
+
+    /**
+     * Преобладающий вид операций, под который подбирается ширина узла.
+     */
+    public enum Workload {
+        /**
+         * Чтение по индексу: важна глубина дерева.
+         */
+        READ_HEAVY,
+        /**
+         * Добавление и изменение: важен размер копируемых узлов пути.
+         */
+        WRITE_HEAVY
+    }
+
+    /**
+     * Курсор по элементам версии дерева — фокус, принадлежащий одному потоку.
+     * <p>
+     * Курсор хранит путь от корня до текущего листа в собственном массиве и перестраивает
+     * его на месте, поэтому переход к соседнему листу не создаёт объектов и спускается только
+     * от общего предка. Используется для последовательного обхода и доступа с локальностью.
+     * Курсор видит версию, для которой создан: дерево опубликованной версии не изменяется.
+     *
+     * @param <T> Тип элементов.
+     */
+    public static final class Cursor<T> implements Iterator<T> {
+        private final int bits, mask, depth, size;
+        /**
+         * Узлы пути: path[0] — лист, path[depth - 1] — корень.
+         */
+        private final Node<T>[] path;
+        /**
+         * Индекс первого элемента текущего листа либо -1, если лист ещё не выбран.
+         */
+        private int start = -1;
+        private List<T> leaf;
+        private int index;
+
+        private Cursor(BitTree<T> tree, int index) {
+            this.bits = tree.bits;
+            this.mask = tree.mask;
+            this.depth = tree.depth;
+            this.size = tree.size;
+            this.path = newPath(depth);
+            this.path[depth - 1] = tree.root;
+            this.index = index;
+        }
+
+        /**
+         * Элемент по произвольному индексу; позиция обхода не меняется.
+         */
+        public T get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (start < 0 || (index ^ start) > mask) {
+                seek(index);
+            }
+            return leaf.get(index & mask);
+        }
+
+        private void seek(int index) {
+            int level = start < 0 ? depth - 1
+                    : (Integer.SIZE - 1 - Integer.numberOfLeadingZeros(index ^ start)) / bits;
+            Node<T> node = path[level];
+            for (int l = level; l > 0; l--) {
+                node = node.getChild().get((index >> (bits * l)) & mask);
+                path[l - 1] = node;
+            }
+            start = index & ~mask;
+            leaf = node.getValue();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < size;
+        }
+
+        @Override
+        public T next() {
+            if (index >= size) {
+                throw new NoSuchElementException();
+            }
+            return get(index++);
+        }
+
+        /**
+         * @return Индекс элемента, который вернёт {@link #next()}.
+         */
+        public int nextIndex() {
+            return index;
+        }
+
+        /**
+         * Переносит позицию обхода; лист будет найден от общего с текущим листом предка.
+         */
+        public Cursor<T> moveTo(int index) {
+            this.index = index;
+            return this;
+        }
+    }
+
+    /**
+     * @return Курсор, установленный на элемент с указанным индексом.
+     */
+    public Cursor<T> cursor(int index) {
+        return new Cursor<>(this, index);
+    }
+
     /**
      * Корень дерева.
      */
     private Node<T> root;
+    /**
+     * Фокус последнего чтения либо null; сбрасывается при любом изменении дерева.
+     */
+    private Focus<T> focus;
 
     /**
      * Параметры битового двоичного дерева на основе документации.
@@ -81,7 +260,7 @@ public class BitTree<T> {
      * @see "https://hypirion.com/musings/understanding-persistent-vector-pt-2"
      */
     private int
-            bits = 5,
+            bits = DEFAULT_BITS,
             width = 1 << bits,
             mask = width - 1,
             depth,
@@ -93,10 +272,11 @@ public class BitTree<T> {
         this.root = new Node<>();
     }
 
+    /**
+     * Создаёт дерево с шириной узла по умолчанию, глубины которого хватает на {@code size} элементов.
+     */
     public BitTree(int size) {
-        create((size - 1) >>> (32 - Integer.numberOfLeadingZeros(size - 1) + this.bits - 1),
-                this.bits);
-        this.root = new Node<>();
+        this(depthFor(size, DEFAULT_BITS), DEFAULT_BITS);
     }
 
     /**
@@ -110,13 +290,122 @@ public class BitTree<T> {
         this.size = toCopy.size;
     }
 
+    /**
+     * Создаёт дерево с заданной шириной узла, глубины которого хватает на {@code size} элементов.
+     * @param size Ожидаемое количество элементов.
+     * @param bits Количество бит индекса на уровень, от {@link #MIN_BITS} до {@link #MAX_BITS}.
+     */
+    public static <T> BitTree<T> withCapacity(int size, int bits) {
+        return new BitTree<>(depthFor(size, checkBits(bits)), bits);
+    }
+
+    /**
+     * Строит дерево из готового списка элементов снизу вверх: листья и внутренние узлы создаются
+     * по одному разу, без копирования пути на каждом добавлении.
+     * @param elements Элементы в порядке индексов.
+     * @param bits Количество бит индекса на уровень.
+     * @return Дерево той же формы, что и после последовательных добавлений элементов.
+     */
+    public static <T> BitTree<T> fromList(List<? extends T> elements, int bits) {
+        int size = elements.size();
+        BitTree<T> tree = new BitTree<>(depthFor(size, checkBits(bits)), bits);
+        if (size == 0) {
+            return tree;
+        }
+        int width = tree.width;
+        List<Node<T>> level = new ArrayList<>();
+        for (int i = 0; i < size; i += width) {
+            Node<T> leaf = new Node<>();
+            leaf.setValue(new ArrayList<>(elements.subList(i, Math.min(size, i + width))));
+            level.add(leaf);
+        }
+        for (int d = 1; d < tree.depth; d++) {
+            List<Node<T>> parents = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += width) {
+                Node<T> parent = new Node<>();
+                parent.setChild(new ArrayList<>(level.subList(i, Math.min(level.size(), i + width))));
+                parents.add(parent);
+            }
+            level = parents;
+        }
+        tree.root = level.get(0);
+        tree.size = size;
+        return tree;
+    }
+
+    /**
+     * @return Наименьшая глубина (не меньше 1), при которой дерево вмещает {@code size} элементов.
+     */
+    public static int depthFor(int size, int bits) {
+        int significant = size <= 1 ? 1 : Integer.SIZE - Integer.numberOfLeadingZeros(size - 1);
+        return Math.max(1, (significant + bits - 1) / bits);
+    }
+
+    /**
+     * @return true, если ширина узла {@code 1 << bits} поддерживается.
+     */
+    public static boolean isSupportedBits(int bits) {
+        return bits >= MIN_BITS && bits <= MAX_BITS;
+    }
+
+    /**
+     * @throws IllegalArgumentException Если ширина узла не поддерживается.
+     */
+    public static int checkBits(int bits) {
+        if (!isSupportedBits(bits)) {
+            throw new IllegalArgumentException("Unsupported branching factor: " + (1 << bits)
+                    + ", expected 16, 32 or 64");
+        }
+        return bits;
+    }
+
+    /**
+     * Постоянная часть стоимости копирования узла на пути записи (создание узла и списков)
+     * в единицах копирования одной ссылки; оценена по {@code Benchmarks.BranchingBenchmark}.
+     */
+    private static final int NODE_COPY_COST = 64;
+
+    /**
+     * Подбирает ширину узла по ожидаемому размеру и виду нагрузки.
+     * <p>
+     * Чтение проходит по одному узлу на уровень, поэтому для чтения выбирается наименьшая глубина,
+     * а при равной глубине — более широкий узел (меньше узлов и лучше локальность).
+     * Запись копирует весь путь от корня, поэтому для записи выбирается ширина с наименьшей
+     * стоимостью пути: глубина, умноженная на стоимость копирования узла
+     * ({@link #NODE_COPY_COST} плюс ширина узла).
+     * Тип элементов на выбор не влияет: в листьях хранятся ссылки одинакового размера.
+     * @param expectedSize Ожидаемое количество элементов.
+     * @param workload Преобладающий вид операций.
+     * @return Количество бит индекса на уровень.
+     */
+    public static int tuneBits(int expectedSize, Workload workload) {
+        int best = DEFAULT_BITS;
+        long bestCost = Long.MAX_VALUE;
+        for (int bits = MAX_BITS; bits >= MIN_BITS; bits--) {
+            int depth = depthFor(expectedSize, bits);
+            long cost = workload == Workload.READ_HEAVY ? depth : (long) depth * (NODE_COPY_COST + (1 << bits));
+            if (cost < bestCost) {
+                best = bits;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
     private void create(int depth, int bits) {
         this.bits = bits;
         this.depth = depth > 0 ? depth : 1;
         // Перерасчёт других параметров, зависящих от глубины и кол-ва бит
         this.width = 1 << this.bits;
         this.mask = this.width - 1;
-        this.maxSize = 1 << (this.bits * this.depth);
+        this.maxSize = capacity(this.bits, this.depth);
+    }
+
+    /**
+     * @return Вместимость дерева; при переполнении int — {@link Integer#MAX_VALUE}.
+     */
+    private static int capacity(int bits, int depth) {
+        return bits * depth >= Integer.SIZE - 1 ? Integer.MAX_VALUE : 1 << (bits * depth);
     }
 
     public boolean contains(T element) {
@@ -149,22 +438,108 @@ public class BitTree<T> {
         return false;
     }
 
+    /**
+     * Получение элемента по индексу.
+     * <p>
+     * Дерево запоминает фокус — последний лист, к которому обращались, и путь к нему от корня.
+     * Обращение к тому же листу не спускается от корня, а к другому — спускается только от общего
+     * с фокусом предка, поэтому последовательный обход выполняет O(1) шагов на элемент.
+     * Фокус переносится только на соседние листья, так что случайный доступ не создаёт объектов.
+     */
     public T get(int index) {
         if (index < 0 || index >= size) {
             throw new IndexOutOfBoundsException();
         }
 
+        Focus<T> current = focus;
+        if (current == null || current.path.length != depth) {
+            return focusOn(index, null, depth - 1).getValue().get(index & mask);
+        }
+        int diff = index ^ current.start;
+        if (diff < width) {
+            return current.path[0].getValue().get(index & mask);
+        }
+        // Уровень общего предка: узел, в котором индексы расходятся по номеру потомка
+        int level = (Integer.SIZE - 1 - Integer.numberOfLeadingZeros(diff)) / bits;
+        if (Math.abs(index - current.start) < 2 * width) {
+            return focusOn(index, current, level).getValue().get(index & mask);
+        }
+        Node<T> node = current.path[level];
+        for (int shift = bits * level; shift > 0; shift -= bits) {
+            node = node.getChild().get((index >> shift) & mask);
+        }
+        return node.getValue().get(index & mask);
+    }
+
+    /**
+     * Получение элемента спуском от корня без фокуса. Не создаёт объектов и не изменяет дерево,
+     * поэтому подходит для случайного доступа, например к корзинам хеш-таблицы.
+     */
+    public T getDirect(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException();
+        }
         Node<T> node = root;
+        for (int level = bits * (depth - 1); level > 0; level -= bits) {
+            node = node.getChild().get((index >> level) & mask);
+        }
+        return node.getValue().get(index & mask);
+    }
 
+    /**
+     * @return Элементы листа, содержащего указанный индекс. Список принадлежит дереву и не должен изменяться.
+     */
+    public List<T> getLeaf(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        Node<T> node = root;
         for (int level = bits * (depth - 1); level > 0; level -= bits) {
-            int widthIndex = (index >> level) & mask;
-            node = node.getChild().get(widthIndex);
+            node = node.getChild().get((index >> level) & mask);
         }
+        return node.getValue();
+    }
 
-        return node.getValue().get(index & mask);
+    /**
+     * Переносит фокус на лист с указанным индексом.
+     * @param current Текущий фокус либо null.
+     * @param level Уровень предка в пути текущего фокуса, с которого начинается спуск (depth - 1 — корень).
+     * @return Лист нового фокуса.
+     */
+    private Node<T> focusOn(int index, Focus<T> current, int level) {
+        Node<T>[] path = newPath(depth);
+        if (current == null) {
+            path[level] = root;
+        } else {
+            System.arraycopy(current.path, level, path, level, depth - level);
+        }
+        Node<T> node = path[level];
+        for (int l = level; l > 0; l--) {
+            node = node.getChild().get((index >> (bits * l)) & mask);
+            path[l - 1] = node;
+        }
+        focus = new Focus<>(index & ~mask, path);
+        return node;
+    }
+
+    /**
+     * @return Узлы пути фокуса последнего чтения либо null, если фокуса нет (для оценки памяти).
+     */
+    public Node<T>[] getFocusPath() {
+        Focus<T> current = focus;
+        return current == null ? null : current.path;
+    }
+
+    /**
+     * @return Пустой путь от листа (0) к корню (depth - 1).
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Node<T>[] newPath(int depth) {
+        return new Node[depth];
     }
 
     public PersistentArray<T> removeArray(T element) {
+        focus = null;
         if (size == 0) {
             root = new Node<>();
             return new PersistentArray<>(this);
@@ -177,7 +552,9 @@ public class BitTree<T> {
         for (int level = bits * (depth - 1); level > 0; level -= bits) {
             int widthIndex = ((size - 1) >> level) & mask;
 
-            Node<T> childNode = node.getChild().get(widthIndex);
+            // Копируем узлы на пути, чтобы не изменять узлы, общие с предыдущими версиями
+            Node<T> childNode = new Node<>(node.getChild().get(widthIndex));
+            node.getChild().set(widthIndex, childNode);
             path.push(childNode);
 
             node = childNode;
@@ -224,6 +601,7 @@ public class BitTree<T> {
     }
 
     private void remove(int index) {
+        focus = null;
         Node<T> node = root;
 
         for (int level = bits * (depth - 1); level > 0; level -= bits) {
@@ -252,6 +630,7 @@ public class BitTree<T> {
     }
 
     public void add(T element) {
+        focus = null;
         size++;
 
         if (size > maxSize) {
@@ -265,7 +644,7 @@ public class BitTree<T> {
             Node<T> newNode;
 
             if (node.getChild() == null) {
-                node.setChild(new LinkedList<>());
+                node.setChild(new ArrayList<>());
                 newNode = new Node<>();
                 node.getChild().add(newNode);
             } else {
@@ -283,7 +662,7 @@ public class BitTree<T> {
         }
 
         if (node.getValue() == null) {
-            node.setValue(new LinkedList<>());
+            node.setValue(new ArrayList<>());
         }
 
         node.getValue().add(element);
@@ -297,17 +676,18 @@ public class BitTree<T> {
             newNode.setValue(root.getValue());
             root.setValue(null);
         }
-        root.setChild(new LinkedList<>());
+        root.setChild(new ArrayList<>());
         root.getChild().add(newNode);
         depth++;
 
         // Перерасчёт других параметров, зависящих от глубины и кол-ва бит
         this.width = 1 << this.bits;
         this.mask = this.width - 1;
-        this.maxSize = 1 << (this.bits * this.depth);
+        this.maxSize = capacity(this.bits, this.depth);
     }
 
     public void update(int index, T element) {
+        focus = null;
         Node<T> node = root;
         for (int level = bits * (depth - 1); level > 0; level -= bits) {
             int widthIndex = (index >> level) & mask;
@@ -319,11 +699,204 @@ public class BitTree<T> {
         node.getValue().set(index & mask, element);
     }
 
+    /**
+     * Получатель позиций, в которых деревья могут различаться.
+     */
+    public interface DiffVisitor<T> {
+        /**
+         * @param index Индекс элемента.
+         * @param hadOld Есть ли элемент с этим индексом в старом дереве.
+         * @param oldValue Элемент старого дерева.
+         * @param hasNew Есть ли элемент с этим индексом в новом дереве.
+         * @param newValue Элемент нового дерева.
+         */
+        void visit(int index, boolean hadOld, T oldValue, boolean hasNew, T newValue);
+    }
+
+    /**
+     * Обходит два дерева одновременно и сообщает о позициях, элементы в которых различаются по ссылке.
+     * Общие для деревьев узлы пропускаются целиком, поэтому для версий, полученных одна из другой,
+     * время обхода пропорционально количеству изменений, умноженному на глубину дерева.
+     *
+     * @param from Старое дерево.
+     * @param to Новое дерево.
+     * @param visitor Получатель различающихся позиций.
+     */
+    public static <T> void diff(BitTree<T> from, BitTree<T> to, DiffVisitor<T> visitor) {
+        if (from.bits != to.bits) {
+            // Разная ширина узлов не даёт общих узлов: сравниваем поэлементно
+            for (int i = 0; i < Math.max(from.size, to.size); i++) {
+                boolean hadOld = i < from.size;
+                boolean hasNew = i < to.size;
+                T oldValue = hadOld ? from.get(i) : null;
+                T newValue = hasNew ? to.get(i) : null;
+                if (hadOld != hasNew || oldValue != newValue) {
+                    visitor.visit(i, hadOld, oldValue, hasNew, newValue);
+                }
+            }
+            return;
+        }
+        // Рост глубины переносит прежний корень в первого потомка нового корня
+        int depth = Math.min(from.depth, to.depth);
+        int shift = from.bits * (depth - 1);
+        diff(from.descend(depth), to.descend(depth), shift, from.bits, 0, visitor);
+
+        int capacity = capacity(from.bits, depth);
+        for (int i = capacity; i < from.size; i++) {
+            visitor.visit(i, true, from.get(i), false, null);
+        }
+        for (int i = capacity; i < to.size; i++) {
+            visitor.visit(i, false, null, true, to.get(i));
+        }
+    }
+
+    /**
+     * @return Узел, покрывающий первые элементы дерева и имеющий указанную высоту, либо null.
+     */
+    private Node<T> descend(int height) {
+        Node<T> node = root;
+        for (int level = depth; level > height && node != null; level--) {
+            node = node.getChild() == null || node.getChild().isEmpty() ? null : node.getChild().get(0);
+        }
+        return node;
+    }
+
+    private static <T> void diff(Node<T> from, Node<T> to, int shift, int bits, int offset, DiffVisitor<T> visitor) {
+        if (from == to) {
+            return;
+        }
+        if (shift == 0) {
+            List<T> oldValues = from == null ? null : from.getValue();
+            List<T> newValues = to == null ? null : to.getValue();
+            int oldSize = oldValues == null ? 0 : oldValues.size();
+            int newSize = newValues == null ? 0 : newValues.size();
+            for (int i = 0; i < Math.max(oldSize, newSize); i++) {
+                boolean hadOld = i < oldSize;
+                boolean hasNew = i < newSize;
+                T oldValue = hadOld ? oldValues.get(i) : null;
+                T newValue = hasNew ? newValues.get(i) : null;
+                if (hadOld != hasNew || oldValue != newValue) {
+                    visitor.visit(offset + i, hadOld, oldValue, hasNew, newValue);
+                }
+            }
+            return;
+        }
+        List<Node<T>> oldChildren = from == null ? null : from.getChild();
+        List<Node<T>> newChildren = to == null ? null : to.getChild();
+        int oldSize = oldChildren == null ? 0 : oldChildren.size();
+        int newSize = newChildren == null ? 0 : newChildren.size();
+        for (int i = 0; i < Math.max(oldSize, newSize); i++) {
+            diff(i < oldSize ? oldChildren.get(i) : null, i < newSize ? newChildren.get(i) : null,
+                    shift - bits, bits, offset + (i << shift), visitor);
+        }
+    }
+
+    /**
+     * Хеш-код последовательности элементов, совпадающий с {@link List#hashCode()} списка тех же элементов.
+     * Хеш-коды поддеревьев кешируются в узлах, поэтому для новой версии пересчитывается только
+     * скопированный путь.
+     */
+    public int elementsHashCode() {
+        Hashes hashes = hashes(root, bits * (depth - 1));
+        return hashes.power + hashes.polynomial;
+    }
+
+    /**
+     * Сумма хеш-кодов элементов (хеш-код множества элементов без учёта порядка). Кешируется в узлах.
+     */
+    public int elementsHashSum() {
+        return hashes(root, bits * (depth - 1)).sum;
+    }
+
+    private Hashes hashes(Node<T> node, int shift) {
+        if (node == null) {
+            return NO_ELEMENTS;
+        }
+        Hashes hashes = node.hashes;
+        if (hashes != null) {
+            return hashes;
+        }
+        int sum = 0;
+        int polynomial = 0;
+        int power = 1;
+        if (shift == 0) {
+            if (node.getValue() != null) {
+                for (T value : node.getValue()) {
+                    int hash = Objects.hashCode(value);
+                    sum += hash;
+                    polynomial = 31 * polynomial + hash;
+                    power *= 31;
+                }
+            }
+        } else if (node.getChild() != null) {
+            for (Node<T> child : node.getChild()) {
+                Hashes childHashes = hashes(child, shift - bits);
+                sum += childHashes.sum;
+                polynomial = polynomial * childHashes.power + childHashes.polynomial;
+                power *= childHashes.power;
+            }
+        }
+        hashes = new Hashes(sum, polynomial, power);
+        node.hashes = hashes;
+        return hashes;
+    }
+
+    /**
+     * Сравнивает последовательности элементов двух деревьев. Общие узлы считаются равными без обхода,
+     * а поддеревья с уже вычисленными и различающимися хеш-кодами — различными, поэтому сравнение
+     * близких версий не обходит совпадающие части.
+     */
+    public static <T> boolean elementsEqual(BitTree<T> first, BitTree<T> second) {
+        if (first.size != second.size) {
+            return false;
+        }
+        if (first.bits == second.bits && first.depth == second.depth) {
+            return nodesEqual(first.root, second.root, first.bits * (first.depth - 1), first.bits);
+        }
+        for (int i = 0; i < first.size; i++) {
+            if (!Objects.equals(first.get(i), second.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <T> boolean nodesEqual(Node<T> first, Node<T> second, int shift, int bits) {
+        if (first == second) {
+            return true;
+        }
+        if (first == null || second == null) {
+            return false;
+        }
+        Hashes firstHashes = first.hashes;
+        Hashes secondHashes = second.hashes;
+        if (firstHashes != null && secondHashes != null
+                && (firstHashes.polynomial != secondHashes.polynomial || firstHashes.power != secondHashes.power)) {
+            return false;
+        }
+        if (shift == 0) {
+            return Objects.equals(first.getValue(), second.getValue());
+        }
+        List<Node<T>> firstChildren = first.getChild();
+        List<Node<T>> secondChildren = second.getChild();
+        int size = firstChildren == null ? 0 : firstChildren.size();
+        if (size != (secondChildren == null ? 0 : secondChildren.size())) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!nodesEqual(firstChildren.get(i), secondChildren.get(i), shift - bits, bits)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public Node<T> getRoot() {
         return root;
     }
 
     public void setRoot(Node<T> root) {
+        focus = null;
         this.root = root;
     }
 
@@ -332,6 +905,7 @@ public class BitTree<T> {
     }
 
     public void setBits(int bits) {
+        focus = null;
         this.bits = bits;
     }
 
@@ -356,6 +930,7 @@ public class BitTree<T> {
     }
 
     public void setDepth(int depth) {
+        focus = null;
         this.depth = depth;
     }
 
@@ -0,0 +1,418 @@
+package Help;
+
+import Metrics.CollectionMetrics;
+import Metrics.MemoryFootprint;
+
+import java.util.Arrays;
+
+/**
+ * Неизменяемое префиксное дерево битов.
+ * <p>
+ * Устроено как {@link BitTree}: каждый внутренний уровень разбирает {@link #BITS} бит индекса,
+ * но листья хранят биты упакованными в массив из {@link #LEAF_WORDS} слов long (2048 флагов),
+ * а не списком элементов, поэтому флаг занимает около одного бита. Пустое поддерево хранится
+ * как null, и разреженные множества не тратят память на нулевые листья.
+ * <p>
+ * Изменение копирует путь от корня до листа. Узлы хранят количество установленных битов
+ * и сумму их индексов, поэтому мощность и хеш-код вычисляются за O(1), а операции над
+ * множествами обрабатывают листья по словам и пропускают общие поддеревья по ссылке.
+ */
+public class BitTrie {
+    public static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    /**
+     * Количество бит индекса, разбираемых листом.
+     */
+    private static final int LEAF_BITS = 11;
+    public static final int LEAF_WORDS = 1 << (LEAF_BITS - 6);
+
+    private static final long TRIE = MemoryFootprint.align(MemoryFootprint.OBJECT_HEADER
+            + MemoryFootprint.REFERENCE + Integer.BYTES);
+    private static final long NODE = MemoryFootprint.align(MemoryFootprint.OBJECT_HEADER
+            + MemoryFootprint.REFERENCE + Integer.BYTES + Long.BYTES);
+
+    /**
+     * Маски позиций битов в слове: бит k позиции равен 1 для битов, отмеченных в {@code POSITION_MASKS[k]}.
+     */
+    private static final long[] POSITION_MASKS = {
+            0xAAAAAAAAAAAAAAAAL, 0xCCCCCCCCCCCCCCCCL, 0xF0F0F0F0F0F0F0F0L,
+            0xFF00FF00FF00FF00L, 0xFFFF0000FFFF0000L, 0xFFFFFFFF00000000L
+    };
+
+    private enum Operation {
+        AND, OR, XOR, AND_NOT
+    }
+
+    private abstract static class Node {
+        private final int cardinality;
+        /**
+         * Сумма индексов установленных битов относительно начала поддерева.
+         */
+        private final long indexSum;
+
+        private Node(int cardinality, long indexSum) {
+            CollectionMetrics.nodeCopied();
+            this.cardinality = cardinality;
+            this.indexSum = indexSum;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        private final long[] words;
+
+        private Leaf(long[] words) {
+            this(words, cardinality(words), indexSum(words));
+        }
+
+        private Leaf(long[] words, int cardinality, long indexSum) {
+            super(cardinality, indexSum);
+            this.words = words;
+        }
+
+        private static int cardinality(long[] words) {
+            int cardinality = 0;
+            for (long word : words) {
+                cardinality += Long.bitCount(word);
+            }
+            return cardinality;
+        }
+
+        /**
+         * Сумма позиций битов считается по словам: разряд k позиции даёт 2^k за каждый бит под маской.
+         */
+        private static long indexSum(long[] words) {
+            long sum = 0;
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                if (word != 0) {
+                    sum += (long) Long.bitCount(word) * (w << 6);
+                    for (int k = 0; k < POSITION_MASKS.length; k++) {
+                        sum += (long) Long.bitCount(word & POSITION_MASKS[k]) << k;
+                    }
+                }
+            }
+            return sum;
+        }
+    }
+
+    private static final class Inner extends Node {
+        private final Node[] children;
+
+        private Inner(Node[] children, int childBits) {
+            this(children, cardinality(children), indexSum(children, childBits));
+        }
+
+        private Inner(Node[] children, int cardinality, long indexSum) {
+            super(cardinality, indexSum);
+            this.children = children;
+        }
+
+        /**
+         * @return Вклад потомка в сумму индексов узла.
+         */
+        private static long contribution(Node child, int i, int childBits) {
+            return child == null ? 0 : child.indexSum + (long) child.cardinality * ((long) i << childBits);
+        }
+
+        private static int cardinality(Node[] children) {
+            int cardinality = 0;
+            for (Node child : children) {
+                if (child != null) {
+                    cardinality += child.cardinality;
+                }
+            }
+            return cardinality;
+        }
+
+        private static long indexSum(Node[] children, int childBits) {
+            long sum = 0;
+            for (int i = 0; i < children.length; i++) {
+                sum += contribution(children[i], i, childBits);
+            }
+            return sum;
+        }
+    }
+
+    private final Node root;
+    /**
+     * Количество внутренних уровней над листьями.
+     */
+    private final int height;
+
+    public BitTrie() {
+        this(null, 0);
+    }
+
+    private BitTrie(Node root, int height) {
+        this.root = root;
+        this.height = height;
+    }
+
+    /**
+     * @return Количество бит индекса, разбираемых поддеревом указанной высоты.
+     */
+    private static int spanBits(int height) {
+        return LEAF_BITS + BITS * height;
+    }
+
+    private static boolean fits(int index, int height) {
+        int bits = spanBits(height);
+        return bits >= Integer.SIZE - 1 || index >>> bits == 0;
+    }
+
+    private static int cardinality(Node node) {
+        return node == null ? 0 : node.cardinality;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Количество установленных битов.
+     */
+    public int cardinality() {
+        return cardinality(root);
+    }
+
+    /**
+     * @return Сумма индексов установленных битов, как в {@link java.util.Set#hashCode()} для множества индексов.
+     */
+    public int indexHashCode() {
+        return root == null ? 0 : (int) root.indexSum;
+    }
+
+    public boolean get(int index) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        if (!fits(index, height)) {
+            return false;
+        }
+        Node node = root;
+        for (int h = height; h > 0 && node != null; h--) {
+            node = ((Inner) node).children[(index >>> spanBits(h - 1)) & MASK];
+        }
+        return node != null && (((Leaf) node).words[(index >>> 6) & (LEAF_WORDS - 1)] & (1L << index)) != 0;
+    }
+
+    /**
+     * @return Дерево с изменённым битом либо то же дерево, если бит уже имел это значение.
+     */
+    public BitTrie set(int index, boolean value) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        if (!value && !fits(index, height)) {
+            return this;
+        }
+        Node node = root;
+        int h = height;
+        for (; !fits(index, h); h++) {
+            node = lift(node, h);
+        }
+        Node updated = set(node, h, index, value);
+        return updated == root && h == height ? this : new BitTrie(updated, h);
+    }
+
+    /**
+     * @return Поддерево высоты {@code height + 1}, в котором исходное поддерево — первый потомок.
+     */
+    private static Node lift(Node node, int height) {
+        if (node == null) {
+            return null;
+        }
+        Node[] children = new Node[WIDTH];
+        children[0] = node;
+        return new Inner(children, spanBits(height));
+    }
+
+    private static Node set(Node node, int height, int index, boolean value) {
+        if (height == 0) {
+            Leaf leaf = (Leaf) node;
+            int w = (index >>> 6) & (LEAF_WORDS - 1);
+            long word = leaf == null ? 0 : leaf.words[w];
+            long updated = value ? word | 1L << index : word & ~(1L << index);
+            if (updated == word) {
+                return node;
+            }
+            if (updated == 0 && ((Node) leaf).cardinality == Long.bitCount(word)) {
+                return null;
+            }
+            long[] words = leaf == null ? new long[LEAF_WORDS] : leaf.words.clone();
+            words[w] = updated;
+            // Счётчики меняются на один бит, пересчитывать лист целиком не нужно
+            int position = index & ((1 << LEAF_BITS) - 1);
+            int cardinality = leaf == null ? 0 : ((Node) leaf).cardinality;
+            long indexSum = leaf == null ? 0 : ((Node) leaf).indexSum;
+            return value ? new Leaf(words, cardinality + 1, indexSum + position)
+                    : new Leaf(words, cardinality - 1, indexSum - position);
+        }
+        Inner inner = (Inner) node;
+        int childBits = spanBits(height - 1);
+        int i = (index >>> childBits) & MASK;
+        Node child = inner == null ? null : inner.children[i];
+        Node updated = set(child, height - 1, index, value);
+        if (updated == child) {
+            return node;
+        }
+        if (updated == null && ((Node) inner).cardinality == cardinality(child)) {
+            return null;
+        }
+        Node[] children = inner == null ? new Node[WIDTH] : inner.children.clone();
+        children[i] = updated;
+        int cardinality = inner == null ? 0 : ((Node) inner).cardinality - cardinality(child);
+        long indexSum = inner == null ? 0 : ((Node) inner).indexSum - Inner.contribution(child, i, childBits);
+        return new Inner(children, cardinality + cardinality(updated),
+                indexSum + Inner.contribution(updated, i, childBits));
+    }
+
+    public BitTrie and(BitTrie other) {
+        return combine(other, Operation.AND);
+    }
+
+    public BitTrie or(BitTrie other) {
+        return combine(other, Operation.OR);
+    }
+
+    public BitTrie xor(BitTrie other) {
+        return combine(other, Operation.XOR);
+    }
+
+    public BitTrie andNot(BitTrie other) {
+        return combine(other, Operation.AND_NOT);
+    }
+
+    private BitTrie combine(BitTrie other, Operation operation) {
+        int h = Math.max(height, other.height);
+        Node first = root;
+        for (int i = height; i < h; i++) {
+            first = lift(first, i);
+        }
+        Node second = other.root;
+        for (int i = other.height; i < h; i++) {
+            second = lift(second, i);
+        }
+        Node result = combine(first, second, h, operation);
+        if (result == root && h == height) {
+            return this;
+        }
+        return result == other.root && h == other.height ? other : new BitTrie(result, h);
+    }
+
+    private static Node combine(Node first, Node second, int height, Operation operation) {
+        if (first == second) {
+            return operation == Operation.AND || operation == Operation.OR ? first : null;
+        }
+        if (first == null) {
+            return operation == Operation.OR || operation == Operation.XOR ? second : null;
+        }
+        if (second == null) {
+            return operation == Operation.AND ? null : first;
+        }
+        if (height == 0) {
+            long[] a = ((Leaf) first).words;
+            long[] b = ((Leaf) second).words;
+            long[] words = new long[LEAF_WORDS];
+            boolean empty = true;
+            for (int w = 0; w < LEAF_WORDS; w++) {
+                words[w] = switch (operation) {
+                    case AND -> a[w] & b[w];
+                    case OR -> a[w] | b[w];
+                    case XOR -> a[w] ^ b[w];
+                    case AND_NOT -> a[w] & ~b[w];
+                };
+                empty &= words[w] == 0;
+            }
+            if (empty) {
+                return null;
+            }
+            // Совпадающий результат заменяется исходным листом, чтобы сохранить разделение узлов
+            if (Arrays.equals(words, a)) {
+                return first;
+            }
+            return Arrays.equals(words, b) ? second : new Leaf(words);
+        }
+        Node[] a = ((Inner) first).children;
+        Node[] b = ((Inner) second).children;
+        Node[] children = new Node[WIDTH];
+        boolean empty = true, sameAsFirst = true, sameAsSecond = true;
+        for (int i = 0; i < WIDTH; i++) {
+            children[i] = combine(a[i], b[i], height - 1, operation);
+            empty &= children[i] == null;
+            sameAsFirst &= children[i] == a[i];
+            sameAsSecond &= children[i] == b[i];
+        }
+        if (empty) {
+            return null;
+        }
+        if (sameAsFirst) {
+            return first;
+        }
+        return sameAsSecond ? second : new Inner(children, spanBits(height - 1));
+    }
+
+    /**
+     * @return Индекс первого установленного бита, не меньшего {@code from}, либо -1.
+     */
+    public int nextSetBit(int from) {
+        if (from < 0) {
+            throw new IndexOutOfBoundsException(from);
+        }
+        if (!fits(from, height)) {
+            return -1;
+        }
+        return nextSetBit(root, height, from, 0);
+    }
+
+    private static int nextSetBit(Node node, int height, int from, int base) {
+        if (node == null) {
+            return -1;
+        }
+        int offset = Math.max(0, from - base);
+        if (height == 0) {
+            long[] words = ((Leaf) node).words;
+            for (int w = offset >>> 6; w < LEAF_WORDS; w++) {
+                long word = w == offset >>> 6 ? words[w] & (-1L << offset) : words[w];
+                if (word != 0) {
+                    return base + (w << 6) + Long.numberOfTrailingZeros(word);
+                }
+            }
+            return -1;
+        }
+        Node[] children = ((Inner) node).children;
+        int childBits = spanBits(height - 1);
+        for (int i = offset >>> childBits; i < WIDTH; i++) {
+            int found = nextSetBit(children[i], height - 1, from, base + (i << childBits));
+            if (found >= 0) {
+                return found;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Учитывает объекты дерева при оценке памяти.
+     */
+    public void visit(MemoryFootprint.Visitor visitor) {
+        if (visitor.visit(this, TRIE)) {
+            visit(root, visitor);
+        }
+    }
+
+    private static void visit(Node node, MemoryFootprint.Visitor visitor) {
+        if (node instanceof Leaf leaf) {
+            if (visitor.visit(leaf, NODE)) {
+                visitor.visit(leaf.words, MemoryFootprint.align(MemoryFootprint.ARRAY_HEADER
+                        + (long) LEAF_WORDS * Long.BYTES));
+            }
+        } else if (node instanceof Inner inner && visitor.visit(inner, NODE)) {
+            visitor.visit(inner.children, MemoryFootprint.align(MemoryFootprint.ARRAY_HEADER
+                    + (long) WIDTH * MemoryFootprint.REFERENCE));
+            for (Node child : inner.children) {
+                visit(child, visitor);
+            }
+        }
+    }
+}
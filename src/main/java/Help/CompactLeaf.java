@@ -0,0 +1,298 @@
+package Help;
+
+import Metrics.MemoryFootprint;
+
+import java.io.ByteArrayOutputStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Сжатое неизменяемое представление листа {@link BitTree}.
+ * <p>
+ * Лист холодной версии заменяется списком, который хранит элементы компактнее {@link ArrayList}:
+ * сериями одного и того же объекта, словарём с однобайтовыми кодами или, для чисел Integer и Long
+ * из кеша {@link Integer#valueOf(int)} и {@link Long#valueOf(long)}, разностями соседних значений
+ * в формате varint. Элементы сравниваются по ссылке, поэтому список возвращает те же объекты,
+ * что и исходный лист. Список только для чтения и декодирует элементы при обращении, поэтому чтение
+ * версии не меняется, а изменение копирует лист в обычный список (так же, как копируется любой узел пути).
+ * Все поля неизменяемы, поэтому замену листа видят другие потоки без синхронизации.
+ *
+ * @param <T> Тип элементов.
+ */
+public abstract class CompactLeaf<T> extends AbstractList<T> implements RandomAccess {
+    /**
+     * Оценка памяти, освобождаемой объектом-обёрткой числа, на который ссылается обычный лист.
+     */
+    private static final int BOXED_NUMBER = 16;
+    private static final long OBJECT = MemoryFootprint.align(MemoryFootprint.OBJECT_HEADER
+            + 2 * MemoryFootprint.REFERENCE + Integer.BYTES);
+
+    protected final int size;
+
+    protected CompactLeaf(int size) {
+        this.size = size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Оценка размера представления в байтах (без хранимых элементов).
+     */
+    public abstract long estimatedBytes();
+
+    /**
+     * Выбирает самое компактное представление листа.
+     * @return Сжатый лист либо исходный список, если сжатие не уменьшает размер.
+     */
+    public static <T> List<T> encode(List<T> values) {
+        if (values == null || values.isEmpty() || values instanceof CompactLeaf) {
+            return values;
+        }
+        int n = values.size();
+        boolean integers = true, longs = true, cached = true;
+        for (T value : values) {
+            integers &= value instanceof Integer;
+            longs &= value instanceof Long;
+            cached &= Delta.isCached(value);
+        }
+        // Обёртки из кеша не освобождаются при сжатии, поэтому учитываются только остальные
+        boolean numbers = (integers || longs) && !cached;
+        // Обычный лист и обёртки чисел, которые он удерживает
+        long best = MemoryFootprint.arrayList(n) + (numbers ? (long) n * BOXED_NUMBER : 0);
+        List<T> result = values;
+
+        RunLength<T> runs = RunLength.of(values);
+        long runsBytes = runs.estimatedBytes() + (numbers ? (long) runs.values.length * BOXED_NUMBER : 0);
+        if (runsBytes < best) {
+            best = runsBytes;
+            result = runs;
+        }
+        Dictionary<T> dictionary = Dictionary.of(values);
+        if (dictionary != null) {
+            long dictionaryBytes = dictionary.estimatedBytes()
+                    + (numbers ? (long) dictionary.dictionary.length * BOXED_NUMBER : 0);
+            if (dictionaryBytes < best) {
+                best = dictionaryBytes;
+                result = dictionary;
+            }
+        }
+        if ((integers || longs) && cached) {
+            Delta<T> delta = new Delta<>(values, longs);
+            if (delta.estimatedBytes() < best) {
+                result = delta;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Серии соседних ссылок на один и тот же объект.
+     */
+    static final class RunLength<T> extends CompactLeaf<T> {
+        private final Object[] values;
+        /**
+         * Индекс, следующий за последним элементом серии.
+         */
+        private final int[] ends;
+
+        private RunLength(Object[] values, int[] ends, int size) {
+            super(size);
+            this.values = values;
+            this.ends = ends;
+        }
+
+        private static <T> RunLength<T> of(List<T> list) {
+            List<Object> values = new ArrayList<>();
+            int[] ends = new int[list.size()];
+            int runs = 0;
+            for (int i = 0; i < list.size(); i++) {
+                T value = list.get(i);
+                if (runs > 0 && values.get(runs - 1) == value) {
+                    ends[runs - 1] = i + 1;
+                } else {
+                    values.add(value);
+                    ends[runs++] = i + 1;
+                }
+            }
+            return new RunLength<>(values.toArray(), Arrays.copyOf(ends, runs), list.size());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            Objects.checkIndex(index, size);
+            int run = Arrays.binarySearch(ends, index + 1);
+            return (T) values[run >= 0 ? run : -run - 1];
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return OBJECT + MemoryFootprint.align(MemoryFootprint.ARRAY_HEADER
+                    + (long) values.length * MemoryFootprint.REFERENCE)
+                    + MemoryFootprint.align(MemoryFootprint.ARRAY_HEADER + (long) ends.length * Integer.BYTES);
+        }
+    }
+
+    /**
+     * Словарь различных объектов (не больше 256, сравниваются по ссылке) и однобайтовые коды элементов.
+     */
+    static final class Dictionary<T> extends CompactLeaf<T> {
+        private final Object[] dictionary;
+        private final byte[] codes;
+
+        private Dictionary(Object[] dictionary, byte[] codes) {
+            super(codes.length);
+            this.dictionary = dictionary;
+            this.codes = codes;
+        }
+
+        private static <T> Dictionary<T> of(List<T> list) {
+            Map<Object, Integer> indices = new IdentityHashMap<>();
+            List<Object> dictionary = new ArrayList<>();
+            byte[] codes = new byte[list.size()];
+            for (int i = 0; i < codes.length; i++) {
+                T value = list.get(i);
+                Integer code = indices.get(value);
+                if (code == null) {
+                    if (dictionary.size() == 256) {
+                        return null;
+                    }
+                    code = dictionary.size();
+                    indices.put(value, code);
+                    dictionary.add(value);
+                }
+                codes[i] = (byte) (int) code;
+            }
+            return new Dictionary<>(dictionary.toArray(), codes);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            return (T) dictionary[codes[index] & 0xFF];
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return OBJECT + MemoryFootprint.align(MemoryFootprint.ARRAY_HEADER
+                    + (long) dictionary.length * MemoryFootprint.REFERENCE)
+                    + MemoryFootprint.align(MemoryFootprint.ARRAY_HEADER + codes.length);
+        }
+    }
+
+    /**
+     * Числа Integer или Long: разности соседних значений в формате zigzag varint.
+     * Элемент декодируется проходом от начала листа, то есть не более чем за ширину листа шагов.
+     * Декодированное число упаковывается {@link Integer#valueOf(int)} или {@link Long#valueOf(long)},
+     * поэтому представление применяется, только если все элементы листа — обёртки из их кеша:
+     * тогда чтение возвращает те же объекты.
+     */
+    static final class Delta<T> extends CompactLeaf<T> {
+        private final byte[] bytes;
+        private final boolean longs;
+
+        private Delta(List<T> values, boolean longs) {
+            super(values.size());
+            this.longs = longs;
+            ByteArrayOutputStream out = new ByteArrayOutputStream(values.size() * 2);
+            long previous = 0;
+            for (T value : values) {
+                long current = ((Number) value).longValue();
+                long delta = current - previous;
+                long zigzag = (delta << 1) ^ (delta >> 63);
+                while ((zigzag & ~0x7FL) != 0) {
+                    out.write((int) ((zigzag & 0x7F) | 0x80));
+                    zigzag >>>= 7;
+                }
+                out.write((int) zigzag);
+                previous = current;
+            }
+            this.bytes = out.toByteArray();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            Objects.checkIndex(index, size);
+            long value = 0;
+            int position = 0;
+            for (int i = 0; i <= index; i++) {
+                long zigzag = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[position++];
+                    zigzag |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                value += (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+            return (T) (longs ? (Object) Long.valueOf(value) : (Object) Integer.valueOf((int) value));
+        }
+
+        /**
+         * @return true, если значение — обёртка Integer или Long, которую возвращает {@code valueOf}.
+         */
+        private static boolean isCached(Object value) {
+            return value instanceof Integer number ? number == Integer.valueOf(number)
+                    : value instanceof Long longNumber && longNumber == Long.valueOf(longNumber);
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return OBJECT + MemoryFootprint.align(MemoryFootprint.ARRAY_HEADER + bytes.length);
+        }
+    }
+
+    /**
+     * Сжимает листья, достижимые из холодных версий и не достижимые из горячей.
+     * @param cold Холодные версии.
+     * @param boundary Самая старая горячая версия: история линейна, поэтому узел, общий
+     *                 для холодной и любой более новой версии, есть и в ней.
+     * @return Количество сжатых листьев.
+     */
+    public static <T> int compact(List<BitTree<T>> cold, BitTree<T> boundary) {
+        Map<BitTree.Node<T>, Boolean> hot = new IdentityHashMap<>();
+        if (boundary != null) {
+            collect(boundary.getRoot(), hot, null);
+        }
+        Map<BitTree.Node<T>, Boolean> seen = new IdentityHashMap<>(hot);
+        int[] compacted = new int[1];
+        for (BitTree<T> version : cold) {
+            collect(version.getRoot(), seen, compacted);
+        }
+        return compacted[0];
+    }
+
+    /**
+     * Обходит непосещённые узлы; если {@code compacted} задан, сжимает листья.
+     */
+    private static <T> void collect(BitTree.Node<T> node, Map<BitTree.Node<T>, Boolean> seen, int[] compacted) {
+        if (node == null || seen.put(node, Boolean.TRUE) != null) {
+            return;
+        }
+        List<T> values = node.getValue();
+        if (compacted != null && values != null) {
+            List<T> encoded = encode(values);
+            if (encoded != values) {
+                node.setValue(encoded);
+                compacted[0]++;
+            }
+        }
+        List<BitTree.Node<T>> children = node.getChild();
+        if (children != null) {
+            for (BitTree.Node<T> child : children) {
+                collect(child, seen, compacted);
+            }
+        }
+    }
+}
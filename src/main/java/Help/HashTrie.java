@@ -0,0 +1,624 @@
+package Help;
+
+import Metrics.CollectionMetrics;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Неизменяемое префиксное дерево хеш-кодов (HAMT) для множеств.
+ * <p>
+ * Каждый уровень разбирает очередные {@link #BITS} бит хеш-кода элемента, а узел хранит только
+ * занятые ячейки и битовую маску занятости. Положение элемента зависит лишь от его хеш-кода,
+ * поэтому одинаковые множества, полученные одно из другого, разделяют неизменённые поддеревья,
+ * и операции над множествами пропускают общие поддеревья целиком, сравнивая узлы по ссылке:
+ * их время пропорционально различию множеств, а не их размеру.
+ * <p>
+ * Дерево хранится в каноническом виде: поддерево из одного элемента или из одного узла коллизий
+ * заменяется самим элементом или узлом, поэтому форма дерева определяется только набором элементов.
+ * Элементы null не допускаются: в операциях над множествами null обозначает пустую ячейку.
+ *
+ * @param <T> Тип элементов.
+ */
+public class HashTrie<T> implements Iterable<T> {
+    public static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    /**
+     * Узел дерева. Ячейка хранит либо элемент, либо поддерево.
+     */
+    private abstract static class Node {
+        private final int size;
+        private final int depth;
+        /**
+         * Сумма хеш-кодов элементов поддерева.
+         */
+        private final int elementsHash;
+
+        private Node(int size, int depth, int elementsHash) {
+            CollectionMetrics.nodeCopied();
+            this.size = size;
+            this.depth = depth;
+            this.elementsHash = elementsHash;
+        }
+    }
+
+    /**
+     * Узел с битовой маской занятых ячеек.
+     */
+    private static final class BitmapNode extends Node {
+        private final int bitmap;
+        private final Object[] slots;
+
+        private BitmapNode(int bitmap, Object[] slots) {
+            super(count(slots), depth(slots), hash(slots));
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private static int count(Object[] slots) {
+            int size = 0;
+            for (Object slot : slots) {
+                size += slot instanceof Node node ? node.size : 1;
+            }
+            return size;
+        }
+
+        private static int hash(Object[] slots) {
+            int hash = 0;
+            for (Object slot : slots) {
+                hash += slot instanceof Node node ? node.elementsHash : HashTrie.hash(slot);
+            }
+            return hash;
+        }
+
+        private static int depth(Object[] slots) {
+            int depth = 0;
+            for (Object slot : slots) {
+                if (slot instanceof Node node) {
+                    depth = Math.max(depth, node.depth);
+                }
+            }
+            return depth + 1;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    /**
+     * Узел элементов с полностью совпадающими хеш-кодами.
+     */
+    private static final class CollisionNode extends Node {
+        private final int hash;
+        private final Object[] elements;
+
+        private CollisionNode(int hash, Object[] elements) {
+            super(elements.length, 1, hash * elements.length);
+            this.hash = hash;
+            this.elements = elements;
+        }
+    }
+
+    /**
+     * Результат поиска отсутствующего элемента.
+     */
+    private static final Object NOT_FOUND = new Object();
+
+    private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    private final Node root;
+
+    public HashTrie() {
+        this(EMPTY);
+    }
+
+    private HashTrie(Node root) {
+        this.root = root;
+    }
+
+    public int getSize() {
+        return root.size;
+    }
+
+    /**
+     * @return Глубина дерева (количество уровней узлов).
+     */
+    public int getDepth() {
+        return root.depth;
+    }
+
+    private static int hash(Object element) {
+        return Objects.hashCode(element);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    public boolean contains(Object element) {
+        return find(root, element, hash(element), 0) != NOT_FOUND;
+    }
+
+    /**
+     * @return Хранимый элемент, равный указанному, либо null.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(Object element) {
+        Object found = find(root, element, hash(element), 0);
+        return found == NOT_FOUND ? null : (T) found;
+    }
+
+    /**
+     * @return Хранимый элемент либо {@link #NOT_FOUND}.
+     */
+    private static Object find(Node node, Object element, int hash, int shift) {
+        while (node instanceof BitmapNode bitmapNode) {
+            int bit = bit(hash, shift);
+            if ((bitmapNode.bitmap & bit) == 0) {
+                return NOT_FOUND;
+            }
+            Object slot = bitmapNode.slots[bitmapNode.index(bit)];
+            if (!(slot instanceof Node child)) {
+                return Objects.equals(slot, element) ? slot : NOT_FOUND;
+            }
+            node = child;
+            shift += BITS;
+        }
+        CollisionNode collision = (CollisionNode) node;
+        if (collision.hash == hash) {
+            for (Object stored : collision.elements) {
+                if (Objects.equals(stored, element)) {
+                    return stored;
+                }
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private static boolean containsIn(Object slot, Object element, int shift) {
+        if (slot instanceof Node node) {
+            return find(node, element, hash(element), shift) != NOT_FOUND;
+        }
+        return Objects.equals(slot, element);
+    }
+
+    /**
+     * @return Дерево с добавленным элементом (то же дерево, если элемент уже есть).
+     */
+    public HashTrie<T> add(T element) {
+        Objects.requireNonNull(element, "element");
+        Node added = add(root, element, hash(element), 0);
+        return added == root ? this : new HashTrie<>(added);
+    }
+
+    private static Node add(Node node, Object element, int hash, int shift) {
+        if (node instanceof CollisionNode collision) {
+            if (collision.hash != hash) {
+                return (Node) merge(collision, collision.hash, element, hash, shift);
+            }
+            for (Object stored : collision.elements) {
+                if (Objects.equals(stored, element)) {
+                    return node;
+                }
+            }
+            Object[] elements = Arrays.copyOf(collision.elements, collision.elements.length + 1);
+            elements[collision.elements.length] = element;
+            return new CollisionNode(hash, elements);
+        }
+        BitmapNode bitmapNode = (BitmapNode) node;
+        int bit = bit(hash, shift);
+        int index = bitmapNode.index(bit);
+        if ((bitmapNode.bitmap & bit) == 0) {
+            return new BitmapNode(bitmapNode.bitmap | bit, insert(bitmapNode.slots, index, element));
+        }
+        Object slot = bitmapNode.slots[index];
+        Object replaced;
+        if (slot instanceof Node child) {
+            replaced = add(child, element, hash, shift + BITS);
+        } else if (Objects.equals(slot, element)) {
+            return node;
+        } else {
+            replaced = merge(slot, hash(slot), element, hash, shift + BITS);
+        }
+        return replaced == slot ? node : new BitmapNode(bitmapNode.bitmap, replace(bitmapNode.slots, index, replaced));
+    }
+
+    /**
+     * Создаёт поддерево из двух различных ячеек (элементов или узлов коллизий) с указанными хеш-кодами.
+     */
+    private static Object merge(Object first, int firstHash, Object second, int secondHash, int shift) {
+        if (firstHash == secondHash) {
+            return new CollisionNode(firstHash, new Object[]{first, second});
+        }
+        int firstBit = bit(firstHash, shift);
+        int secondBit = bit(secondHash, shift);
+        if (firstBit == secondBit) {
+            return new BitmapNode(firstBit, new Object[]{merge(first, firstHash, second, secondHash, shift + BITS)});
+        }
+        return new BitmapNode(firstBit | secondBit,
+                Integer.compareUnsigned(firstBit, secondBit) < 0
+                        ? new Object[]{first, second} : new Object[]{second, first});
+    }
+
+    /**
+     * @return Дерево без указанного элемента (то же дерево, если элемента нет).
+     */
+    public HashTrie<T> remove(Object element) {
+        Object removed = remove(root, element, hash(element), 0);
+        return removed == root ? this : new HashTrie<>(toRoot(removed));
+    }
+
+    /**
+     * @return Ячейка без элемента: узел, единственный оставшийся элемент либо null.
+     */
+    private static Object remove(Node node, Object element, int hash, int shift) {
+        if (node instanceof CollisionNode collision) {
+            if (collision.hash != hash) {
+                return node;
+            }
+            for (int i = 0; i < collision.elements.length; i++) {
+                if (Objects.equals(collision.elements[i], element)) {
+                    Object[] elements = delete(collision.elements, i);
+                    return elements.length == 1 ? elements[0] : new CollisionNode(hash, elements);
+                }
+            }
+            return node;
+        }
+        BitmapNode bitmapNode = (BitmapNode) node;
+        int bit = bit(hash, shift);
+        if ((bitmapNode.bitmap & bit) == 0) {
+            return node;
+        }
+        int index = bitmapNode.index(bit);
+        Object slot = bitmapNode.slots[index];
+        Object replaced;
+        if (slot instanceof Node child) {
+            replaced = remove(child, element, hash, shift + BITS);
+        } else {
+            replaced = Objects.equals(slot, element) ? null : slot;
+        }
+        return replaced == slot ? node : withSlot(bitmapNode, bit, index, replaced);
+    }
+
+    /**
+     * @return Узел с заменённой (или удалённой, если {@code slot == null}) ячейкой в каноническом виде.
+     */
+    private static Object withSlot(BitmapNode node, int bit, int index, Object slot) {
+        if (slot == null) {
+            Object[] slots = delete(node.slots, index);
+            if (slots.length == 0) {
+                return null;
+            }
+            if (slots.length == 1 && !(slots[0] instanceof BitmapNode)) {
+                return slots[0];
+            }
+            return new BitmapNode(node.bitmap & ~bit, slots);
+        }
+        if (node.slots.length == 1 && !(slot instanceof BitmapNode)) {
+            return slot;
+        }
+        return new BitmapNode(node.bitmap, replace(node.slots, index, slot));
+    }
+
+    /**
+     * Превращает результат операции над корнем в корневой узел.
+     */
+    private static Node toRoot(Object slot) {
+        if (slot == null) {
+            return EMPTY;
+        }
+        if (slot instanceof BitmapNode node) {
+            return node;
+        }
+        int hash = slot instanceof CollisionNode collision ? collision.hash : hash(slot);
+        return new BitmapNode(bit(hash, 0), new Object[]{slot});
+    }
+
+    /**
+     * @return Объединение множеств. Если результат совпадает с этим деревом, возвращается оно же.
+     */
+    public HashTrie<T> union(HashTrie<T> other) {
+        Object result = union(root, other.root, 0);
+        return result == root ? this : result == other.root ? other : new HashTrie<>(toRoot(result));
+    }
+
+    /**
+     * @return Пересечение множеств. Если результат совпадает с этим деревом, возвращается оно же.
+     */
+    public HashTrie<T> intersection(HashTrie<T> other) {
+        Object result = intersection(root, other.root, 0);
+        return result == root ? this : new HashTrie<>(toRoot(result));
+    }
+
+    /**
+     * @return Разность множеств. Если результат совпадает с этим деревом, возвращается оно же.
+     */
+    public HashTrie<T> difference(HashTrie<T> other) {
+        Object result = difference(root, other.root, 0);
+        return result == root ? this : new HashTrie<>(toRoot(result));
+    }
+
+    private static Object union(Object first, Object second, int shift) {
+        if (first == second) {
+            return first;
+        }
+        if (!(second instanceof Node secondNode)) {
+            return first instanceof Node firstNode
+                    ? add(firstNode, second, hash(second), shift)
+                    : Objects.equals(first, second) ? first : merge(first, hash(first), second, hash(second), shift);
+        }
+        if (!(first instanceof Node firstNode)) {
+            // Элемент первого множества уже может быть во втором: тогда результат — второе поддерево
+            return add(secondNode, first, hash(first), shift);
+        }
+        if (!(first instanceof BitmapNode a) || !(second instanceof BitmapNode b)) {
+            Node result = firstNode;
+            for (Object element : elements(secondNode)) {
+                result = add(result, element, hash(element), shift);
+            }
+            return result;
+        }
+        int bitmap = a.bitmap | b.bitmap;
+        Object[] slots = new Object[Integer.bitCount(bitmap)];
+        boolean sameAsFirst = bitmap == a.bitmap;
+        for (int remaining = bitmap, i = 0; remaining != 0; remaining &= remaining - 1, i++) {
+            int bit = Integer.lowestOneBit(remaining);
+            if ((b.bitmap & bit) == 0) {
+                slots[i] = a.slots[a.index(bit)];
+            } else if ((a.bitmap & bit) == 0) {
+                slots[i] = b.slots[b.index(bit)];
+            } else {
+                Object slot = a.slots[a.index(bit)];
+                slots[i] = union(slot, b.slots[b.index(bit)], shift + BITS);
+                sameAsFirst &= slots[i] == slot;
+            }
+        }
+        return sameAsFirst ? a : new BitmapNode(bitmap, slots);
+    }
+
+    private static Object intersection(Object first, Object second, int shift) {
+        if (first == second) {
+            return first;
+        }
+        if (!(first instanceof Node firstNode)) {
+            return containsIn(second, first, shift) ? first : null;
+        }
+        if (!(second instanceof Node secondNode)) {
+            Object found = find(firstNode, second, hash(second), shift);
+            return found == NOT_FOUND ? null : found;
+        }
+        if (!(first instanceof BitmapNode a) || !(second instanceof BitmapNode b)) {
+            return filter(firstNode, secondNode, shift, true);
+        }
+        int bitmap = a.bitmap & b.bitmap;
+        Object[] slots = new Object[Integer.bitCount(bitmap)];
+        int count = 0;
+        int resultBitmap = 0;
+        boolean sameAsFirst = bitmap == a.bitmap;
+        for (int remaining = bitmap; remaining != 0; remaining &= remaining - 1) {
+            int bit = Integer.lowestOneBit(remaining);
+            Object slot = a.slots[a.index(bit)];
+            Object result = intersection(slot, b.slots[b.index(bit)], shift + BITS);
+            sameAsFirst &= result == slot;
+            if (result != null) {
+                slots[count++] = result;
+                resultBitmap |= bit;
+            }
+        }
+        if (sameAsFirst) {
+            return a;
+        }
+        return compact(resultBitmap, Arrays.copyOf(slots, count));
+    }
+
+    private static Object difference(Object first, Object second, int shift) {
+        if (first == second) {
+            return null;
+        }
+        if (!(first instanceof Node firstNode)) {
+            return containsIn(second, first, shift) ? null : first;
+        }
+        if (!(second instanceof Node secondNode)) {
+            return remove(firstNode, second, hash(second), shift);
+        }
+        if (!(first instanceof BitmapNode a) || !(second instanceof BitmapNode b)) {
+            return filter(firstNode, secondNode, shift, false);
+        }
+        Object[] slots = new Object[a.slots.length];
+        int count = 0;
+        int resultBitmap = 0;
+        boolean sameAsFirst = true;
+        for (int remaining = a.bitmap; remaining != 0; remaining &= remaining - 1) {
+            int bit = Integer.lowestOneBit(remaining);
+            Object slot = a.slots[a.index(bit)];
+            Object result = (b.bitmap & bit) == 0 ? slot : difference(slot, b.slots[b.index(bit)], shift + BITS);
+            sameAsFirst &= result == slot;
+            if (result != null) {
+                slots[count++] = result;
+                resultBitmap |= bit;
+            }
+        }
+        if (sameAsFirst) {
+            return a;
+        }
+        return compact(resultBitmap, Arrays.copyOf(slots, count));
+    }
+
+    /**
+     * Поэлементное пересечение или разность для узлов коллизий.
+     */
+    private static Object filter(Node first, Node second, int shift, boolean keepContained) {
+        Object result = null;
+        for (Object element : elements(first)) {
+            if ((find(second, element, hash(element), shift) != NOT_FOUND) == keepContained) {
+                result = result == null ? element
+                        : result instanceof Node node ? add(node, element, hash(element), shift)
+                        : merge(result, hash(result), element, hash(element), shift);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Узел из оставшихся ячеек в каноническом виде.
+     */
+    private static Object compact(int bitmap, Object[] slots) {
+        if (slots.length == 0) {
+            return null;
+        }
+        if (slots.length == 1 && !(slots[0] instanceof BitmapNode)) {
+            return slots[0];
+        }
+        return new BitmapNode(bitmap, slots);
+    }
+
+    /**
+     * @return Сумма хеш-кодов элементов, как в {@link java.util.Set#hashCode()}; хранится в корне.
+     */
+    @Override
+    public int hashCode() {
+        return root.elementsHash;
+    }
+
+    /**
+     * Сравнивает наборы элементов. Форма канонического дерева определяется только набором элементов,
+     * поэтому деревья сравниваются поузлово: общие поддеревья равны без обхода, а поддеревья
+     * с разными размерами или хеш-кодами различны без обхода.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof HashTrie<?> other && slotsEqual(root, other.root);
+    }
+
+    private static boolean slotsEqual(Object first, Object second) {
+        if (first == second) {
+            return true;
+        }
+        if (!(first instanceof Node firstNode) || !(second instanceof Node secondNode)) {
+            return !(first instanceof Node) && !(second instanceof Node) && Objects.equals(first, second);
+        }
+        if (firstNode.size != secondNode.size || firstNode.elementsHash != secondNode.elementsHash) {
+            return false;
+        }
+        if (first instanceof CollisionNode a) {
+            if (!(second instanceof CollisionNode b) || a.hash != b.hash) {
+                return false;
+            }
+            for (Object element : a.elements) {
+                if (!Arrays.asList(b.elements).contains(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (!(second instanceof BitmapNode b)) {
+            return false;
+        }
+        BitmapNode a = (BitmapNode) first;
+        if (a.bitmap != b.bitmap) {
+            return false;
+        }
+        for (int i = 0; i < a.slots.length; i++) {
+            if (!slotsEqual(a.slots[i], b.slots[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Iterable<Object> elements(Node node) {
+        return () -> new ElementIterator<>(node);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new ElementIterator<>(root);
+    }
+
+    private static Object[] insert(Object[] array, int index, Object element) {
+        Object[] result = new Object[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = element;
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        return result;
+    }
+
+    private static Object[] replace(Object[] array, int index, Object element) {
+        Object[] result = array.clone();
+        result[index] = element;
+        return result;
+    }
+
+    private static Object[] delete(Object[] array, int index) {
+        Object[] result = new Object[array.length - 1];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+        return result;
+    }
+
+    /**
+     * Обход элементов в глубину: стек хранит массивы ячеек и позиции в них.
+     */
+    private static final class ElementIterator<T> implements Iterator<T> {
+        private final Deque<Object[]> slots = new ArrayDeque<>();
+        private final Deque<Integer> positions = new ArrayDeque<>();
+        private Object next;
+        private boolean hasNext;
+
+        private ElementIterator(Node root) {
+            push(root);
+            advance();
+        }
+
+        private void push(Node node) {
+            slots.push(node instanceof BitmapNode bitmapNode ? bitmapNode.slots : ((CollisionNode) node).elements);
+            positions.push(0);
+        }
+
+        private void advance() {
+            hasNext = false;
+            while (!slots.isEmpty()) {
+                Object[] current = slots.peek();
+                int position = positions.pop();
+                if (position == current.length) {
+                    slots.pop();
+                    continue;
+                }
+                positions.push(position + 1);
+                Object slot = current[position];
+                if (slot instanceof Node node) {
+                    push(node);
+                } else {
+                    next = slot;
+                    hasNext = true;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext) {
+                throw new NoSuchElementException();
+            }
+            T result = (T) next;
+            advance();
+            return result;
+        }
+    }
+}
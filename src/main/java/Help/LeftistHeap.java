@@ -0,0 +1,257 @@
+package Help;
+
+import Metrics.CollectionMetrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Неизменяемая левосторонняя куча.
+ * <p>
+ * Ранг узла — длина самого правого пути до пустого поддерева; у каждого узла ранг левого потомка
+ * не меньше ранга правого, поэтому правый путь содержит O(log n) узлов. Слияние идёт только
+ * по правым путям и копирует O(log n) узлов, а остальные поддеревья разделяются между версиями.
+ * Оценки худшего случая, а не амортизированные, поэтому они сохраняются при многократном
+ * использовании одной версии (отмена и повтор, копии очереди).
+ *
+ * @param <T> Тип элементов.
+ */
+public class LeftistHeap<T> implements Iterable<T> {
+    private static final class Node<T> {
+        private final T element;
+        private final Node<T> left;
+        private final Node<T> right;
+        private final int rank;
+        private final int size;
+
+        private Node(T element, Node<T> first, Node<T> second) {
+            CollectionMetrics.nodeCopied();
+            this.element = element;
+            // Потомок с большим рангом становится левым
+            if (rank(first) >= rank(second)) {
+                this.left = first;
+                this.right = second;
+            } else {
+                this.left = second;
+                this.right = first;
+            }
+            this.rank = rank(this.right) + 1;
+            this.size = size(first) + size(second) + 1;
+        }
+    }
+
+    /**
+     * Маркер завершения поддерева при обходе в глубину.
+     */
+    private static final Node<?> EXIT = new Node<>(null, null, null);
+
+    private final Comparator<? super T> comparator;
+    private final Node<T> root;
+
+    public LeftistHeap(Comparator<? super T> comparator) {
+        this(comparator, null);
+    }
+
+    private LeftistHeap(Comparator<? super T> comparator, Node<T> root) {
+        this.comparator = comparator;
+        this.root = root;
+    }
+
+    private static int rank(Node<?> node) {
+        return node == null ? 0 : node.rank;
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    public Comparator<? super T> getComparator() {
+        return comparator;
+    }
+
+    public int getSize() {
+        return size(root);
+    }
+
+    /**
+     * @return Длина правого пути корня — количество узлов, копируемых слиянием с одним элементом.
+     */
+    public int getRank() {
+        return rank(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * @return Наименьший элемент либо null, если куча пуста. Выполняется за O(1).
+     */
+    public T findMin() {
+        return root == null ? null : root.element;
+    }
+
+    /**
+     * @return Куча с добавленным элементом.
+     */
+    public LeftistHeap<T> insert(T element) {
+        Objects.requireNonNull(element);
+        return new LeftistHeap<>(comparator, merge(root, new Node<>(element, null, null)));
+    }
+
+    /**
+     * @return Куча без наименьшего элемента; пустая куча возвращается без изменений.
+     */
+    public LeftistHeap<T> deleteMin() {
+        return root == null ? this : new LeftistHeap<>(comparator, merge(root.left, root.right));
+    }
+
+    /**
+     * Слияние с другой кучей. Кучи должны быть упорядочены одним компаратором.
+     */
+    public LeftistHeap<T> merge(LeftistHeap<T> other) {
+        if (other.root == null) {
+            return this;
+        }
+        return new LeftistHeap<>(comparator, merge(root, other.root));
+    }
+
+    private Node<T> merge(Node<T> first, Node<T> second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        if (comparator.compare(second.element, first.element) < 0) {
+            Node<T> swap = first;
+            first = second;
+            second = swap;
+        }
+        return new Node<>(first.element, first.left, merge(first.right, second));
+    }
+
+    /**
+     * Поиск с отсечением: поддерево, корень которого больше искомого элемента, его не содержит.
+     */
+    public boolean contains(Object element) {
+        return find(element) != null;
+    }
+
+    /**
+     * @return Хранимый элемент, равный указанному, либо null.
+     */
+    public T get(Object element) {
+        Deque<Node<T>> path = find(element);
+        return path == null ? null : path.peek().element;
+    }
+
+    /**
+     * @return Путь от корня до узла с элементом (узел — на вершине стека) либо null.
+     */
+    @SuppressWarnings("unchecked")
+    private Deque<Node<T>> find(Object element) {
+        if (element == null || root == null) {
+            return null;
+        }
+        T key = (T) element;
+        // Обход в глубину без рекурсии: левый путь кучи может быть длинным
+        Deque<Node<T>> path = new ArrayDeque<>();
+        Deque<Node<T>> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node<T> node = pending.pop();
+            if (node == EXIT) {
+                path.pop();
+                continue;
+            }
+            int order = comparator.compare(key, node.element);
+            if (order < 0) {
+                continue;
+            }
+            path.push(node);
+            if (order == 0 && key.equals(node.element)) {
+                return path;
+            }
+            pending.push((Node<T>) EXIT);
+            if (node.right != null) {
+                pending.push(node.right);
+            }
+            if (node.left != null) {
+                pending.push(node.left);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Удаляет одно вхождение элемента: узел заменяется слиянием его потомков, путь от корня копируется.
+     * @return Куча без элемента либо та же куча, если элемента нет.
+     */
+    public LeftistHeap<T> remove(Object element) {
+        Deque<Node<T>> path = find(element);
+        if (path == null) {
+            return this;
+        }
+        Node<T> removed = path.pop();
+        Node<T> replacement = merge(removed.left, removed.right);
+        Node<T> child = removed;
+        while (!path.isEmpty()) {
+            Node<T> parent = path.pop();
+            Node<T> other = parent.left == child ? parent.right : parent.left;
+            // Новый потомок не меньше родителя, поэтому порядок кучи сохраняется
+            replacement = new Node<>(parent.element, replacement, other);
+            child = parent;
+        }
+        return new LeftistHeap<>(comparator, replacement);
+    }
+
+    /**
+     * @return Элементы в порядке возрастания. Исходная куча не изменяется; время O(n log n).
+     */
+    public List<T> toSortedList() {
+        List<T> sorted = new ArrayList<>(getSize());
+        for (LeftistHeap<T> heap = this; !heap.isEmpty(); heap = heap.deleteMin()) {
+            sorted.add(heap.findMin());
+        }
+        return sorted;
+    }
+
+    /**
+     * Обход элементов без определённого порядка (родитель раньше потомков).
+     */
+    @Override
+    public Iterator<T> iterator() {
+        Deque<Node<T>> pending = new ArrayDeque<>();
+        if (root != null) {
+            pending.push(root);
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !pending.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                if (pending.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node<T> node = pending.pop();
+                if (node.right != null) {
+                    pending.push(node.right);
+                }
+                if (node.left != null) {
+                    pending.push(node.left);
+                }
+                return node.element;
+            }
+        };
+    }
+}
@@ -0,0 +1,148 @@
+package Metrics;
+
+/**
+ * Необязательный сбор метрик операций с персистентными коллекциями.
+ * <p>
+ * По умолчанию выключен: операция коллекции тогда только читает volatile-флаг — в {@link #start()},
+ * в {@link #copies()} (для изменяющих операций) и в {@link #nodeCopied()} для каждого скопированного узла,
+ * то есть число чтений растёт с количеством копируемых узлов. Часы и счётчики потока не используются.
+ * После {@link #enable()} для каждой пары «коллекция, операция» накапливаются гистограммы времени
+ * выполнения, количества скопированных узлов, глубины дерева, глубины истории и длины цепочек корзин,
+ * а также отправляются события {@link OperationEvent} в JDK Flight Recorder.
+ */
+public final class CollectionMetrics {
+    /**
+     * Вид коллекции.
+     */
+    public enum Kind {
+        ARRAY, LINKED_LIST, HASH_MAP, SORTED_MAP, HASH_SET, PRIORITY_QUEUE, BIT_SET
+    }
+
+    /**
+     * Вид операции.
+     */
+    public enum Operation {
+        ADD, UPDATE, REMOVE, GET, CONTAINS, UNDO, REDO
+    }
+
+    /**
+     * Длина цепочки для операций, не работающих с корзинами хеш-таблицы.
+     */
+    public static final int NO_CHAIN = -1;
+
+    private static final OperationStats[][] STATS = new OperationStats[Kind.values().length][Operation.values().length];
+    /**
+     * Счётчик скопированных узлов текущего потока. Только возрастает, поэтому вложенные операции
+     * (например, операции корзин внутри операции хеш-таблицы) не мешают подсчёту для внешней.
+     */
+    private static final ThreadLocal<long[]> COPIES = ThreadLocal.withInitial(() -> new long[1]);
+
+    private static volatile boolean enabled = Boolean.getBoolean("persistent.metrics");
+
+    static {
+        for (OperationStats[] row : STATS) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = new OperationStats();
+            }
+        }
+    }
+
+    private CollectionMetrics() {
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Начало операции.
+     * @return Метка времени начала операции либо 0, если сбор метрик выключен.
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @return Текущее значение счётчика скопированных узлов потока либо 0, если сбор метрик выключен.
+     */
+    public static long copies() {
+        return enabled ? COPIES.get()[0] : 0;
+    }
+
+    /**
+     * Учитывает копирование одного узла дерева.
+     */
+    public static void nodeCopied() {
+        if (enabled) {
+            COPIES.get()[0]++;
+        }
+    }
+
+    /**
+     * Завершение операции.
+     * @param kind Вид коллекции.
+     * @param operation Вид операции.
+     * @param start Значение {@link #start()} в начале операции.
+     * @param copies Значение {@link #copies()} в начале операции.
+     * @param depth Глубина дерева.
+     * @param historyDepth Глубина истории отмены.
+     * @param chainLength Длина просмотренной цепочки корзины либо {@link #NO_CHAIN}.
+     */
+    public static void record(Kind kind, Operation operation, long start, long copies,
+                              int depth, int historyDepth, int chainLength) {
+        if (start == 0 || !enabled) {
+            return;
+        }
+        long latency = System.nanoTime() - start;
+        long nodesCopied = COPIES.get()[0] - copies;
+        STATS[kind.ordinal()][operation.ordinal()].record(latency, nodesCopied, depth, historyDepth, chainLength);
+
+        OperationEvent event = new OperationEvent();
+        if (event.isEnabled()) {
+            event.collection = kind.name();
+            event.operation = operation.name();
+            event.latency = latency;
+            event.nodesCopied = nodesCopied;
+            event.depth = depth;
+            event.historyDepth = historyDepth;
+            event.chainLength = chainLength;
+            event.commit();
+        }
+    }
+
+    public static OperationStats get(Kind kind, Operation operation) {
+        return STATS[kind.ordinal()][operation.ordinal()];
+    }
+
+    public static void reset() {
+        for (OperationStats[] row : STATS) {
+            for (OperationStats stats : row) {
+                stats.reset();
+            }
+        }
+    }
+
+    /**
+     * @return Текстовый отчёт по всем операциям, которые выполнялись хотя бы раз.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        for (Kind kind : Kind.values()) {
+            for (Operation operation : Operation.values()) {
+                OperationStats stats = get(kind, operation);
+                if (stats.getLatency().getCount() > 0) {
+                    report.append(kind).append('.').append(operation).append(": ").append(stats).append('\n');
+                }
+            }
+        }
+        return report.toString();
+    }
+}
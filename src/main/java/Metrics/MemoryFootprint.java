@@ -0,0 +1,210 @@
+package Metrics;
+
+import Help.BitTree;
+import Help.CompactLeaf;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Оценка памяти, удерживаемой версией персистентной коллекции и всей её историей.
+ * <p>
+ * Объекты структуры (деревья, узлы, списки узлов и служебные обёртки элементов) обходятся
+ * с учётом идентичности, поэтому узлы, разделяемые несколькими версиями, учитываются один раз.
+ * Размеры объектов оцениваются для 64-битной JVM со сжатыми указателями; сами хранимые
+ * элементы не учитываются.
+ */
+public class MemoryFootprint {
+    /**
+     * Размер заголовка объекта.
+     */
+    public static final int OBJECT_HEADER = 12;
+    /**
+     * Размер заголовка массива.
+     */
+    public static final int ARRAY_HEADER = 16;
+    /**
+     * Размер ссылки.
+     */
+    public static final int REFERENCE = 4;
+
+    private static final long BIT_TREE = align(OBJECT_HEADER + 2 * REFERENCE + 6 * Integer.BYTES);
+    private static final long FOCUS = align(OBJECT_HEADER + REFERENCE + Integer.BYTES);
+    private static final long NODE = align(OBJECT_HEADER + 3 * REFERENCE);
+    private static final long ARRAY_LIST = align(OBJECT_HEADER + 2 * Integer.BYTES + REFERENCE);
+
+    /**
+     * Обход одной версии коллекции.
+     * @param <V> Тип версии.
+     */
+    public interface Walker<V> {
+        void walk(V version, Visitor visitor);
+    }
+
+    /**
+     * Посетитель объектов версии. Накапливает размер впервые встреченных объектов.
+     */
+    public static final class Visitor {
+        private final Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<Object> others;
+        private long total;
+        private long unique;
+
+        private Visitor(Set<Object> others) {
+            this.others = others;
+        }
+
+        /**
+         * Учитывает объект.
+         * @param object Объект.
+         * @param shallowBytes Размер объекта без объектов, на которые он ссылается.
+         * @return true, если объект встречен впервые и его ссылки нужно обойти.
+         */
+        public boolean visit(Object object, long shallowBytes) {
+            if (object == null || !seen.add(object)) {
+                return false;
+            }
+            total += shallowBytes;
+            if (others == null || !others.contains(object)) {
+                unique += shallowBytes;
+            }
+            return true;
+        }
+
+        /**
+         * Учитывает дерево, его узлы и списки узлов, а также фокус последнего чтения с массивом пути
+         * (узлы пути — узлы самого дерева).
+         * @param tree Дерево.
+         * @param shallowBytes Размер объекта дерева.
+         * @param elements Обход элементов листьев (вызывается для каждого непустого элемента).
+         */
+        public <T> void visitTree(BitTree<T> tree, long shallowBytes, BiConsumer<T, Visitor> elements) {
+            if (visit(tree, shallowBytes)) {
+                BitTree.Node<T>[] path = tree.getFocusPath();
+                if (path != null) {
+                    visit(path, FOCUS + align(ARRAY_HEADER + (long) path.length * REFERENCE));
+                }
+                visitNode(tree.getRoot(), elements);
+            }
+        }
+
+        public <T> void visitTree(BitTree<T> tree, BiConsumer<T, Visitor> elements) {
+            visitTree(tree, BIT_TREE, elements);
+        }
+
+        private <T> void visitNode(BitTree.Node<T> node, BiConsumer<T, Visitor> elements) {
+            if (!visit(node, NODE)) {
+                return;
+            }
+            List<T> values = node.getValue();
+            if (values != null && visit(values, values instanceof CompactLeaf<T> compact
+                    ? compact.estimatedBytes() : arrayList(values.size()))) {
+                for (T value : values) {
+                    if (value != null) {
+                        elements.accept(value, this);
+                    }
+                }
+            }
+            List<BitTree.Node<T>> children = node.getChild();
+            if (children != null && visit(children, arrayList(children.size()))) {
+                for (BitTree.Node<T> child : children) {
+                    if (child != null) {
+                        visitNode(child, elements);
+                    }
+                }
+            }
+        }
+    }
+
+    private final int versions;
+    private final long versionBytes;
+    private final long uniqueBytes;
+    private final long historyBytes;
+
+    public MemoryFootprint(int versions, long versionBytes, long uniqueBytes, long historyBytes) {
+        this.versions = versions;
+        this.versionBytes = versionBytes;
+        this.uniqueBytes = uniqueBytes;
+        this.historyBytes = historyBytes;
+    }
+
+    /**
+     * Подсчитывает память версии с номером {@code current} и всей истории.
+     * Сначала обходятся все остальные версии (общие поддеревья — один раз), затем текущая:
+     * её объекты, не встреченные в остальных версиях, принадлежат только ей.
+     * @param history Все версии коллекции.
+     * @param current Номер версии в {@code history} либо -1, если текущей версии нет.
+     * @param walker Обход одной версии.
+     */
+    public static <V> MemoryFootprint compute(List<? extends V> history, int current, Walker<V> walker) {
+        Visitor others = new Visitor(null);
+        for (int i = 0; i < history.size(); i++) {
+            if (i != current) {
+                walker.walk(history.get(i), others);
+            }
+        }
+        Visitor version = new Visitor(others.seen);
+        if (current >= 0) {
+            walker.walk(history.get(current), version);
+        }
+        return new MemoryFootprint(history.size(), version.total, version.unique, others.total + version.unique);
+    }
+
+    /**
+     * @return Оценка размера {@link java.util.ArrayList} с указанным количеством элементов.
+     */
+    public static long arrayList(int size) {
+        return ARRAY_LIST + align(ARRAY_HEADER + (long) size * REFERENCE);
+    }
+
+    /**
+     * @return Размер, выровненный по 8 байт.
+     */
+    public static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * @return Количество версий в истории.
+     */
+    public int getVersions() {
+        return versions;
+    }
+
+    /**
+     * @return Память, достижимая из версии.
+     */
+    public long getVersionBytes() {
+        return versionBytes;
+    }
+
+    /**
+     * @return Память, которая принадлежит только этой версии и освободится вместе с ней.
+     */
+    public long getUniqueBytes() {
+        return uniqueBytes;
+    }
+
+    /**
+     * @return Память версии, разделяемая с другими версиями.
+     */
+    public long getSharedBytes() {
+        return versionBytes - uniqueBytes;
+    }
+
+    /**
+     * @return Память, удерживаемая всей историей версий.
+     */
+    public long getHistoryBytes() {
+        return historyBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "versions=" + versions + " version=" + versionBytes + "B unique=" + uniqueBytes
+                + "B shared=" + getSharedBytes() + "B history=" + historyBytes + "B";
+    }
+}
@@ -0,0 +1,42 @@
+package Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Событие JDK Flight Recorder об операции с персистентной коллекцией.
+ * Записывается только при включённом {@link CollectionMetrics} и активной записи JFR с этим событием.
+ */
+@Name("persistent.Operation")
+@Label("Persistent Collection Operation")
+@Category("Persistent Collections")
+@Description("Операция с персистентной коллекцией")
+@StackTrace(false)
+public class OperationEvent extends Event {
+    @Label("Collection")
+    String collection;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+
+    @Label("Nodes Copied")
+    long nodesCopied;
+
+    @Label("Trie Depth")
+    int depth;
+
+    @Label("History Depth")
+    int historyDepth;
+
+    @Label("Bucket Chain Length")
+    int chainLength;
+}
@@ -0,0 +1,71 @@
+package Metrics;
+
+/**
+ * Накопленная статистика одного вида операций с одним видом коллекций.
+ */
+public class OperationStats {
+    private final Histogram latency = new Histogram();
+    private final Histogram nodesCopied = new Histogram();
+    private final Histogram depth = new Histogram();
+    private final Histogram historyDepth = new Histogram();
+    private final Histogram chainLength = new Histogram();
+
+    void record(long latencyNanos, long copies, int treeDepth, int history, int chain) {
+        latency.record(latencyNanos);
+        nodesCopied.record(copies);
+        depth.record(treeDepth);
+        historyDepth.record(history);
+        if (chain >= 0) {
+            chainLength.record(chain);
+        }
+    }
+
+    /**
+     * @return Время выполнения операции в наносекундах.
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return Количество узлов {@link Help.BitTree}, скопированных операцией.
+     */
+    public Histogram getNodesCopied() {
+        return nodesCopied;
+    }
+
+    /**
+     * @return Глубина дерева версии, с которой работала операция.
+     */
+    public Histogram getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return Глубина истории отмены после операции.
+     */
+    public Histogram getHistoryDepth() {
+        return historyDepth;
+    }
+
+    /**
+     * @return Длина просмотренной цепочки корзины (только для хеш-таблиц).
+     */
+    public Histogram getChainLength() {
+        return chainLength;
+    }
+
+    void reset() {
+        latency.reset();
+        nodesCopied.reset();
+        depth.reset();
+        historyDepth.reset();
+        chainLength.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "latency[" + latency + "] nodesCopied[" + nodesCopied + "] depth[" + depth
+                + "] history[" + historyDepth + "] chain[" + chainLength + "]";
+    }
+}
@@ -0,0 +1,128 @@
+package Storage;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Map.Entry;
+
+/**
+ * Кодек элементов коллекции для бинарного формата.
+ *
+ * @param <T> Тип кодируемых элементов.
+ */
+public interface ElementCodec<T> {
+    /**
+     * Записывает элемент (не null) в поток.
+     *
+     * @param out Поток записи.
+     * @param element Элемент.
+     */
+    void write(SnapshotOutput out, T element) throws IOException;
+
+    /**
+     * Читает элемент, записанный методом {@link #write(SnapshotOutput, Object)}.
+     *
+     * @param in Поток чтения.
+     * @return Прочитанный элемент.
+     */
+    T read(SnapshotInput in) throws IOException;
+
+    ElementCodec<Integer> INTEGER = new ElementCodec<>() {
+        @Override
+        public void write(SnapshotOutput out, Integer element) throws IOException {
+            out.writeInt(element);
+        }
+
+        @Override
+        public Integer read(SnapshotInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    ElementCodec<Long> LONG = new ElementCodec<>() {
+        @Override
+        public void write(SnapshotOutput out, Long element) throws IOException {
+            out.writeLong(element);
+        }
+
+        @Override
+        public Long read(SnapshotInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    ElementCodec<Double> DOUBLE = new ElementCodec<>() {
+        @Override
+        public void write(SnapshotOutput out, Double element) throws IOException {
+            out.writeDouble(element);
+        }
+
+        @Override
+        public Double read(SnapshotInput in) throws IOException {
+            return in.readDouble();
+        }
+    };
+
+    ElementCodec<Boolean> BOOLEAN = new ElementCodec<>() {
+        @Override
+        public void write(SnapshotOutput out, Boolean element) throws IOException {
+            out.writeByte(element ? 1 : 0);
+        }
+
+        @Override
+        public Boolean read(SnapshotInput in) throws IOException {
+            return in.readByte() != 0;
+        }
+    };
+
+    ElementCodec<String> STRING = new ElementCodec<>() {
+        @Override
+        public void write(SnapshotOutput out, String element) throws IOException {
+            out.writeString(element);
+        }
+
+        @Override
+        public String read(SnapshotInput in) throws IOException {
+            return in.readString();
+        }
+    };
+
+    /**
+     * Кодек пары ключ-значение. Ключ и значение могут быть null.
+     *
+     * @param keyCodec Кодек ключей.
+     * @param valueCodec Кодек значений.
+     * @return Кодек пар.
+     */
+    static <K, V> ElementCodec<Entry<K, V>> entry(ElementCodec<K> keyCodec, ElementCodec<V> valueCodec) {
+        return new ElementCodec<>() {
+            @Override
+            public void write(SnapshotOutput out, Entry<K, V> element) throws IOException {
+                writeNullable(out, element.getKey(), keyCodec);
+                writeNullable(out, element.getValue(), valueCodec);
+            }
+
+            @Override
+            public Entry<K, V> read(SnapshotInput in) throws IOException {
+                K key = readNullable(in, keyCodec);
+                V value = readNullable(in, valueCodec);
+                return new AbstractMap.SimpleEntry<>(key, value);
+            }
+        };
+    }
+
+    /**
+     * Записывает признак наличия элемента и сам элемент, если он не null.
+     */
+    static <T> void writeNullable(SnapshotOutput out, T element, ElementCodec<T> codec) throws IOException {
+        if (element == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            codec.write(out, element);
+        }
+    }
+
+    static <T> T readNullable(SnapshotInput in, ElementCodec<T> codec) throws IOException {
+        return in.readByte() == 0 ? null : codec.read(in);
+    }
+}
\ No newline at end of file
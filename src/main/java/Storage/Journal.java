@@ -0,0 +1,319 @@
+package Storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал операций с коллекцией (write-ahead log), дописываемый только в конец.
+ * <p>
+ * Каждая запись содержит номер операции, её тип, индекс и элемент, а также контрольную сумму,
+ * поэтому запись, оборванная при аварийном завершении, при открытии журнала отбрасывается.
+ * Сброс на диск (fsync) выполняется в соответствии с выбранной {@link Durability}: несколько
+ * операций, попавших в один сброс, фиксируются вместе (group commit).
+ *
+ * @param <T> Тип элементов коллекции.
+ */
+public class Journal<T> implements Closeable {
+    /**
+     * Гарантия сохранности записанных операций.
+     */
+    public enum Durability {
+        /**
+         * Сброс на диск после каждой операции.
+         */
+        PER_OPERATION,
+        /**
+         * Сброс на диск после накопления пакета операций.
+         */
+        PER_BATCH,
+        /**
+         * Сброс на диск фоновым потоком через фиксированный интервал времени.
+         */
+        INTERVAL
+    }
+
+    /**
+     * Тип журналируемой операции.
+     */
+    public enum Operation {
+        ADD, UPDATE, REMOVE, UNDO, REDO
+    }
+
+    /**
+     * Применение прочитанной из журнала операции.
+     *
+     * @param <T> Тип элементов коллекции.
+     */
+    @FunctionalInterface
+    public interface Replayer<T> {
+        void apply(Operation operation, int index, T element);
+    }
+
+    public static final int MAGIC = 0x504A524E;
+    public static final int VERSION = 1;
+    /**
+     * Размер заголовка: MAGIC + VERSION + номер операции, предшествующей первой записи журнала.
+     */
+    public static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES;
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    public static final long DEFAULT_INTERVAL_MILLIS = 10;
+
+    private static final int JOURNAL_BUFFER_SIZE = 1 << 16;
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final FileChannel channel;
+    private final ElementCodec<T> codec;
+    private final Durability durability;
+    private final int batchSize;
+    private final SnapshotOutput out;
+    private final ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+    private final SnapshotOutput body = new SnapshotOutput(Channels.newChannel(bodyBytes), 0, 1024);
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService flusher;
+
+    private long lastSequence;
+    private int pending;
+
+    public Journal(Path path, ElementCodec<T> codec, Durability durability) throws IOException {
+        this(path, codec, durability, DEFAULT_BATCH_SIZE, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Открывает журнал, отбрасывая оборванную запись в его конце.
+     * @param path Путь к файлу журнала.
+     * @param codec Кодек элементов.
+     * @param durability Гарантия сохранности.
+     * @param batchSize Размер пакета для {@link Durability#PER_BATCH}.
+     * @param intervalMillis Интервал сброса для {@link Durability#INTERVAL}.
+     */
+    public Journal(Path path, ElementCodec<T> codec, Durability durability, int batchSize, long intervalMillis)
+            throws IOException {
+        if (batchSize <= 0 || intervalMillis <= 0) {
+            throw new IllegalArgumentException("Batch size and interval must be positive");
+        }
+        this.codec = codec;
+        this.durability = durability;
+        this.batchSize = batchSize;
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long end = recover();
+            channel.position(end);
+            this.out = new SnapshotOutput(channel, end, JOURNAL_BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        if (durability == Durability.INTERVAL) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::syncQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Проверяет заголовок и находит конец последней целой записи.
+     * @return Смещение, с которого дописываются новые записи.
+     */
+    private long recover() throws IOException {
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(0).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            return HEADER_SIZE;
+        }
+
+        long[] last = {0};
+        long end = scan(0, (operation, index, element) -> {
+        }, last);
+        lastSequence = last[0];
+        if (end < channel.size()) {
+            // Отбрасываем запись, оборванную при аварийном завершении
+            channel.truncate(end);
+            channel.force(true);
+        }
+        return end;
+    }
+
+    /**
+     * Последовательно читает целые записи журнала.
+     * @param afterSequence Операции с номером не больше указанного пропускаются.
+     * @param replayer Применение операций.
+     * @param last Номер последней прочитанной операции (выходной параметр).
+     * @return Смещение после последней целой записи.
+     */
+    private long scan(long afterSequence, Replayer<T> replayer, long[] last) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Journal is too large to map: " + size);
+        }
+        if (size < HEADER_SIZE) {
+            throw new IOException("Journal header is truncated");
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException("Not a journal file");
+        }
+        last[0] = buffer.getLong(Integer.BYTES * 2);
+        buffer.position(HEADER_SIZE);
+
+        while (buffer.remaining() >= Integer.BYTES) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length < 0 || buffer.remaining() < length + Integer.BYTES) {
+                buffer.position(start);
+                break;
+            }
+            ByteBuffer record = buffer.slice(buffer.position(), length);
+            buffer.position(buffer.position() + length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != buffer.getInt()) {
+                buffer.position(start);
+                break;
+            }
+
+            SnapshotInput in = new SnapshotInput(record);
+            long sequence = in.readLong();
+            Operation operation = OPERATIONS[in.readByte()];
+            int index = in.readInt();
+            T element = ElementCodec.readNullable(in, codec);
+            if (sequence > afterSequence) {
+                replayer.apply(operation, index, element);
+            }
+            last[0] = sequence;
+        }
+        return buffer.position();
+    }
+
+    /**
+     * Применяет операции журнала, не учтённые в снимке.
+     * @param afterSequence Номер последней операции, уже учтённой в снимке.
+     * @param replayer Применение операций.
+     * @return Номер последней применённой операции.
+     */
+    public synchronized long replay(long afterSequence, Replayer<T> replayer) throws IOException {
+        flush();
+        long[] last = {afterSequence};
+        scan(afterSequence, replayer, last);
+        return Math.max(last[0], afterSequence);
+    }
+
+    /**
+     * Дописывает операцию в журнал.
+     * @param operation Тип операции.
+     * @param index Индекс (для {@link Operation#UPDATE}), иначе -1.
+     * @param element Элемент операции или null.
+     * @return Номер операции.
+     */
+    public synchronized long append(Operation operation, int index, T element) throws IOException {
+        long sequence = lastSequence + 1;
+        body.writeLong(sequence);
+        body.writeByte(operation.ordinal());
+        body.writeInt(index);
+        ElementCodec.writeNullable(body, element, codec);
+        body.flush();
+        byte[] record = bodyBytes.toByteArray();
+        bodyBytes.reset();
+
+        crc.reset();
+        crc.update(record);
+        out.writeBytes(record);
+        out.writeInt((int) crc.getValue());
+        lastSequence = sequence;
+
+        pending++;
+        if (durability == Durability.PER_OPERATION
+                || durability == Durability.PER_BATCH && pending >= batchSize) {
+            sync();
+        }
+        return sequence;
+    }
+
+    /**
+     * Сбрасывает все записанные операции на диск.
+     */
+    public synchronized void sync() throws IOException {
+        if (pending == 0) {
+            return;
+        }
+        out.flush();
+        channel.force(false);
+        pending = 0;
+    }
+
+    private void flush() throws IOException {
+        out.flush();
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException ignored) {
+            // Ошибка будет повторно получена при следующем явном sync() или close()
+        }
+    }
+
+    /**
+     * Очищает журнал после того, как все его операции учтены в снимке.
+     */
+    public synchronized void reset() throws IOException {
+        sync();
+        channel.truncate(HEADER_SIZE);
+        ByteBuffer base = ByteBuffer.allocate(Long.BYTES);
+        base.putLong(lastSequence).flip();
+        channel.write(base, Integer.BYTES * 2);
+        channel.force(true);
+        channel.position(HEADER_SIZE);
+        out.reset(HEADER_SIZE);
+    }
+
+    /**
+     * Гарантирует, что новые операции получат номера больше указанного.
+     * @param sequence Номер последней операции, учтённой в снимке.
+     */
+    public synchronized void skipTo(long sequence) {
+        lastSequence = Math.max(lastSequence, sequence);
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        synchronized (this) {
+            try {
+                sync();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
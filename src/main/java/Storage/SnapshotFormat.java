@@ -0,0 +1,50 @@
+package Storage;
+
+/**
+ * Константы бинарного формата снимков.
+ * <p>
+ * Файл состоит из заголовка, последовательности записей и завершающего блока (trailer).
+ * Снимок может дописываться: новые записи и новый завершающий блок добавляются в конец файла
+ * и ссылаются на ранее записанные записи.
+ * Каждая запись начинается с байта-тега, а ссылки между записями хранятся как смещения
+ * от начала файла. Записи пишутся в порядке обхода в глубину (сначала потомки, затем родитель),
+ * поэтому любая ссылка указывает на уже записанную запись, а каждый общий узел хранится ровно один раз.
+ */
+public final class SnapshotFormat {
+    public static final int MAGIC = 0x50435348;
+    public static final int VERSION = 2;
+
+    /**
+     * Размер заголовка: MAGIC + VERSION + длина зафиксированной части файла.
+     * <p>
+     * Длина обновляется только после того, как записи и завершающий блок сброшены на диск,
+     * поэтому прерванная дозапись (см. {@link SnapshotWriter#finish(long, long)}) не портит
+     * ранее зафиксированный снимок.
+     */
+    public static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES;
+    public static final int COMMITTED_LENGTH_OFFSET = Integer.BYTES * 2;
+    /**
+     * Размер завершающего блока: ссылка на корневую запись + номер последней операции журнала,
+     * учтённой в снимке, + MAGIC.
+     */
+    public static final int TRAILER_SIZE = Long.BYTES * 2 + Integer.BYTES;
+
+    /**
+     * Ссылка на отсутствующий объект (null).
+     */
+    public static final long NULL_REF = -1;
+
+    public static final byte VALUE = 1;
+    public static final byte NODE = 2;
+    public static final byte TREE = 3;
+    public static final byte ARRAY = 4;
+    public static final byte LIST = 5;
+    public static final byte LIST_NODE = 6;
+    public static final byte ENTRY = 7;
+    public static final byte HASH_MAP = 8;
+    public static final byte BUCKET = 9;
+    public static final byte BUCKET_TREE_NODE = 10;
+
+    private SnapshotFormat() {
+    }
+}
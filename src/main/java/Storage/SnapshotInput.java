@@ -0,0 +1,94 @@
+package Storage;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Поток чтения из буфера (обычно отображённого в память файла снимка).
+ */
+public class SnapshotInput {
+    private final ByteBuffer buffer;
+
+    public SnapshotInput(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public long position() {
+        return buffer.position();
+    }
+
+    public void position(long position) throws IOException {
+        if (position < 0 || position > buffer.limit()) {
+            throw new IOException("Position out of snapshot bounds: " + position);
+        }
+        buffer.position((int) position);
+    }
+
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    public byte readByte() throws IOException {
+        try {
+            return buffer.get();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Unexpected end of snapshot", e);
+        }
+    }
+
+    public int readInt() throws IOException {
+        try {
+            return buffer.getInt();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Unexpected end of snapshot", e);
+        }
+    }
+
+    public long readLong() throws IOException {
+        try {
+            return buffer.getLong();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Unexpected end of snapshot", e);
+        }
+    }
+
+    public double readDouble() throws IOException {
+        try {
+            return buffer.getDouble();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Unexpected end of snapshot", e);
+        }
+    }
+
+    public byte[] readBytes() throws IOException {
+        int length = readInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Corrupted length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    public String readString() throws IOException {
+        return new String(readBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Читает массив ссылок, записанный {@link SnapshotOutput#writeRefs(long[])}.
+     * @return Ссылки на записи.
+     */
+    public long[] readRefs() throws IOException {
+        int length = readInt();
+        if (length < 0 || (long) length * Long.BYTES > buffer.remaining()) {
+            throw new IOException("Corrupted length: " + length);
+        }
+        long[] refs = new long[length];
+        for (int i = 0; i < length; i++) {
+            refs[i] = buffer.getLong();
+        }
+        return refs;
+    }
+}
@@ -0,0 +1,112 @@
+package Storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Буферизованный поток записи в канал через прямой (direct) буфер.
+ */
+public class SnapshotOutput {
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    /**
+     * Смещение в канале, соответствующее началу буфера.
+     */
+    private long flushed;
+
+    public SnapshotOutput(WritableByteChannel channel) {
+        this(channel, 0, BUFFER_SIZE);
+    }
+
+    public SnapshotOutput(WritableByteChannel channel, long position, int bufferSize) {
+        this.channel = channel;
+        this.flushed = position;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Текущая позиция записи с учётом ещё не сброшенных данных.
+     * @return Смещение следующего записываемого байта.
+     */
+    public long position() {
+        return flushed + buffer.position();
+    }
+
+    public void writeByte(int value) throws IOException {
+        ensure(Byte.BYTES);
+        buffer.put((byte) value);
+    }
+
+    public void writeInt(int value) throws IOException {
+        ensure(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        ensure(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    public void writeDouble(double value) throws IOException {
+        ensure(Double.BYTES);
+        buffer.putDouble(value);
+    }
+
+    public void writeBytes(byte[] bytes) throws IOException {
+        writeInt(bytes.length);
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    public void writeString(String value) throws IOException {
+        writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Записывает массив ссылок вместе с его длиной.
+     * @param refs Ссылки на записи.
+     */
+    public void writeRefs(long[] refs) throws IOException {
+        writeInt(refs.length);
+        for (long ref : refs) {
+            writeLong(ref);
+        }
+    }
+
+    /**
+     * Сбрасывает накопленные данные в канал.
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushed += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Отбрасывает несброшенные данные и продолжает запись с указанного смещения канала.
+     * @param position Новое смещение записи.
+     */
+    public void reset(long position) {
+        buffer.clear();
+        flushed = position;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package Storage;
+
+import Help.BitTree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Чтение снимка, записанного {@link SnapshotWriter}.
+ * <p>
+ * Файл отображается в память целиком, а записи разбираются по ссылкам. Каждая запись
+ * материализуется один раз, поэтому общие узлы версий после загрузки снова оказываются общими.
+ */
+public class SnapshotReader implements Closeable {
+    /**
+     * Чтение элемента коллекции.
+     *
+     * @param <T> Тип элемента.
+     */
+    @FunctionalInterface
+    public interface ValueReader<T> {
+        /**
+         * @param ref Ссылка на запись элемента.
+         * @return Прочитанный элемент.
+         */
+        T read(long ref) throws IOException;
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final long rootRef;
+    private final long sequence;
+    private final Map<Long, Object> materialized = new HashMap<>();
+
+    private SnapshotReader(FileChannel channel, ByteBuffer buffer, long rootRef, long sequence) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.rootRef = rootRef;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Открывает файл снимка и проверяет его заголовок и завершающий блок.
+     * @param path Путь к файлу.
+     * @return Объект для чтения снимка.
+     */
+    public static SnapshotReader open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is too large to map: " + size);
+            }
+            if (size < SnapshotFormat.HEADER_SIZE + SnapshotFormat.TRAILER_SIZE) {
+                throw new IOException("Snapshot is truncated: " + path);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SnapshotFormat.HEADER_SIZE);
+            if (header.getInt(0) != SnapshotFormat.MAGIC) {
+                throw new IOException("Not a snapshot file: " + path);
+            }
+            if (header.getInt(Integer.BYTES) != SnapshotFormat.VERSION) {
+                throw new IOException("Unsupported snapshot version: " + header.getInt(Integer.BYTES));
+            }
+            // Данные после зафиксированной длины принадлежат незавершённой дозаписи и игнорируются
+            long committed = header.getLong(SnapshotFormat.COMMITTED_LENGTH_OFFSET);
+            if (committed < SnapshotFormat.HEADER_SIZE + SnapshotFormat.TRAILER_SIZE || committed > size) {
+                throw new IOException("Snapshot is not finished: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, committed);
+            int trailer = (int) committed - SnapshotFormat.TRAILER_SIZE;
+            if (buffer.getInt(trailer + Long.BYTES * 2) != SnapshotFormat.MAGIC) {
+                throw new IOException("Snapshot is not finished: " + path);
+            }
+            return new SnapshotReader(channel, buffer, buffer.getLong(trailer), buffer.getLong(trailer + Long.BYTES));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long getRootRef() {
+        return rootRef;
+    }
+
+    /**
+     * @return Номер последней операции журнала, учтённой в снимке.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return Размер файла снимка в байтах.
+     */
+    public long length() {
+        return buffer.limit();
+    }
+
+    /**
+     * Чтение байта по абсолютному смещению без изменения состояния читателя.
+     * Безопасно для одновременного использования из нескольких потоков.
+     */
+    public byte byteAt(long position) throws IOException {
+        return buffer.get(checkPosition(position, Byte.BYTES));
+    }
+
+    /**
+     * Чтение int по абсолютному смещению без изменения состояния читателя.
+     */
+    public int intAt(long position) throws IOException {
+        return buffer.getInt(checkPosition(position, Integer.BYTES));
+    }
+
+    /**
+     * Чтение long по абсолютному смещению без изменения состояния читателя.
+     */
+    public long longAt(long position) throws IOException {
+        return buffer.getLong(checkPosition(position, Long.BYTES));
+    }
+
+    private int checkPosition(long position, int bytes) throws IOException {
+        if (position < 0 || position > buffer.limit() - bytes) {
+            throw new IOException("Position out of snapshot bounds: " + position);
+        }
+        return (int) position;
+    }
+
+    /**
+     * Возвращает поток, установленный на содержимое записи.
+     * @param ref Ссылка на запись.
+     * @param tag Ожидаемый тег записи.
+     * @return Поток, установленный сразу после тега.
+     */
+    public SnapshotInput record(long ref, byte tag) throws IOException {
+        SnapshotInput in = new SnapshotInput(buffer.duplicate());
+        in.position(ref);
+        byte actual = in.readByte();
+        if (actual != tag) {
+            throw new IOException("Unexpected record " + actual + " at " + ref + ", expected " + tag);
+        }
+        return in;
+    }
+
+    /**
+     * @param ref Ссылка на запись.
+     * @return Ранее материализованный объект записи или null.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R cached(long ref) {
+        return (R) materialized.get(ref);
+    }
+
+    public void cache(long ref, Object object) {
+        materialized.put(ref, object);
+    }
+
+    public <T> T readValue(long ref, ElementCodec<T> codec) throws IOException {
+        if (ref == SnapshotFormat.NULL_REF) {
+            return null;
+        }
+        T value = cached(ref);
+        if (value == null) {
+            value = codec.read(record(ref, SnapshotFormat.VALUE));
+            materialized.put(ref, value);
+        }
+        return value;
+    }
+
+    /**
+     * Восстанавливает дерево без повторного добавления элементов.
+     * @param ref Ссылка на запись дерева.
+     * @param values Чтение элементов в листьях.
+     * @return Дерево.
+     */
+    public <T> BitTree<T> readTree(long ref, ValueReader<T> values) throws IOException {
+        BitTree<T> tree = cached(ref);
+        if (tree != null) {
+            return tree;
+        }
+        SnapshotInput in = record(ref, SnapshotFormat.TREE);
+        int bits = in.readInt();
+        int depth = in.readInt();
+        int size = in.readInt();
+        if (!BitTree.isSupportedBits(bits)) {
+            throw new IOException("Unsupported tree branching bits: " + bits);
+        }
+        tree = new BitTree<>(depth, bits);
+        tree.setRoot(readNode(in.readLong(), values));
+        tree.setSize(size);
+        materialized.put(ref, tree);
+        return tree;
+    }
+
+    private <T> BitTree.Node<T> readNode(long ref, ValueReader<T> values) throws IOException {
+        if (ref == SnapshotFormat.NULL_REF) {
+            return null;
+        }
+        BitTree.Node<T> node = cached(ref);
+        if (node != null) {
+            return node;
+        }
+        SnapshotInput in = record(ref, SnapshotFormat.NODE);
+        long[] valueRefs = readNullableRefs(in);
+        long[] childRefs = readNullableRefs(in);
+
+        node = new BitTree.Node<>();
+        if (valueRefs != null) {
+            List<T> nodeValues = new ArrayList<>(valueRefs.length);
+            for (long valueRef : valueRefs) {
+                nodeValues.add(values.read(valueRef));
+            }
+            node.setValue(nodeValues);
+        }
+        if (childRefs != null) {
+            List<BitTree.Node<T>> children = new ArrayList<>(childRefs.length);
+            for (long childRef : childRefs) {
+                children.add(readNode(childRef, values));
+            }
+            node.setChild(children);
+        }
+        materialized.put(ref, node);
+        return node;
+    }
+
+    private static long[] readNullableRefs(SnapshotInput in) throws IOException {
+        long position = in.position();
+        if (in.readInt() < 0) {
+            return null;
+        }
+        in.position(position);
+        return in.readRefs();
+    }
+
+    @Override
+    public void close() throws IOException {
+        materialized.clear();
+        channel.close();
+    }
+}
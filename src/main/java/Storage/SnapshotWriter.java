@@ -0,0 +1,212 @@
+package Storage;
+
+import Help.BitTree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Запись снимка коллекций в файл.
+ * <p>
+ * Каждый объект (узел дерева, элемент, версия) записывается один раз: повторные вхождения
+ * того же объекта (по ссылке) заменяются ссылкой на уже записанную запись. За счёт этого
+ * общие для нескольких версий узлы {@link BitTree} не дублируются.
+ */
+public class SnapshotWriter implements Closeable {
+    /**
+     * Запись элемента коллекции.
+     *
+     * @param <T> Тип элемента.
+     */
+    @FunctionalInterface
+    public interface ValueWriter<T> {
+        /**
+         * @param value Элемент для записи.
+         * @return Ссылка на запись элемента.
+         */
+        long write(T value) throws IOException;
+    }
+
+    private final FileChannel channel;
+    private final SnapshotOutput out;
+    private final Map<Object, Long> written = new IdentityHashMap<>();
+
+    public SnapshotWriter(Path path) throws IOException {
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.out = new SnapshotOutput(channel);
+        out.writeInt(SnapshotFormat.MAGIC);
+        out.writeInt(SnapshotFormat.VERSION);
+        out.writeLong(0);
+    }
+
+    public SnapshotOutput output() {
+        return out;
+    }
+
+    /**
+     * Начинает новую запись с указанным тегом.
+     * @param tag Тег записи из {@link SnapshotFormat}.
+     * @return Ссылка на начинаемую запись.
+     */
+    public long beginRecord(byte tag) throws IOException {
+        long ref = out.position();
+        out.writeByte(tag);
+        return ref;
+    }
+
+    /**
+     * @param object Объект.
+     * @return Ссылка на запись объекта, если он уже был записан, иначе null.
+     */
+    public Long lookup(Object object) {
+        return written.get(object);
+    }
+
+    public void remember(Object object, long ref) {
+        written.put(object, ref);
+    }
+
+    /**
+     * Записывает элемент с помощью кодека.
+     * @param value Элемент.
+     * @param codec Кодек элемента.
+     * @return Ссылка на запись элемента либо {@link SnapshotFormat#NULL_REF}.
+     */
+    public <T> long writeValue(T value, ElementCodec<T> codec) throws IOException {
+        if (value == null) {
+            return SnapshotFormat.NULL_REF;
+        }
+        Long known = written.get(value);
+        if (known != null) {
+            return known;
+        }
+        long ref = beginRecord(SnapshotFormat.VALUE);
+        codec.write(out, value);
+        written.put(value, ref);
+        return ref;
+    }
+
+    /**
+     * Записывает дерево вместе со всеми ещё не записанными узлами.
+     * @param tree Дерево.
+     * @param values Запись элементов в листьях.
+     * @return Ссылка на запись дерева.
+     */
+    public <T> long writeTree(BitTree<T> tree, ValueWriter<T> values) throws IOException {
+        Long known = written.get(tree);
+        if (known != null) {
+            return known;
+        }
+        long root = writeNode(tree.getRoot(), values);
+        long ref = beginRecord(SnapshotFormat.TREE);
+        out.writeInt(tree.getBits());
+        out.writeInt(tree.getDepth());
+        out.writeInt(tree.getSize());
+        out.writeLong(root);
+        written.put(tree, ref);
+        return ref;
+    }
+
+    private <T> long writeNode(BitTree.Node<T> node, ValueWriter<T> values) throws IOException {
+        if (node == null) {
+            return SnapshotFormat.NULL_REF;
+        }
+        Long known = written.get(node);
+        if (known != null) {
+            return known;
+        }
+
+        long[] valueRefs = null;
+        List<T> nodeValues = node.getValue();
+        if (nodeValues != null) {
+            valueRefs = new long[nodeValues.size()];
+            int i = 0;
+            for (T value : nodeValues) {
+                valueRefs[i++] = values.write(value);
+            }
+        }
+
+        long[] childRefs = null;
+        List<BitTree.Node<T>> children = node.getChild();
+        if (children != null) {
+            childRefs = new long[children.size()];
+            int i = 0;
+            for (BitTree.Node<T> child : children) {
+                childRefs[i++] = writeNode(child, values);
+            }
+        }
+
+        long ref = beginRecord(SnapshotFormat.NODE);
+        writeNullableRefs(valueRefs);
+        writeNullableRefs(childRefs);
+        written.put(node, ref);
+        return ref;
+    }
+
+    private void writeNullableRefs(long[] refs) throws IOException {
+        if (refs == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeRefs(refs);
+        }
+    }
+
+    /**
+     * Завершает снимок: записывает ссылку на корневую запись и сбрасывает данные на диск.
+     * @param rootRef Ссылка на корневую запись снимка.
+     */
+    public void finish(long rootRef) throws IOException {
+        finish(rootRef, 0);
+    }
+
+    /**
+     * Завершает снимок: записывает ссылку на корневую запись и сбрасывает данные на диск.
+     * @param rootRef Ссылка на корневую запись снимка.
+     * @param sequence Номер последней операции журнала, учтённой в снимке.
+     */
+    public void finish(long rootRef, long sequence) throws IOException {
+        out.writeLong(rootRef);
+        out.writeLong(sequence);
+        out.writeInt(SnapshotFormat.MAGIC);
+        out.flush();
+        channel.force(false);
+
+        // Фиксируем снимок только после того, как его данные оказались на диске
+        ByteBuffer committed = ByteBuffer.allocate(Long.BYTES);
+        committed.putLong(out.position()).flip();
+        while (committed.hasRemaining()) {
+            channel.write(committed, SnapshotFormat.COMMITTED_LENGTH_OFFSET + committed.position());
+        }
+        channel.force(true);
+    }
+
+    /**
+     * @return Количество объектов, для которых запомнены ссылки на записи.
+     */
+    public int rememberedCount() {
+        return written.size();
+    }
+
+    /**
+     * Забывает ссылки на объекты, не входящие в указанное множество. Используется при дозаписи,
+     * чтобы не удерживать в памяти узлы версий, которые больше не будут записываться.
+     * @param reachable Множество объектов (по ссылке), ссылки на которые нужно сохранить.
+     */
+    public void retainAll(Set<Object> reachable) {
+        written.keySet().retainAll(reachable);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,70 @@
+package Benchmarks;
+
+import Collections.BatchWriter;
+import Collections.PersistentArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Пропускная способность записи в {@link PersistentArray} из многих потоков: добавление
+ * под общей блокировкой против {@link BatchWriter}.
+ * <p>
+ * Запуск: {@code java -cp target/classes:target/test-classes Benchmarks.BatchWriterBenchmark [потоки] [записей на поток]}
+ */
+public class BatchWriterBenchmark {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+
+        System.out.printf("%-10s %14s %10s%n", "writer", "writes/s", "versions");
+        // Прогрев, затем замер
+        for (int round = 0; round < 2; round++) {
+            PersistentArray<Integer> locked = new PersistentArray<>();
+            double lockedRate = run(threads, perThread, value -> {
+                synchronized (locked) {
+                    locked.add(value);
+                }
+                return null;
+            });
+            PersistentArray<Integer> batched = new PersistentArray<>();
+            BatchWriter<Integer> writer = batched.writer();
+            double batchedRate = run(threads, perThread, writer::add);
+            if (round == 1) {
+                System.out.printf("%-10s %,14.0f %,10d%n", "locked", lockedRate, locked.versionCount());
+                System.out.printf("%-10s %,14.0f %,10d%n", "batched", batchedRate, batched.versionCount());
+            }
+        }
+    }
+
+    private interface Write {
+        CompletableFuture<Integer> apply(int value);
+    }
+
+    private static double run(int threads, int perThread, Write write) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            List<CompletableFuture<Void>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int offset = t * perThread;
+                tasks.add(CompletableFuture.runAsync(() -> {
+                    CompletableFuture<Integer> last = null;
+                    for (int i = 0; i < perThread; i++) {
+                        last = write.apply(offset + i);
+                    }
+                    if (last != null) {
+                        last.join();
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+            return (double) threads * perThread / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
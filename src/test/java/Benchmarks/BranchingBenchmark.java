@@ -0,0 +1,66 @@
+package Benchmarks;
+
+import Collections.PersistentArray;
+
+import java.util.Random;
+
+/**
+ * Скорость чтения и записи {@link PersistentArray} при ширине узла 16, 32 и 64.
+ * <p>
+ * Чтение — случайный и последовательный доступ по индексу, запись — добавление в конец и изменение по случайному индексу;
+ * обе операции записи копируют путь от корня до листа.
+ * <p>
+ * Запуск: {@code java -cp target/classes:target/test-classes Benchmarks.BranchingBenchmark}
+ */
+public class BranchingBenchmark {
+    private static final int OPERATIONS = 200_000;
+
+    public static void main(String[] args) {
+        int[] sizes = {1_000, 30_000, 300_000};
+        System.out.printf("%-8s %6s %14s %14s %14s %14s%n", "size", "width", "add/s", "update/s", "get/s",
+                "scan/s");
+        for (int size : sizes) {
+            for (int bits = 4; bits <= 6; bits++) {
+                // Прогрев, затем замер
+                run(size, bits);
+                double[] result = run(size, bits);
+                System.out.printf("%-8d %6d %,14.0f %,14.0f %,14.0f %,14.0f%n", size, 1 << bits,
+                        result[0], result[1], result[2], result[3]);
+            }
+        }
+    }
+
+    private static double[] run(int size, int bits) {
+        PersistentArray<Integer> array = PersistentArray.withBranching(bits);
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            array.add(i);
+        }
+        double adds = size / ((System.nanoTime() - start) / 1e9);
+
+        Random random = new Random(size);
+        int updates = Math.min(OPERATIONS, size);
+        start = System.nanoTime();
+        for (int i = 0; i < updates; i++) {
+            array.update(random.nextInt(size), i);
+        }
+        double updatesPerSecond = updates / ((System.nanoTime() - start) / 1e9);
+
+        long checksum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            checksum += array.get(random.nextInt(size));
+        }
+        double gets = OPERATIONS / ((System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            checksum += array.get(i);
+        }
+        double scans = size / ((System.nanoTime() - start) / 1e9);
+        if (checksum == Long.MIN_VALUE) {
+            System.out.println(checksum);
+        }
+        return new double[]{adds, updatesPerSecond, gets, scans};
+    }
+}
@@ -0,0 +1,79 @@
+package Benchmarks;
+
+import Collections.PersistentArray;
+
+import java.util.Random;
+
+/**
+ * Скорость чтения {@link PersistentArray} при разных шаблонах доступа: последовательном,
+ * локальном (случайный индекс рядом с предыдущим) и случайном, а также обхода курсором.
+ * <p>
+ * Запуск: {@code java -cp target/classes:target/test-classes Benchmarks.FocusBenchmark [размер]}
+ */
+public class FocusBenchmark {
+    private static final int PASSES = 50;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        PersistentArray<Integer> array = new PersistentArray<>();
+        for (int i = 0; i < size; i++) {
+            array.add(i);
+        }
+        int[] local = new int[size];
+        int[] random = new int[size];
+        Random generator = new Random(size);
+        for (int i = 0; i < size; i++) {
+            local[i] = Math.min(size - 1, Math.max(0, i + generator.nextInt(64) - 32));
+            random[i] = generator.nextInt(size);
+        }
+        int[] sequential = new int[size];
+        for (int i = 0; i < size; i++) {
+            sequential[i] = i;
+        }
+
+        System.out.printf("%-12s %16s%n", "pattern", "get/s");
+        // Прогрев, затем замер
+        for (int round = 0; round < 2; round++) {
+            double sequentialRate = run(array, sequential);
+            double localRate = run(array, local);
+            double randomRate = run(array, random);
+            double cursorRate = runCursor(array);
+            if (round == 1) {
+                System.out.printf("%-12s %,16.0f%n", "sequential", sequentialRate);
+                System.out.printf("%-12s %,16.0f%n", "local", localRate);
+                System.out.printf("%-12s %,16.0f%n", "random", randomRate);
+                System.out.printf("%-12s %,16.0f%n", "cursor", cursorRate);
+            }
+        }
+    }
+
+    private static double runCursor(PersistentArray<Integer> array) {
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int pass = 0; pass < PASSES; pass++) {
+            for (int value : array) {
+                checksum += value;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (checksum == Long.MIN_VALUE) {
+            System.out.println(checksum);
+        }
+        return (double) PASSES * array.size() / seconds;
+    }
+
+    private static double run(PersistentArray<Integer> array, int[] indices) {
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int pass = 0; pass < PASSES; pass++) {
+            for (int index : indices) {
+                checksum += array.get(index);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (checksum == Long.MIN_VALUE) {
+            System.out.println(checksum);
+        }
+        return (double) PASSES * indices.length / seconds;
+    }
+}
@@ -0,0 +1,46 @@
+package Benchmarks;
+
+import Collections.JournaledCollection;
+import Storage.ElementCodec;
+import Storage.Journal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Пропускная способность журналируемой коллекции при разных гарантиях сохранности.
+ * <p>
+ * Запуск: {@code java -cp target/classes:target/test-classes Benchmarks.JournalBenchmark [операций]}
+ */
+public class JournalBenchmark {
+    public static void main(String[] args) throws IOException {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        for (Journal.Durability durability : Journal.Durability.values()) {
+            // Прогрев, затем замер
+            run(durability, operations / 10);
+            double opsPerSecond = run(durability, operations);
+            System.out.printf("%-14s %,12.0f ops/s%n", durability, opsPerSecond);
+        }
+    }
+
+    private static double run(Journal.Durability durability, int operations) throws IOException {
+        Path directory = Files.createTempDirectory("journal-benchmark");
+        try {
+            long start = System.nanoTime();
+            try (JournaledCollection<Integer> array = JournaledCollection.openArray(directory,
+                    ElementCodec.INTEGER, durability)) {
+                for (int i = 0; i < operations; i++) {
+                    array.add(i);
+                }
+            }
+            return operations / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
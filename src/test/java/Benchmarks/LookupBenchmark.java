@@ -0,0 +1,58 @@
+package Benchmarks;
+
+import Collections.PersistentHashMap;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Время и объём выделяемой памяти на операцию поиска в {@link PersistentHashMap}:
+ * get, contains и delete отсутствующего ключа.
+ * <p>
+ * Запуск: {@code java -cp target/classes:target/test-classes Benchmarks.LookupBenchmark [размер]}
+ */
+public class LookupBenchmark {
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        PersistentHashMap<String, Integer> map = new PersistentHashMap<>();
+        String[] present = new String[size];
+        String[] absent = new String[size];
+        Integer[] values = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            present[i] = "key" + i;
+            absent[i] = "absent" + i;
+            values[i] = i;
+            map.add(present[i], values[i]);
+        }
+
+        System.out.printf("%-10s %10s %10s%n", "operation", "ns/op", "B/op");
+        // Прогрев, затем замер
+        for (int round = 0; round < 2; round++) {
+            for (String operation : new String[]{"get", "contains", "delete"}) {
+                long checksum = 0;
+                long bytes = threads.getCurrentThreadAllocatedBytes();
+                long start = System.nanoTime();
+                for (int pass = 0; pass < ROUNDS; pass++) {
+                    for (int i = 0; i < size; i++) {
+                        checksum += switch (operation) {
+                            case "get" -> map.get(present[i]).getValue();
+                            case "contains" -> map.contains(present[i], values[i]) ? 1 : 0;
+                            default -> map.delete(absent[i]) == null ? 1 : 0;
+                        };
+                    }
+                }
+                double ops = (double) ROUNDS * size;
+                double nanos = (System.nanoTime() - start) / ops;
+                double allocated = (threads.getCurrentThreadAllocatedBytes() - bytes) / ops;
+                if (round == 1) {
+                    System.out.printf("%-10s %10.1f %10.2f%n", operation, nanos, allocated);
+                }
+                if (checksum == Long.MIN_VALUE) {
+                    System.out.println(checksum);
+                }
+            }
+        }
+    }
+}
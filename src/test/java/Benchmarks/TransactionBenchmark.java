@@ -0,0 +1,76 @@
+package Benchmarks;
+
+import Collections.PersistentArray;
+import Collections.PersistentHashMap;
+import Collections.TransactionalStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Пропускная способность транзакций {@link TransactionalStore} при разном числе потоков и уровне конфликтов.
+ * <p>
+ * В режиме «общий» все потоки изменяют одну таблицу и один массив, поэтому транзакции конфликтуют;
+ * в режиме «раздельный» каждый поток работает со своей парой коллекций и конфликтов нет.
+ * <p>
+ * Запуск: {@code java -cp target/classes:target/test-classes Benchmarks.TransactionBenchmark [транзакций на поток]}
+ */
+public class TransactionBenchmark {
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%-10s %8s %14s %10s%n", "mode", "threads", "tx/s", "retries");
+        for (boolean shared : new boolean[]{true, false}) {
+            for (int threads = 1; threads <= maxThreads * 2; threads *= 2) {
+                // Прогрев, затем замер
+                run(shared, threads, transactions / 10);
+                Result result = run(shared, threads, transactions);
+                System.out.printf("%-10s %8d %,14.0f %10d%n", shared ? "shared" : "disjoint", threads,
+                        result.transactionsPerSecond, result.retries);
+            }
+        }
+    }
+
+    private record Result(double transactionsPerSecond, long retries) {
+    }
+
+    private static Result run(boolean shared, int threads, int transactions) throws Exception {
+        TransactionalStore store = new TransactionalStore();
+        List<TransactionalStore.Ref<PersistentHashMap<Integer, Integer>>> maps = new ArrayList<>();
+        List<TransactionalStore.Ref<PersistentArray<Integer>>> arrays = new ArrayList<>();
+        for (int t = 0; t < (shared ? 1 : threads); t++) {
+            maps.add(store.register(new PersistentHashMap<>()));
+            arrays.add(store.register(new PersistentArray<>()));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                TransactionalStore.Ref<PersistentHashMap<Integer, Integer>> map = maps.get(shared ? 0 : t);
+                TransactionalStore.Ref<PersistentArray<Integer>> array = arrays.get(shared ? 0 : t);
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < transactions; i++) {
+                        int key = thread * transactions + i;
+                        store.atomically(transaction -> {
+                            transaction.get(map).add(key % 1_024, key);
+                            return transaction.get(array).add(key);
+                        });
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            return new Result((double) threads * transactions / seconds, store.getRetries());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
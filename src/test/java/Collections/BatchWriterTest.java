@@ -0,0 +1,109 @@
+package Collections;
+
+import Help.BitTree;
+import Metrics.CollectionMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchWriterTest {
+    private PersistentArray<Integer> array;
+
+    @BeforeEach
+    void setUp() {
+        array = new PersistentArray<>();
+    }
+
+    @Test
+    void concurrentAdds() throws Exception {
+        BatchWriter<Integer> writer = array.writer();
+        assertSame(writer, array.writer());
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        try {
+            List<CompletableFuture<List<CompletableFuture<Integer>>>> tasks = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                int offset = t * 1_000;
+                tasks.add(CompletableFuture.supplyAsync(() -> {
+                    List<CompletableFuture<Integer>> own = new ArrayList<>();
+                    for (int i = 0; i < 1_000; i++) {
+                        own.add(writer.add(offset + i));
+                    }
+                    return own;
+                }, executor));
+            }
+            for (CompletableFuture<List<CompletableFuture<Integer>>> task : tasks) {
+                results.addAll(task.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Set<Integer> elements = new HashSet<>();
+        array.forEach(elements::add);
+        assertEquals(16_000, array.size());
+        assertEquals(16_000, elements.size());
+        // Каждый запрос видит версию, в которой он применён
+        int last = array.currentVersionIndex();
+        assertTrue(last <= 16_000);
+        for (CompletableFuture<Integer> result : results) {
+            int version = result.get();
+            assertTrue(version >= 1 && version <= last);
+        }
+    }
+
+    @Test
+    void updatesAndBatchUndo() throws Exception {
+        BatchWriter<Integer> writer = array.writer();
+        int first = writer.add(1).get();
+        assertEquals(1, first);
+        assertEquals(2, writer.update(0, 10).get());
+        assertEquals(10, array.get(0));
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> writer.update(5, 0).get());
+        assertInstanceOf(IndexOutOfBoundsException.class, failure.getCause());
+        assertThrows(ExecutionException.class, () -> writer.update(-1, 0).get());
+        assertEquals(1, array.size());
+
+        // Пакет образует одну версию, поэтому отменяется целиком
+        array.pushBatch(version -> {
+            BitTree<Integer> copy = new BitTree<>(version);
+            copy.add(2);
+            copy.add(3);
+            return copy;
+        }, true);
+        assertEquals(3, array.size());
+        array.undo();
+        assertEquals(1, array.size());
+    }
+
+    @Test
+    void batchMetricsMatchRequestKind() throws Exception {
+        BatchWriter<Integer> writer = array.writer();
+        writer.add(1).get();
+        CollectionMetrics.enable();
+        try {
+            writer.update(0, 2).get();
+            assertEquals(1, CollectionMetrics.get(CollectionMetrics.Kind.ARRAY, CollectionMetrics.Operation.UPDATE)
+                    .getLatency().getCount());
+            assertEquals(0, CollectionMetrics.get(CollectionMetrics.Kind.ARRAY, CollectionMetrics.Operation.ADD)
+                    .getLatency().getCount());
+            writer.add(3).get();
+            assertEquals(1, CollectionMetrics.get(CollectionMetrics.Kind.ARRAY, CollectionMetrics.Operation.ADD)
+                    .getLatency().getCount());
+        } finally {
+            CollectionMetrics.disable();
+            CollectionMetrics.reset();
+        }
+    }
+}
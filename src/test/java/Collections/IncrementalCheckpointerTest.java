@@ -0,0 +1,71 @@
+package Collections;
+
+import Storage.ElementCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalCheckpointerTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void writesOnlyChangedNodes() throws IOException {
+        PersistentArray<Integer> array = new PersistentArray<>();
+        for (int i = 0; i < 5000; i++) {
+            array.add(i * 1000);
+        }
+
+        Path file = directory.resolve("array.checkpoint");
+        try (IncrementalCheckpointer<Integer> checkpointer = new IncrementalCheckpointer<>(file, ElementCodec.INTEGER)) {
+            long full = checkpointer.checkpoint(array).join();
+
+            array.update(10, -1);
+            long incremental = checkpointer.checkpoint(array).join();
+
+            // Дописывается только путь от корня до изменённого листа
+            assertTrue(incremental * 20 < full, incremental + " of " + full);
+
+            PersistentArray<Integer> loaded = PersistentArray.load(file, ElementCodec.INTEGER);
+            assertEquals(5000, loaded.size());
+            assertEquals(-1, loaded.get(10));
+            assertEquals(4999000, loaded.get(4999));
+        }
+    }
+
+    @Test
+    void writesContinueDuringCheckpoint() throws IOException {
+        PersistentArray<Integer> array = new PersistentArray<>();
+        for (int i = 0; i < 3000; i++) {
+            array.add(i);
+        }
+
+        Path file = directory.resolve("array.checkpoint");
+        try (IncrementalCheckpointer<Integer> checkpointer = new IncrementalCheckpointer<>(file, ElementCodec.INTEGER)) {
+            CompletableFuture<Long> pending = checkpointer.checkpoint(array);
+            // Коллекция изменяется, пока зафиксированная версия записывается в фоне
+            for (int i = 0; i < 1000; i++) {
+                array.update(i, -i);
+                array.add(i);
+            }
+            pending.join();
+
+            PersistentArray<Integer> loaded = PersistentArray.load(file, ElementCodec.INTEGER);
+            assertEquals(3000, loaded.size());
+            for (int i = 0; i < 3000; i++) {
+                assertEquals(i, loaded.get(i));
+            }
+
+            checkpointer.checkpoint(array).join();
+            try (MappedPersistentArray<Integer> mapped = MappedPersistentArray.open(file, ElementCodec.INTEGER)) {
+                assertEquals(4000, mapped.size());
+                assertEquals(-999, mapped.get(999));
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package Collections;
+
+import Storage.ElementCodec;
+import Storage.Journal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Map.Entry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournaledCollectionTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoverFromJournal() throws IOException {
+        try (JournaledCollection<Integer> array = JournaledCollection.openArray(directory, ElementCodec.INTEGER,
+                Journal.Durability.PER_OPERATION)) {
+            array.add(1).add(2).add(3).update(0, 10);
+            array.undo().undo().redo();
+        }
+
+        // Снимка нет: состояние полностью восстанавливается из журнала
+        try (JournaledCollection<Integer> array = JournaledCollection.openArray(directory, ElementCodec.INTEGER,
+                Journal.Durability.PER_OPERATION)) {
+            assertEquals(3, array.size());
+            assertEquals(1, array.get(0));
+            assertEquals(3, array.get(2));
+
+            // Отменённое обновление осталось в истории redo
+            array.redo();
+            assertEquals(10, array.get(0));
+        }
+    }
+
+    @Test
+    void recoverFromSnapshotAndJournalTail() throws IOException {
+        try (JournaledCollection<Integer> array = JournaledCollection.openArray(directory, ElementCodec.INTEGER,
+                Journal.Durability.PER_BATCH)) {
+            for (int i = 0; i < 100; i++) {
+                array.add(i);
+            }
+            array.checkpoint();
+            array.add(100).add(101);
+            array.remove(101);
+        }
+        assertTrue(Files.exists(directory.resolve(JournaledCollection.SNAPSHOT_FILE)));
+
+        try (JournaledCollection<Integer> array = JournaledCollection.openArray(directory, ElementCodec.INTEGER,
+                Journal.Durability.PER_BATCH)) {
+            assertEquals(101, array.size());
+            assertEquals(100, array.get(100));
+
+            // История, записанная в снимок, сохраняет возможность отмены
+            array.undo().undo().undo();
+            assertEquals(100, array.size());
+        }
+    }
+
+    @Test
+    void tornRecordIsDiscarded() throws IOException {
+        try (JournaledCollection<Integer> array = JournaledCollection.openArray(directory, ElementCodec.INTEGER,
+                Journal.Durability.PER_OPERATION)) {
+            array.add(1).add(2);
+        }
+
+        // Имитируем запись, оборванную при аварийном завершении
+        Files.write(directory.resolve(JournaledCollection.JOURNAL_FILE), new byte[]{0, 0, 0, 42, 1, 2, 3},
+                StandardOpenOption.APPEND);
+
+        try (JournaledCollection<Integer> array = JournaledCollection.openArray(directory, ElementCodec.INTEGER,
+                Journal.Durability.PER_OPERATION)) {
+            assertEquals(2, array.size());
+            array.add(3);
+        }
+
+        try (JournaledCollection<Integer> array = JournaledCollection.openArray(directory, ElementCodec.INTEGER,
+                Journal.Durability.INTERVAL)) {
+            assertEquals(3, array.size());
+            assertEquals(3, array.get(2));
+        }
+    }
+
+    @Test
+    void hashMap() throws IOException {
+        try (JournaledCollection<Entry<String, Integer>> map = JournaledCollection.openHashMap(directory,
+                ElementCodec.STRING, ElementCodec.INTEGER, Journal.Durability.PER_OPERATION)) {
+            map.add(new AbstractMap.SimpleEntry<>("one", 1)).add(new AbstractMap.SimpleEntry<>("two", 2));
+            map.checkpoint();
+            map.add(new AbstractMap.SimpleEntry<>("three", 3));
+            map.remove(new AbstractMap.SimpleEntry<>("one", null));
+        }
+
+        try (JournaledCollection<Entry<String, Integer>> map = JournaledCollection.openHashMap(directory,
+                ElementCodec.STRING, ElementCodec.INTEGER, Journal.Durability.PER_OPERATION)) {
+            assertEquals(2, map.size());
+            assertNull(map.get("one"));
+            assertEquals(2, map.get("two").getValue());
+            assertEquals(3, map.get("three").getValue());
+        }
+    }
+}
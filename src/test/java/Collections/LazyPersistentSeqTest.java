@@ -0,0 +1,131 @@
+package Collections;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LazyPersistentSeqTest {
+    private PersistentArray<Integer> array;
+
+    @BeforeEach
+    void setUp() {
+        array = new PersistentArray<>();
+        for (int i = 0; i < 1_000; i++) {
+            array.add(i);
+        }
+    }
+
+    private static <T> List<T> toList(Iterable<T> seq) {
+        List<T> list = new ArrayList<>();
+        seq.forEach(list::add);
+        return list;
+    }
+
+    @Test
+    void composesWithoutEvaluating() {
+        AtomicInteger calls = new AtomicInteger();
+        LazyPersistentSeq<Integer> seq = array.lazy().map(value -> {
+            calls.incrementAndGet();
+            return value * 2;
+        }).filter(value -> value % 3 == 0);
+        assertEquals(0, calls.get());
+
+        // Частичный обход вычисляет только первую порцию
+        Iterator<Integer> iterator = seq.iterator();
+        assertEquals(0, iterator.next());
+        assertEquals(6, iterator.next());
+        assertEquals(32, calls.get());
+    }
+
+    @Test
+    void memoizesChunks() {
+        AtomicInteger calls = new AtomicInteger();
+        LazyPersistentSeq<Integer> seq = array.lazy().map(value -> {
+            calls.incrementAndGet();
+            return value + 1;
+        });
+        List<Integer> first = toList(seq);
+        List<Integer> second = toList(seq);
+        assertEquals(first, second);
+        assertEquals(1_000, first.size());
+        assertEquals(1_000, calls.get());
+    }
+
+    @Test
+    void pipelineResults() {
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            if (i % 7 == 0) {
+                expected.add(-i);
+            }
+        }
+        LazyPersistentSeq<Integer> seq = array.lazy().filter(value -> value % 7 == 0).map(value -> -value);
+        assertEquals(expected, toList(seq));
+        assertEquals(expected.subList(0, 50), toList(seq.take(50)));
+        assertEquals(List.of(), toList(seq.take(0)));
+        assertTrue(array.lazy().filter(value -> value < 0).isEmpty());
+        assertTrue(new PersistentArray<Integer>().lazy().isEmpty());
+        assertFalse(seq.isEmpty());
+    }
+
+    @Test
+    void sourceVersionIsFixed() {
+        LazyPersistentSeq<Integer> seq = array.lazy();
+        array.update(5, -5).add(1_000);
+        List<Integer> values = toList(seq);
+        assertEquals(1_000, values.size());
+        assertEquals(5, values.get(5));
+    }
+
+    @Test
+    void forcesIntoPersistentArray() {
+        PersistentArray<Integer> forced = array.lazy().map(value -> value * 10).take(900).toPersistentArray();
+        assertEquals(900, forced.size());
+        for (int i = 0; i < 900; i++) {
+            assertEquals(i * 10, forced.get(i));
+        }
+        // Построенный массив изменяется как обычный
+        forced.add(-1).update(0, 7);
+        assertEquals(901, forced.size());
+        assertEquals(-1, forced.get(900));
+        assertEquals(7, forced.get(0));
+        forced.undo().undo();
+        assertEquals(0, forced.get(0));
+        assertEquals(900, forced.size());
+
+        assertEquals(array, array.lazy().toPersistentArray());
+        assertEquals(0, LazyPersistentSeq.<Integer>empty().toPersistentArray().size());
+        assertEquals(6, PersistentArray.<Integer>withBranching(6).lazy().toPersistentArray().getBranchingBits());
+    }
+
+    @Test
+    void concurrentConsumersEvaluateOnce() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        LazyPersistentSeq<Integer> seq = array.lazy().map(value -> {
+            calls.incrementAndGet();
+            return value;
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Integer>>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> toList(seq)));
+            }
+            for (Future<List<Integer>> future : futures) {
+                assertEquals(1_000, future.get().size());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1_000, calls.get());
+    }
+}
@@ -0,0 +1,71 @@
+package Collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LookupCacheTest {
+    @Test
+    void hitsMissesAndAbsentResults() {
+        LookupCache<String> cache = new LookupCache<>(64);
+        AtomicInteger lookups = new AtomicInteger();
+        assertEquals("a", cache.get(1, "key", () -> {
+            lookups.incrementAndGet();
+            return "a";
+        }));
+        assertEquals("a", cache.get(1, "key", () -> "other"));
+        // Другая версия — другая запись
+        assertEquals("b", cache.get(2, "key", () -> "b"));
+        assertNull(cache.get(3, "key", () -> null));
+        assertNull(cache.get(3, "key", () -> "other"));
+
+        assertEquals(1, lookups.get());
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(3, cache.getSize());
+        assertEquals(0.4, cache.getHitRate(), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> new LookupCache<>(0));
+    }
+
+    @Test
+    void clockEvictionKeepsReferencedEntries() {
+        LookupCache<Integer> cache = new LookupCache<>(512);
+        assertEquals(512, cache.getCapacity());
+        for (int hot = 0; hot < 10; hot++) {
+            int value = hot;
+            cache.get(0, hot, () -> value);
+        }
+        // Часто запрашиваемые записи получают отметку обращения и не вытесняются потоком однократных
+        for (int i = 0; i < 5_000; i++) {
+            int key = 1_000 + i;
+            cache.get(0, key, () -> key);
+            for (int hot = 0; hot < 10; hot++) {
+                assertEquals(hot, cache.get(0, hot, () -> -1));
+            }
+        }
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.getSize() <= 512);
+    }
+
+    @Test
+    void invalidate() {
+        LookupCache<Integer> cache = new LookupCache<>(32);
+        for (int i = 0; i < 10; i++) {
+            int value = i;
+            cache.get(1, i, () -> value);
+            cache.get(2, i, () -> value);
+        }
+        cache.invalidate(Set.of(1L));
+        assertEquals(10, cache.getSize());
+        assertEquals(-1, cache.get(1, 5, () -> -1));
+        assertEquals(5, cache.get(2, 5, () -> -1));
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            cache.get(3, i, () -> value);
+        }
+        assertTrue(cache.getSize() <= 32);
+    }
+}
@@ -0,0 +1,104 @@
+package Collections;
+
+import Storage.ElementCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedPersistentArrayTest {
+    @TempDir
+    Path directory;
+
+    private Path save(PersistentArray<String> array) throws IOException {
+        Path snapshot = directory.resolve("array.snapshot");
+        array.save(snapshot, ElementCodec.STRING);
+        return snapshot;
+    }
+
+    @Test
+    void get() throws IOException {
+        PersistentArray<String> array = new PersistentArray<>();
+        for (int i = 0; i < 2000; i++) {
+            array.add("value" + i);
+        }
+
+        try (MappedPersistentArray<String> mapped = MappedPersistentArray.open(save(array), ElementCodec.STRING)) {
+            assertEquals(2000, mapped.size());
+            // Доступ по индексу на всех уровнях дерева
+            assertEquals("value0", mapped.get(0));
+            assertEquals("value31", mapped.get(31));
+            assertEquals("value1024", mapped.get(1024));
+            assertEquals("value1999", mapped.get(1999));
+            assertTrue(mapped.contains("value42"));
+            assertFalse(mapped.contains("value2000"));
+
+            assertThrows(IndexOutOfBoundsException.class, () -> mapped.get(2000));
+        }
+    }
+
+    @Test
+    void undoAndRedo() throws IOException {
+        PersistentArray<String> array = new PersistentArray<>();
+        array.add("one").add("two").add("three");
+        array.update(0, "zero");
+        array.undo().undo();
+
+        try (MappedPersistentArray<String> mapped = MappedPersistentArray.open(save(array), ElementCodec.STRING)) {
+            assertEquals(2, mapped.size());
+
+            mapped.redo();
+            assertEquals(3, mapped.size());
+            assertEquals("one", mapped.get(0));
+
+            mapped.redo();
+            assertEquals("zero", mapped.get(0));
+
+            // Повтор при отсутствии отменённых версий ничего не меняет
+            mapped.redo();
+            assertEquals("zero", mapped.get(0));
+
+            mapped.undo().undo().undo();
+            assertEquals(1, mapped.size());
+        }
+    }
+
+    @Test
+    void readOnly() throws IOException {
+        PersistentArray<String> array = new PersistentArray<>();
+        array.add("one");
+
+        try (MappedPersistentArray<String> mapped = MappedPersistentArray.open(save(array), ElementCodec.STRING)) {
+            assertThrows(UnsupportedOperationException.class, () -> mapped.add("two"));
+            assertThrows(UnsupportedOperationException.class, () -> mapped.update(0, "two"));
+            assertThrows(UnsupportedOperationException.class, () -> mapped.remove("one"));
+
+            PersistentArray<String> copy = mapped.toPersistentArray();
+            assertEquals("one", copy.get(0));
+            assertEquals(1, copy.size());
+        }
+    }
+
+    @Test
+    void toPersistentArrayKeepsSingleVersion() throws IOException {
+        PersistentArray<String> array = PersistentArray.withBranching(4);
+        for (int i = 0; i < 100; i++) {
+            array.add("value" + i);
+        }
+
+        try (MappedPersistentArray<String> mapped = MappedPersistentArray.open(save(array), ElementCodec.STRING)) {
+            PersistentArray<String> copy = mapped.toPersistentArray();
+            assertEquals(1, copy.versionCount());
+            assertEquals(4, copy.getBranchingBits());
+            assertEquals(array, copy);
+            copy.add("value100");
+            assertEquals(2, copy.versionCount());
+            copy.undo();
+            assertEquals(100, copy.size());
+            assertEquals("value99", copy.get(99));
+        }
+    }
+}
@@ -1,8 +1,23 @@
 package Collections;
 
 import API.PersistentCollection;
+import Help.BitTree;
+import Storage.ElementCodec;
+import Metrics.MemoryFootprint;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -59,6 +74,21 @@ class PersistentArrayTest {
         assertEquals(0, persistentArray.size());
     }
 
+    @Test
+    void removeKeepsPreviousVersion() {
+        // Удаление в многоуровневом дереве не должно изменять узлы предыдущей версии
+        for (int i = 0; i < 100; i++) {
+            persistentArray.add(i);
+        }
+        persistentArray.remove(99);
+        assertEquals(99, persistentArray.size());
+        assertFalse(persistentArray.contains(99));
+
+        persistentArray.undo();
+        assertEquals(100, persistentArray.size());
+        assertEquals(99, persistentArray.get(99));
+    }
+
     @Test
     void undo() {
         // Добавление элемента, отмена операции и проверка
@@ -145,4 +175,423 @@ class PersistentArrayTest {
         assertFalse(undo2.contains(4));
         assertFalse(undo2.contains(5));
     }
-}
\ No newline at end of file
+
+    @Test
+    void saveAndLoad(@TempDir Path directory) throws IOException {
+        // Заполняем коллекцию так, чтобы дерево стало многоуровневым
+        for (int i = 0; i < 100; i++) {
+            persistentArray.add(i);
+        }
+        persistentArray.update(50, 500);
+        persistentArray.undo();
+
+        Path snapshot = directory.resolve("array.snapshot");
+        persistentArray.save(snapshot, ElementCodec.INTEGER);
+
+        // Общие узлы 100 версий записываются один раз, поэтому снимок значительно меньше полной копии каждой версии
+        assertTrue(Files.size(snapshot) < 100 * 100 * Long.BYTES);
+
+        PersistentArray<Integer> loaded = PersistentArray.load(snapshot, ElementCodec.INTEGER);
+        assertEquals(100, loaded.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, loaded.get(i));
+        }
+
+        // История версий восстановлена вместе с коллекцией
+        loaded.redo();
+        assertEquals(500, loaded.get(50));
+        loaded.undo().undo();
+        assertEquals(99, loaded.size());
+        assertFalse(loaded.contains(99));
+    }
+
+    @Test
+    void memoryFootprint() {
+        for (int i = 0; i < 1000; i++) {
+            persistentArray.add(i);
+        }
+        MemoryFootprint before = persistentArray.memoryFootprint();
+        assertEquals(1001, before.getVersions());
+
+        persistentArray.update(500, -1);
+        MemoryFootprint after = persistentArray.memoryFootprint();
+
+        // Изменение копирует только путь от корня до листа, остальное дерево общее с предыдущей версией
+        assertTrue(after.getUniqueBytes() > 0);
+        assertTrue(after.getUniqueBytes() < after.getVersionBytes() / 10);
+        assertEquals(after.getVersionBytes(), after.getUniqueBytes() + after.getSharedBytes());
+        assertEquals(before.getHistoryBytes() + after.getUniqueBytes(), after.getHistoryBytes());
+        assertTrue(after.getHistoryBytes() < 1001L * after.getVersionBytes());
+
+        // Фокус чтения и его путь удерживаются версией и учитываются в её размере
+        persistentArray.get(700);
+        MemoryFootprint focused = persistentArray.memoryFootprint();
+        assertTrue(focused.getVersionBytes() > after.getVersionBytes());
+        assertEquals(after.getHistoryBytes() + focused.getVersionBytes() - after.getVersionBytes(),
+                focused.getHistoryBytes());
+    }
+
+    @Test
+    void diff() {
+        for (int i = 0; i < 2_000; i++) {
+            persistentArray.add(i);
+        }
+        // Версия 0 — пустой массив, версия n — массив после n добавлений
+        assertEquals(2_000, persistentArray.currentVersionIndex());
+        assertEquals(2_000, persistentArray.diff(0, 2_000).size());
+        assertTrue(persistentArray.diff(0, 2_000).stream().allMatch(change -> change.getType() == Change.Type.ADDED));
+
+        List<Change<Integer, Integer>> tail = persistentArray.diff(1_500, 2_000);
+        assertEquals(500, tail.size());
+        assertEquals(Change.added(1_500, 1_500), tail.get(0));
+        assertEquals(Change.added(1_999, 1_999), tail.get(499));
+        assertEquals(Change.removed(1_999, 1_999), persistentArray.diff(2_000, 1_999).get(0));
+
+        persistentArray.update(5, -5);
+        persistentArray.update(1_700, -1);
+        // Запись того же значения изменением не считается
+        persistentArray.update(10, 10);
+        assertEquals(List.of(Change.changed(5, 5, -5), Change.changed(1_700, 1_700, -1)),
+                persistentArray.diff(2_000, 2_003));
+        assertEquals(List.of(Change.changed(5, -5, 5), Change.changed(1_700, -1, 1_700)),
+                persistentArray.diff(2_003, 2_000));
+
+        // Отменённые версии остаются доступными
+        persistentArray.undo().undo();
+        assertEquals(2_004, persistentArray.versionCount());
+        assertEquals(List.of(Change.changed(1_700, 1_700, -1)), persistentArray.diff(2_001, 2_002));
+        assertThrows(IndexOutOfBoundsException.class, () -> persistentArray.diff(0, 2_004));
+    }
+
+    @Test
+    void diffAcrossDepthGrowth() {
+        for (int i = 0; i < 20; i++) {
+            persistentArray.add(i);
+        }
+        persistentArray.update(3, 42);
+        for (int i = 20; i < 40; i++) {
+            persistentArray.add(i);
+        }
+        List<Change<Integer, Integer>> changes = persistentArray.diff(20, 41);
+        assertEquals(21, changes.size());
+        assertEquals(Change.changed(3, 3, 42), changes.get(0));
+        assertEquals(Change.added(39, 39), changes.get(20));
+    }
+
+    @Test
+    void diffOfDeepTree() {
+        // 5 бит на уровень и глубина 7: вместимость дерева превышает int
+        BitTree<Integer> from = new BitTree<>(7, 5);
+        for (int i = 0; i < 20; i++) {
+            from.add(i);
+        }
+        BitTree<Integer> to = new BitTree<>(from);
+        to.update(12, -12);
+        List<Integer> changed = new ArrayList<>();
+        BitTree.diff(from, to, (index, hadOld, oldValue, hasNew, newValue) -> changed.add(index));
+        assertEquals(List.of(12), changed);
+    }
+
+    @Test
+    void equalsAndHashCode() {
+        List<Integer> expected = new ArrayList<>();
+        PersistentArray<Integer> other = new PersistentArray<>();
+        for (int i = 0; i < 3_000; i++) {
+            persistentArray.add(i);
+            other.add(i);
+            expected.add(i);
+        }
+        assertEquals(expected.hashCode(), persistentArray.hashCode());
+        assertEquals(other, persistentArray);
+        assertEquals(other.hashCode(), persistentArray.hashCode());
+
+        // Хеш-код новой версии учитывает изменение, несмотря на кеш в общих узлах
+        persistentArray.update(1_234, -1);
+        expected.set(1_234, -1);
+        assertEquals(expected.hashCode(), persistentArray.hashCode());
+        assertNotEquals(other, persistentArray);
+
+        persistentArray.update(1_234, 1_234);
+        assertEquals(other, persistentArray);
+        persistentArray.undo();
+        assertNotEquals(other, persistentArray);
+        persistentArray.undo();
+        assertEquals(other, persistentArray);
+        assertNotEquals(other, persistentArray.add(3_000));
+    }
+
+    @Test
+    void branchingFactors(@TempDir Path directory) throws IOException {
+        for (int bits = 4; bits <= 6; bits++) {
+            PersistentArray<Integer> array = PersistentArray.withBranching(bits);
+            PersistentArray<Integer> reference = new PersistentArray<>();
+            for (int i = 0; i < 5_000; i++) {
+                array.add(i);
+                reference.add(i);
+            }
+            assertEquals(bits, array.getBranchingBits());
+            array.update(4_321, -1);
+            array.remove(4_999);
+            assertEquals(4_999, array.size());
+            assertEquals(-1, array.get(4_321));
+            array.undo().undo();
+            assertEquals(5_000, array.size());
+            assertEquals(4_321, array.get(4_321));
+
+            // Массивы с разной шириной узла сравниваются и хешируются по элементам
+            assertEquals(reference, array);
+            assertEquals(reference.hashCode(), array.hashCode());
+            assertEquals(List.of(Change.changed(4_321, 4_321, -1)), array.diff(5_000, 5_001));
+
+            Path snapshot = directory.resolve("array-" + bits + ".snapshot");
+            array.save(snapshot, ElementCodec.INTEGER);
+            PersistentArray<Integer> loaded = PersistentArray.load(snapshot, ElementCodec.INTEGER);
+            assertEquals(bits, loaded.getBranchingBits());
+            assertEquals(reference, loaded);
+        }
+        assertThrows(IllegalArgumentException.class, () -> PersistentArray.withBranching(7));
+        assertThrows(IllegalArgumentException.class, () -> PersistentArray.withBranching(3));
+    }
+
+    @Test
+    void tunedBranching() {
+        assertEquals(BitTree.DEFAULT_BITS, new PersistentArray<>().getBranchingBits());
+        // Для чтения — наименьшая глубина, при равной глубине — более широкий узел
+        assertEquals(6, BitTree.tuneBits(16, BitTree.Workload.READ_HEAVY));
+        assertEquals(6, BitTree.tuneBits(1_000_000, BitTree.Workload.READ_HEAVY));
+        // Для записи — наименьшая стоимость копирования пути
+        assertEquals(4, BitTree.tuneBits(16, BitTree.Workload.WRITE_HEAVY));
+        assertEquals(5, BitTree.tuneBits(1_000, BitTree.Workload.WRITE_HEAVY));
+        assertEquals(4, BitTree.tuneBits(4_096, BitTree.Workload.WRITE_HEAVY));
+        assertEquals(5, BitTree.tuneBits(300_000, BitTree.Workload.WRITE_HEAVY));
+
+        PersistentArray<Integer> array = PersistentArray.tuned(4_000, BitTree.Workload.READ_HEAVY);
+        assertEquals(6, array.getBranchingBits());
+        for (int i = 0; i < 4_000; i++) {
+            array.add(i);
+        }
+        assertEquals(3_999, array.get(3_999));
+    }
+
+    @Test
+    void depthForSize() {
+        assertEquals(1, BitTree.depthFor(0, 5));
+        assertEquals(1, BitTree.depthFor(32, 5));
+        assertEquals(2, BitTree.depthFor(33, 5));
+        assertEquals(2, BitTree.depthFor(1_024, 5));
+        assertEquals(3, BitTree.depthFor(1_025, 5));
+        assertEquals(2, BitTree.depthFor(256, 4));
+        assertEquals(2, BitTree.depthFor(4_096, 6));
+        assertEquals(2, new BitTree<Integer>(1_000).getDepth());
+    }
+
+    @Test
+    void focusFollowsAccessPattern() {
+        for (int i = 0; i < 40_000; i++) {
+            persistentArray.add(i);
+        }
+        for (int i = 0; i < 40_000; i++) {
+            assertEquals(i, persistentArray.get(i));
+        }
+        for (int i = 39_999; i >= 0; i -= 7) {
+            assertEquals(i, persistentArray.get(i));
+        }
+        Random random = new Random(41);
+        for (int i = 0; i < 10_000; i++) {
+            int index = random.nextInt(40_000);
+            assertEquals(index, persistentArray.get(index));
+        }
+
+        // Фокус не переживает изменение: новая версия читает новые листья, старая — свои
+        persistentArray.get(1_000);
+        persistentArray.update(1_001, -1);
+        assertEquals(-1, persistentArray.get(1_001));
+        assertEquals(1_000, persistentArray.get(1_000));
+        persistentArray.remove(39_999);
+        assertThrows(IndexOutOfBoundsException.class, () -> persistentArray.get(39_999));
+        persistentArray.undo().undo();
+        assertEquals(1_001, persistentArray.get(1_001));
+        assertEquals(39_999, persistentArray.get(39_999));
+    }
+
+    @Test
+    void cursor() {
+        for (int i = 0; i < 40_000; i++) {
+            persistentArray.add(i);
+        }
+        int expected = 0;
+        for (int value : persistentArray) {
+            assertEquals(expected++, value);
+        }
+        assertEquals(40_000, expected);
+
+        BitTree.Cursor<Integer> cursor = persistentArray.cursor(39_990);
+        persistentArray.update(39_995, -1);
+        // Курсор видит версию, для которой создан
+        for (int i = 39_990; i < 40_000; i++) {
+            assertEquals(i, cursor.next());
+        }
+        assertFalse(cursor.hasNext());
+        assertThrows(NoSuchElementException.class, cursor::next);
+        assertEquals(7, cursor.get(7));
+        assertEquals(31_000, cursor.moveTo(31_000).next());
+        assertEquals(31_001, cursor.nextIndex());
+        assertThrows(IndexOutOfBoundsException.class, () -> cursor.get(40_000));
+        assertEquals(-1, persistentArray.cursor(39_995).next());
+    }
+
+    @Test
+    void concurrentReadsOfOneVersion() throws Exception {
+        for (int i = 0; i < 20_000; i++) {
+            persistentArray.add(i);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int offset = t * 5_000;
+                futures.add(executor.submit(() -> {
+                    for (int round = 0; round < 20; round++) {
+                        for (int i = 0; i < 20_000; i++) {
+                            int index = (offset + i) % 20_000;
+                            assertEquals(index, persistentArray.get(index));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void compactHistory() throws Exception {
+        for (int i = 0; i < 4_096; i++) {
+            persistentArray.add(i % 64 < 48 ? 7 : i);
+        }
+        for (int i = 0; i < 500; i++) {
+            persistentArray.update(i * 8, -i);
+        }
+        int versions = persistentArray.versionCount();
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int v = versions - 1; v >= 0; v--) {
+            List<Integer> elements = new ArrayList<>();
+            persistentArray.forEach(elements::add);
+            expected.add(0, elements);
+            persistentArray.undo();
+        }
+        for (int v = 0; v < versions; v++) {
+            persistentArray.redo();
+        }
+        MemoryFootprint before = persistentArray.memoryFootprint();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(persistentArray.compactHistoryAsync(10, executor).get() > 0);
+        } finally {
+            executor.shutdown();
+        }
+        MemoryFootprint after = persistentArray.memoryFootprint();
+        assertEquals(before.getVersionBytes(), after.getVersionBytes());
+        assertTrue(after.getHistoryBytes() < before.getHistoryBytes());
+        assertEquals(0, persistentArray.compactHistory(10));
+
+        // Сжатые версии читаются и изменяются как обычные
+        for (int v = versions - 1; v >= 0; v--) {
+            List<Integer> elements = new ArrayList<>();
+            persistentArray.forEach(elements::add);
+            assertEquals(expected.get(v), elements);
+            persistentArray.undo();
+        }
+        for (int v = 0; v <= 2_000; v++) {
+            persistentArray.redo();
+        }
+        persistentArray.update(1, 100);
+        assertEquals(100, persistentArray.get(1));
+        assertEquals(7, persistentArray.get(0));
+        persistentArray.undo();
+        List<Integer> restored = new ArrayList<>();
+        persistentArray.forEach(restored::add);
+        assertEquals(expected.get(2_000), restored);
+        assertThrows(IllegalArgumentException.class, () -> persistentArray.compactHistory(0));
+    }
+
+    @Test
+    void compactHistoryKeepsIdentity() {
+        // Элемент 5 равен остальным, но это другой объект: сжатие должно вернуть именно его
+        PersistentArray<List<Integer>> lists = new PersistentArray<>();
+        List<Integer> shared = new ArrayList<>();
+        List<List<Integer>> stored = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            List<Integer> list = i == 5 ? new ArrayList<>() : shared;
+            stored.add(list);
+            lists.add(list);
+        }
+        PersistentArray<Integer> numbers = new PersistentArray<>();
+        // Числа вне кеша обёрток: first и equal равны, но различны
+        Integer first = 1_000;
+        Integer equal = 1_000;
+        Integer other = 2_000;
+        Integer[] boxed = new Integer[20];
+        for (int i = 0; i < boxed.length; i++) {
+            boxed[i] = i == 5 ? equal : i < 10 ? first : other;
+            numbers.add(boxed[i]);
+        }
+        for (int i = 0; i < 3; i++) {
+            lists.add(new ArrayList<>());
+            numbers.add(100 + i);
+        }
+        assertTrue(lists.compactHistory(1) > 0);
+        assertTrue(numbers.compactHistory(1) > 0);
+        for (int i = 0; i < 3; i++) {
+            lists.undo();
+            numbers.undo();
+        }
+        for (int i = 0; i < stored.size(); i++) {
+            assertSame(stored.get(i), lists.get(i));
+            assertSame(boxed[i], numbers.get(i));
+        }
+        stored.get(5).add(5);
+        assertEquals(List.of(5), lists.get(5));
+        assertEquals(List.of(), lists.get(0));
+    }
+
+    @Test
+    void tieredHistory() {
+        persistentArray.tieredHistory(8, 16);
+        for (int i = 0; i < 300; i++) {
+            persistentArray.add(i);
+        }
+        for (int i = 0; i < 100; i++) {
+            persistentArray.update(i, -i);
+        }
+        persistentArray.remove(299);
+        int versions = persistentArray.versionCount();
+        List<Change<Integer, Integer>> changes = persistentArray.diff(150, versions - 1);
+        MemoryFootprint before = persistentArray.memoryFootprint();
+
+        assertTrue(persistentArray.releaseHistory() > 0);
+        assertEquals(0, persistentArray.releaseHistory());
+        assertTrue(persistentArray.memoryFootprint().getHistoryBytes() < before.getHistoryBytes());
+
+        // Освобождённые версии восстанавливаются при обращении
+        assertEquals(changes, persistentArray.diff(150, versions - 1));
+        for (int v = versions - 1; v > 0; v--) {
+            // Версии 1..300 добавляют элементы, 301..400 обновляют первые сто, последняя удаляет 299
+            int size = v <= 300 ? v : v == versions - 1 ? 299 : 300;
+            int last = size - 1;
+            assertEquals(size, persistentArray.size());
+            assertEquals(v > 300 && last < v - 300 ? -last : last, persistentArray.get(last));
+            persistentArray.undo();
+        }
+        for (int v = 1; v < versions; v++) {
+            persistentArray.redo();
+        }
+        assertEquals(-99, persistentArray.get(99));
+        assertEquals(100, persistentArray.get(100));
+        assertThrows(IllegalArgumentException.class, () -> persistentArray.tieredHistory(0, 16));
+    }
+}
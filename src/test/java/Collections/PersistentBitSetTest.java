@@ -0,0 +1,145 @@
+package Collections;
+
+import Metrics.MemoryFootprint;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentBitSetTest {
+    private PersistentBitSet bits;
+
+    @BeforeEach
+    void setUp() {
+        bits = new PersistentBitSet();
+    }
+
+    @Test
+    void setClearAndGet() {
+        bits.set(0).set(63).set(64).set(5_000_000).set(Integer.MAX_VALUE);
+        assertTrue(bits.get(0));
+        assertTrue(bits.get(63));
+        assertTrue(bits.get(64));
+        assertFalse(bits.get(65));
+        assertTrue(bits.get(5_000_000));
+        assertTrue(bits.get(Integer.MAX_VALUE));
+        assertEquals(5, bits.cardinality());
+        bits.clear(63).clear(1_000);
+        assertFalse(bits.get(63));
+        assertEquals(4, bits.size());
+        assertTrue(bits.contains(64));
+        assertEquals(64, bits.get((Object) 64));
+        assertNull(bits.get((Object) 63));
+        assertNull(bits.remove(63));
+        assertSame(bits, bits.remove(64));
+        assertFalse(bits.contains(64));
+        // Удаление сброшенного бита не создаёт версию
+        bits.undo();
+        assertTrue(bits.get(64));
+        bits.undo();
+        assertTrue(bits.get(63));
+        bits.redo().redo();
+        assertThrows(IndexOutOfBoundsException.class, () -> bits.set(-1));
+        assertThrows(UnsupportedOperationException.class, () -> bits.update(0, 1));
+    }
+
+    @Test
+    void matchesBitSet() {
+        BitSet expected = new BitSet();
+        Random random = new Random(44);
+        for (int i = 0; i < 20_000; i++) {
+            int index = random.nextInt(200_000);
+            boolean value = random.nextInt(3) != 0;
+            expected.set(index, value);
+            bits.set(index, value);
+        }
+        assertEquals(expected.cardinality(), bits.cardinality());
+        List<Integer> indices = new ArrayList<>();
+        bits.forEach(indices::add);
+        assertEquals(expected.stream().boxed().toList(), indices);
+        assertEquals(expected.nextSetBit(100_000), bits.nextSetBit(100_000));
+        assertEquals(-1, bits.nextSetBit(200_000));
+        assertEquals(new TreeSet<>(indices).hashCode(), bits.hashCode());
+    }
+
+    @Test
+    void undoAndRedo() {
+        bits.set(1).set(2);
+        // Установка уже установленного бита не создаёт версию
+        bits.set(2);
+        bits.undo();
+        assertFalse(bits.get(2));
+        assertTrue(bits.get(1));
+        bits.undo().undo();
+        assertEquals(0, bits.cardinality());
+        bits.redo().redo();
+        assertEquals(2, bits.cardinality());
+    }
+
+    @Test
+    void setOperations() {
+        Random random = new Random(440);
+        BitSet first = new BitSet();
+        BitSet second = new BitSet();
+        PersistentBitSet a = new PersistentBitSet();
+        for (int i = 0; i < 5_000; i++) {
+            int index = random.nextInt(100_000);
+            first.set(index);
+            a.set(index);
+        }
+        PersistentBitSet b = a.copy();
+        second.or(first);
+        for (int i = 0; i < 500; i++) {
+            int index = random.nextInt(300_000);
+            second.flip(index);
+            b.set(index, second.get(index));
+        }
+
+        BitSet expected = (BitSet) first.clone();
+        expected.and(second);
+        assertEquals(expected.stream().boxed().toList(), toList(a.copy().and(b)));
+        expected = (BitSet) first.clone();
+        expected.or(second);
+        assertEquals(expected.stream().boxed().toList(), toList(a.copy().or(b)));
+        expected = (BitSet) first.clone();
+        expected.xor(second);
+        assertEquals(expected.stream().boxed().toList(), toList(a.copy().xor(b)));
+        expected = (BitSet) first.clone();
+        expected.andNot(second);
+        assertEquals(expected.stream().boxed().toList(), toList(a.copy().andNot(b)));
+
+        assertEquals(0, a.copy().xor(a).cardinality());
+        assertEquals(a, a.copy().or(a));
+        assertNotEquals(a, b);
+        assertEquals(a, b.copy().xor(b).or(a));
+        assertEquals(Set.copyOf(toList(a)).hashCode(), a.hashCode());
+    }
+
+    private static List<Integer> toList(PersistentBitSet bits) {
+        List<Integer> list = new ArrayList<>();
+        bits.forEach(list::add);
+        return list;
+    }
+
+    @Test
+    void aboutOneBitPerFlag() {
+        for (int i = 0; i < 1 << 17; i++) {
+            bits.set(i);
+        }
+        MemoryFootprint footprint = bits.memoryFootprint();
+        assertTrue(footprint.getVersionBytes() * 8 < 1.25 * (1 << 17), "bytes: " + footprint.getVersionBytes());
+
+        // Изменение копирует только путь до листа
+        bits.clear(12_345);
+        footprint = bits.memoryFootprint();
+        assertTrue(footprint.getUniqueBytes() < 1_000, "unique: " + footprint.getUniqueBytes());
+        assertEquals((1 << 17) - 1, bits.cardinality());
+    }
+}
@@ -1,10 +1,24 @@
 package Collections;
 
+import Metrics.CollectionMetrics;
+import Metrics.MemoryFootprint;
+import Storage.ElementCodec;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class PersistentHashMapTest {
     private PersistentHashMap<String, Integer> hashMap;
@@ -126,4 +140,522 @@ class PersistentHashMapTest {
         assertFalse(hashMap.contains(3,0));
         assertFalse(hashMap.contains(4,0));
     }
-}
\ No newline at end of file
+
+    @Test
+    void saveAndLoad(@TempDir Path directory) throws IOException {
+        hashMap.add("one", 1).add("two", 2).add("three", 3).delete("two");
+
+        Path snapshot = directory.resolve("map.snapshot");
+        hashMap.save(snapshot, ElementCodec.STRING, ElementCodec.INTEGER);
+
+        PersistentHashMap<String, Integer> loaded = PersistentHashMap.load(snapshot,
+                ElementCodec.STRING, ElementCodec.INTEGER);
+        assertEquals(2, loaded.size());
+        assertTrue(loaded.contains("one", 1));
+        assertTrue(loaded.contains("three", 3));
+        assertFalse(loaded.contains("two", 2));
+        assertEquals(3, loaded.get("three").getValue());
+
+        // История версий восстановлена вместе с коллекцией
+        loaded.undo();
+        assertTrue(loaded.contains("three", 3));
+        loaded.undo();
+        assertFalse(loaded.contains("three", 3));
+        assertTrue(loaded.contains("one", 1));
+    }
+
+    @Test
+    void memoryFootprint() {
+        PersistentHashMap<String, Integer> map = new PersistentHashMap<>();
+        MemoryFootprint empty = map.memoryFootprint();
+        for (int i = 0; i < 100; i++) {
+            map.add("key" + i, i);
+        }
+        MemoryFootprint filled = map.memoryFootprint();
+        assertTrue(filled.getVersionBytes() > empty.getVersionBytes());
+        assertTrue(filled.getHistoryBytes() >= filled.getVersionBytes());
+    }
+
+    @Test
+    void growsWithLoadFactor() {
+        PersistentHashMap<Integer, Integer> map = new PersistentHashMap<>();
+        assertEquals(PersistentHashMap.INITIAL_CAPACITY, map.capacity());
+        for (int i = 0; i < 10_000; i++) {
+            map.add(i, i * 2);
+        }
+        assertEquals(10_000, map.size());
+        assertTrue(map.size() <= PersistentHashMap.LOAD_FACTOR * map.capacity());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i * 2, map.get(i).getValue());
+        }
+        assertNull(map.get(10_000));
+    }
+
+    @Test
+    void undoAcrossResize() {
+        PersistentHashMap<Integer, Integer> map = new PersistentHashMap<>();
+        for (int i = 0; i < 12; i++) {
+            map.add(i, i);
+        }
+        int capacity = map.capacity();
+
+        // Добавления, приводящие к разделению корзин
+        for (int i = 12; i < 100; i++) {
+            map.add(i, i);
+        }
+        map.delete(5);
+        assertTrue(map.capacity() > capacity);
+
+        for (int i = 12; i <= 100; i++) {
+            map.undo();
+        }
+        assertEquals(capacity, map.capacity());
+        assertEquals(12, map.size());
+        for (int i = 0; i < 12; i++) {
+            assertTrue(map.contains(i, i));
+        }
+        assertNull(map.get(50));
+
+        for (int i = 12; i <= 100; i++) {
+            map.redo();
+        }
+        assertEquals(99, map.size());
+        assertNull(map.get(5));
+        assertEquals(50, map.get(50).getValue());
+    }
+
+    @Test
+    void undoDelete() {
+        hashMap.add("one", 1).add("two", 2).delete("one");
+        assertNull(hashMap.get("one"));
+        hashMap.undo();
+        assertEquals(1, hashMap.get("one").getValue());
+        assertEquals(2, hashMap.size());
+    }
+
+    @Test
+    void extremeHashCodes() {
+        PersistentHashMap<Object, Integer> map = new PersistentHashMap<>();
+        Object min = new Object() {
+            @Override
+            public int hashCode() {
+                return Integer.MIN_VALUE;
+            }
+        };
+        map.add(min, 1).add(null, 2).add(-1, 3);
+        assertEquals(1, map.get(min).getValue());
+        assertEquals(2, map.get(null).getValue());
+        assertEquals(3, map.get(-1).getValue());
+    }
+
+    /**
+     * Ключ с одинаковым для всех экземпляров хеш-кодом.
+     */
+    private record CollidingKey(int id) implements Comparable<CollidingKey> {
+        @Override
+        public int hashCode() {
+            return 42;
+        }
+
+        @Override
+        public int compareTo(CollidingKey other) {
+            return Integer.compare(id, other.id);
+        }
+    }
+
+    private static final class UncomparableKey {
+        private final int id;
+
+        private UncomparableKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof UncomparableKey key && key.id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 42;
+        }
+    }
+
+    @Test
+    void treeifiedCollisions() {
+        PersistentHashMap<CollidingKey, Integer> map = new PersistentHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            map.add(new CollidingKey(i), i);
+        }
+        CollectionMetrics.enable();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i, map.get(new CollidingKey(i)).getValue());
+            }
+            // Корзина стала деревом, поэтому поиск просматривает O(log n) узлов, а не всю цепочку
+            assertTrue(CollectionMetrics.get(CollectionMetrics.Kind.HASH_MAP, CollectionMetrics.Operation.GET)
+                    .getChainLength().getMax() < 16);
+        } finally {
+            CollectionMetrics.disable();
+            CollectionMetrics.reset();
+        }
+
+        for (int i = 0; i < 1000; i += 2) {
+            map.delete(new CollidingKey(i));
+        }
+        assertEquals(500, map.size());
+        assertNull(map.get(new CollidingKey(0)));
+        assertEquals(1, map.get(new CollidingKey(1)).getValue());
+
+        // Удаление почти всех записей снова превращает дерево в цепочку
+        for (int i = 1; i < 995; i += 2) {
+            map.delete(new CollidingKey(i));
+        }
+        assertEquals(3, map.size());
+        assertEquals(995, map.get(new CollidingKey(995)).getValue());
+
+        map.undo();
+        assertEquals(4, map.size());
+        assertEquals(993, map.get(new CollidingKey(993)).getValue());
+    }
+
+    @Test
+    void treeifiedUncomparableCollisions() {
+        PersistentHashMap<UncomparableKey, Integer> map = new PersistentHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.add(new UncomparableKey(i), i);
+        }
+        map.add(new UncomparableKey(50), -50);
+        assertEquals(100, map.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i == 50 ? -50 : i, map.get(new UncomparableKey(i)).getValue());
+        }
+        for (int i = 0; i < 100; i += 3) {
+            map.delete(new UncomparableKey(i));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 3 != 0, map.get(new UncomparableKey(i)) != null);
+        }
+    }
+
+    @Test
+    void saveAndLoadTreeifiedBucket(@TempDir Path directory) throws IOException {
+        // Строки из блоков "Aa" и "BB" имеют одинаковый хеш-код и попадают в одну корзину
+        PersistentHashMap<String, Integer> map = new PersistentHashMap<>();
+        for (int i = 0; i < 16; i++) {
+            StringBuilder key = new StringBuilder();
+            for (int bit = 0; bit < 4; bit++) {
+                key.append((i & (1 << bit)) == 0 ? "Aa" : "BB");
+            }
+            map.add(key.toString(), i);
+        }
+        Path snapshot = directory.resolve("map.snapshot");
+        map.save(snapshot, ElementCodec.STRING, ElementCodec.INTEGER);
+
+        PersistentHashMap<String, Integer> loaded = PersistentHashMap.load(snapshot,
+                ElementCodec.STRING, ElementCodec.INTEGER);
+        assertEquals(16, loaded.size());
+        assertEquals(0, loaded.get("AaAaAaAa").getValue());
+        assertEquals(15, loaded.get("BBBBBBBB").getValue());
+        loaded.undo();
+        assertNull(loaded.get("BBBBBBBB"));
+        assertEquals(14, loaded.get("AaBBBBBB").getValue());
+    }
+
+    @Test
+    void diff() {
+        hashMap.add("one", 1).add("two", 2).add("three", 3);
+        hashMap.add("two", 22).delete("one");
+        hashMap.add("four", 4);
+        assertEquals(6, hashMap.currentVersionIndex());
+        assertEquals(Set.of(Change.changed("two", 2, 22), Change.removed("one", 1), Change.added("four", 4)),
+                Set.copyOf(hashMap.diff(3, 6)));
+        assertEquals(Set.of(Change.changed("two", 22, 2), Change.added("one", 1), Change.removed("four", 4)),
+                Set.copyOf(hashMap.diff(6, 3)));
+        assertTrue(hashMap.diff(6, 6).isEmpty());
+
+        // Повторная запись того же значения изменением не считается
+        hashMap.add("four", 4);
+        assertTrue(hashMap.diff(6, 7).isEmpty());
+    }
+
+    @Test
+    void diffAcrossResize() {
+        PersistentHashMap<Integer, Integer> map = new PersistentHashMap<>();
+        Map<Integer, Integer> before = new HashMap<>();
+        for (int i = 0; i < 1_000; i++) {
+            map.add(i, i);
+            before.put(i, i);
+        }
+        int fromVersion = map.currentVersionIndex();
+        Map<Integer, Integer> after = new HashMap<>(before);
+        for (int i = 0; i < 1_000; i += 7) {
+            map.add(i, -i);
+            after.put(i, -i);
+        }
+        for (int i = 1; i < 1_000; i += 11) {
+            map.delete(i);
+            after.remove(i);
+        }
+        // Добавления вызывают разделение корзин
+        for (int i = 1_000; i < 3_000; i++) {
+            map.add(i, i);
+            after.put(i, i);
+        }
+        Set<Change<Integer, Integer>> expected = new HashSet<>();
+        for (Map.Entry<Integer, Integer> entry : before.entrySet()) {
+            Integer value = after.get(entry.getKey());
+            if (value == null) {
+                expected.add(Change.removed(entry.getKey(), entry.getValue()));
+            } else if (!value.equals(entry.getValue())) {
+                expected.add(Change.changed(entry.getKey(), entry.getValue(), value));
+            }
+        }
+        for (Map.Entry<Integer, Integer> entry : after.entrySet()) {
+            if (!before.containsKey(entry.getKey())) {
+                expected.add(Change.added(entry.getKey(), entry.getValue()));
+            }
+        }
+        List<Change<Integer, Integer>> changes = map.diff(fromVersion, map.currentVersionIndex());
+        assertEquals(expected.size(), changes.size());
+        assertEquals(expected, new HashSet<>(changes));
+    }
+
+    @Test
+    void merge() {
+        hashMap.add("shared", 0).add("changedLeft", 1).add("changedRight", 2).add("conflict", 3).add("removed", 4);
+        PersistentHashMap<String, Integer> left = hashMap.copy();
+        PersistentHashMap<String, Integer> right = hashMap.copy();
+        left.add("changedLeft", 10).add("conflict", 30).add("addedLeft", 5).delete("removed");
+        right.add("changedRight", 20).add("conflict", 31).add("addedRight", 6).delete("removed");
+
+        List<String> conflicts = new ArrayList<>();
+        PersistentHashMap<String, Integer> merged = PersistentHashMap.merge(hashMap, left, right,
+                (key, base, leftValue, rightValue) -> {
+                    conflicts.add(key + ":" + base + ":" + leftValue + ":" + rightValue);
+                    return leftValue + rightValue;
+                });
+        assertEquals(List.of("conflict:3:30:31"), conflicts);
+        assertEquals(6, merged.size());
+        assertEquals(0, merged.get("shared").getValue());
+        assertEquals(10, merged.get("changedLeft").getValue());
+        assertEquals(20, merged.get("changedRight").getValue());
+        assertEquals(61, merged.get("conflict").getValue());
+        assertEquals(5, merged.get("addedLeft").getValue());
+        assertEquals(6, merged.get("addedRight").getValue());
+        assertNull(merged.get("removed"));
+
+        // Исходные таблицы не изменились
+        assertEquals(30, left.get("conflict").getValue());
+        assertEquals(5, hashMap.size());
+    }
+
+    @Test
+    void mergeLargeMapsWithSmallEdits() {
+        PersistentHashMap<Integer, Integer> base = new PersistentHashMap<>();
+        for (int i = 0; i < 50_000; i++) {
+            base.add(i, i);
+        }
+        PersistentHashMap<Integer, Integer> left = base.copy().add(1, -1).add(2, -2).delete(3);
+        PersistentHashMap<Integer, Integer> right = base.copy().add(2, -20).add(50_000, 0).delete(3);
+        // Удаление ключа в обеих версиях конфликтом не считается; конфликт по ключу 2 — удаление
+        PersistentHashMap<Integer, Integer> merged = PersistentHashMap.merge(base, left, right,
+                (key, baseValue, leftValue, rightValue) -> null);
+
+        assertEquals(49_999, merged.size());
+        assertEquals(-1, merged.get(1).getValue());
+        assertNull(merged.get(2));
+        assertNull(merged.get(3));
+        assertEquals(0, merged.get(50_000).getValue());
+        assertEquals(49_999, merged.get(49_999).getValue());
+    }
+
+    @Test
+    void equalsAndHashCode() {
+        PersistentHashMap<Integer, Integer> first = new PersistentHashMap<>();
+        PersistentHashMap<Integer, Integer> second = new PersistentHashMap<>();
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 1_000; i++) {
+            first.add(i, i + 1);
+            // Другой порядок добавления даёт другую историю разделения корзин
+            second.add(999 - i, 1_000 - i);
+            expected.put(i, i + 1);
+        }
+        assertEquals(expected.hashCode(), first.hashCode());
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+
+        PersistentHashMap<Integer, Integer> copy = first.copy();
+        copy.add(500, -500);
+        assertNotEquals(first, copy);
+        copy.add(500, 501);
+        assertEquals(first, copy);
+        copy.delete(1);
+        assertNotEquals(first, copy);
+        assertNotEquals(first.hashCode(), copy.hashCode());
+    }
+
+    @Test
+    void tieredHistory(@TempDir Path directory) throws IOException {
+        hashMap.tieredHistory(4, 10);
+        for (int i = 0; i < 200; i++) {
+            hashMap.add("k" + i, i);
+        }
+        for (int i = 0; i < 50; i++) {
+            hashMap.delete("k" + i);
+        }
+        assertTrue(hashMap.releaseHistory() > 0);
+
+        Path path = directory.resolve("map.snapshot");
+        hashMap.save(path, ElementCodec.STRING, ElementCodec.INTEGER);
+        PersistentHashMap<String, Integer> loaded = PersistentHashMap.load(path, ElementCodec.STRING, ElementCodec.INTEGER);
+        assertEquals(hashMap.versionCount(), loaded.versionCount());
+
+        // Отмена проходит через освобождённые версии, которые восстанавливаются повтором операций
+        for (int i = 49; i >= 0; i--) {
+            hashMap.undo();
+            loaded.undo();
+            assertEquals(i, hashMap.get("k" + i).getValue());
+            assertEquals(hashMap, loaded);
+        }
+        for (int i = 199; i >= 0; i--) {
+            assertEquals(i + 1, hashMap.size());
+            assertEquals(i, hashMap.get("k" + i).getValue());
+            assertNull(hashMap.get("k" + (i + 1)));
+            hashMap.undo();
+        }
+        assertEquals(0, hashMap.size());
+        hashMap.redo().redo();
+        assertEquals(1, hashMap.get("k1").getValue());
+    }
+
+    @Test
+    void historicalLookupCache() {
+        assertNull(hashMap.getLookupCache());
+        hashMap.withLookupCache(4_096);
+        for (int i = 0; i < 100; i++) {
+            hashMap.add("k" + i, i);
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int version = 0; version <= 100; version += 10) {
+                for (int i = 0; i < 100; i++) {
+                    Map.Entry<String, Integer> found = hashMap.get(version, "k" + i);
+                    assertEquals(i < version ? Integer.valueOf(i) : null, found == null ? null : found.getValue());
+                }
+            }
+        }
+        LookupCache<Map.Entry<String, Integer>> cache = hashMap.getLookupCache();
+        // Текущая версия (100) ищется без кеша
+        assertEquals(1_000, cache.getMisses());
+        assertEquals(2_000, cache.getHits());
+
+        // Новое изменение после отмены удаляет отменённые версии 61..100 и их записи в кеше
+        assertEquals(1_000, cache.getSize());
+        for (int i = 0; i < 40; i++) {
+            hashMap.undo();
+        }
+        hashMap.add("k0", -1);
+        assertEquals(700, cache.getSize());
+        assertEquals(-1, hashMap.get(61, "k0").getValue());
+        assertEquals(0, hashMap.get(60, "k0").getValue());
+        assertNull(hashMap.get(61, "k60"));
+        assertThrows(IndexOutOfBoundsException.class, () -> hashMap.get(62, "k0"));
+    }
+
+    @Test
+    void lookupsDoNotAllocate() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        String[] present = new String[1_000];
+        String[] absent = new String[1_000];
+        Integer[] values = new Integer[1_000];
+        for (int i = 0; i < present.length; i++) {
+            present[i] = "k" + i;
+            absent[i] = "missing" + i;
+            values[i] = i * 1_000;
+            hashMap.add(present[i], values[i]);
+        }
+        // Ключи с одинаковым хеш-кодом ("Aa" и "BB") попадают в корзину-дерево
+        String[] colliding = new String[16];
+        for (int mask = 0; mask < colliding.length; mask++) {
+            StringBuilder key = new StringBuilder();
+            for (int bit = 0; bit < 4; bit++) {
+                key.append((mask >> bit & 1) == 0 ? "Aa" : "BB");
+            }
+            colliding[mask] = key.toString();
+            hashMap.add(colliding[mask], mask);
+        }
+
+        long checksum = 0;
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < present.length; i++) {
+                checksum += hashMap.get(present[i]).getValue();
+                checksum += hashMap.contains(present[i], values[i]) ? 1 : 0;
+                checksum += hashMap.get(absent[i]) == null ? 1 : 0;
+                checksum += hashMap.contains(absent[i], values[i]) ? 0 : 1;
+                checksum += hashMap.delete(absent[i]) == null ? 1 : 0;
+                checksum += hashMap.get(colliding[i % colliding.length]).getValue();
+            }
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertEquals(20L * (499_500_000L + 4_000 + 7_468), checksum);
+        // 120 000 операций поиска: меньше байта на операцию (погрешность — служебные выделения JVM)
+        assertTrue(allocated < 120_000, "Allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void smallMapPromotion(@TempDir Path directory) throws IOException {
+        PersistentHashMap<String, Integer> map = new PersistentHashMap<>();
+        for (int i = 0; i < PersistentHashMap.SMALL_MAP_MAX; i++) {
+            map.add("key" + i, i);
+        }
+        map.add("key3", 30).delete("key5");
+        assertEquals(PersistentHashMap.SMALL_MAP_MAX - 1, map.size());
+        assertEquals(30, map.get("key3").getValue());
+        assertNull(map.get("key5"));
+        assertNull(map.delete("key5"));
+
+        PersistentHashMap<String, Integer> small = map.copy();
+        for (int i = PersistentHashMap.SMALL_MAP_MAX; i < 20; i++) {
+            map.add("key" + i, i);
+        }
+        assertEquals(19, map.size());
+        assertNull(map.get("key5"));
+        assertEquals(30, map.get("key3").getValue());
+        assertEquals(19, map.get("key19").getValue());
+
+        // Версии до и после перехода в обычную таблицу сравниваются по записям
+        assertEquals(12, map.diff(map.currentVersionIndex() - 12, map.currentVersionIndex()).size());
+        assertEquals(2, map.diff(7, 9).size());
+        for (int i = PersistentHashMap.SMALL_MAP_MAX; i < 20; i++) {
+            map.undo();
+        }
+        assertEquals(small, map);
+        assertEquals(small.hashCode(), map.hashCode());
+        PersistentHashMap<String, Integer> full = new PersistentHashMap<>();
+        for (int i = 0; i < 20; i++) {
+            full.add("key" + i, i);
+        }
+        for (int i = 0; i < 20; i++) {
+            if (i == 5 || i >= PersistentHashMap.SMALL_MAP_MAX) {
+                full.delete("key" + i);
+            }
+        }
+        full.add("key3", 30);
+        assertEquals(small, full);
+        assertEquals(full, small);
+        assertEquals(full.hashCode(), small.hashCode());
+        assertTrue(small.memoryFootprint().getVersionBytes() < full.memoryFootprint().getVersionBytes());
+
+        Path snapshot = directory.resolve("small.snapshot");
+        map.save(snapshot, ElementCodec.STRING, ElementCodec.INTEGER);
+        PersistentHashMap<String, Integer> loaded = PersistentHashMap.load(snapshot,
+                ElementCodec.STRING, ElementCodec.INTEGER);
+        assertEquals(map, loaded);
+        loaded.redo();
+        assertEquals(PersistentHashMap.SMALL_MAP_MAX, loaded.size());
+        assertEquals(PersistentHashMap.SMALL_MAP_MAX, loaded.get("key" + PersistentHashMap.SMALL_MAP_MAX).getValue());
+    }
+}
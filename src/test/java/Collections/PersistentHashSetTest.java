@@ -0,0 +1,218 @@
+package Collections;
+
+import Metrics.CollectionMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentHashSetTest {
+    private PersistentHashSet<Integer> hashSet;
+
+    @BeforeEach
+    void setUp() {
+        hashSet = new PersistentHashSet<>();
+    }
+
+    @Test
+    void addAndContains() {
+        hashSet.add(1).add(2).add(3).add(2);
+        assertEquals(3, hashSet.size());
+        assertTrue(hashSet.contains(2));
+        assertFalse(hashSet.contains(4));
+        assertEquals(3, hashSet.get(3));
+        assertNull(hashSet.get(4));
+    }
+
+    @Test
+    void remove() {
+        hashSet.add(1).add(2);
+        hashSet.remove(1);
+        assertEquals(1, hashSet.size());
+        assertFalse(hashSet.contains(1));
+
+        // Попытка удаления несуществующего элемента
+        assertNull(hashSet.remove(42));
+    }
+
+    @Test
+    void undoAndRedo() {
+        hashSet.add(1).add(2).remove(1);
+        hashSet.undo();
+        assertTrue(hashSet.contains(1));
+        hashSet.undo().undo();
+        assertEquals(0, hashSet.size());
+
+        // Попытка отмены при отсутствии операций
+        hashSet.undo();
+        assertEquals(0, hashSet.size());
+
+        hashSet.redo().redo().redo();
+        assertEquals(Set.of(2), toSet(hashSet));
+    }
+
+    @Test
+    void collidingElements() {
+        PersistentHashSet<String> strings = new PersistentHashSet<>();
+        // "Aa" и "BB" имеют одинаковый хеш-код
+        strings.add("Aa").add("BB").add("AaAa").add("BBBB").add("AaBB").add("C");
+        assertEquals(6, strings.size());
+        assertTrue(strings.contains("BB"));
+
+        PersistentHashSet<String> other = new PersistentHashSet<String>().add("BB").add("BBBB").add("D");
+        assertEquals(Set.of("Aa", "BB", "AaAa", "BBBB", "AaBB", "C", "D"), toSet(strings.copy().union(other)));
+        assertEquals(Set.of("BB", "BBBB"), toSet(strings.copy().intersection(other)));
+        assertEquals(Set.of("Aa", "AaAa", "AaBB", "C"), toSet(strings.copy().difference(other)));
+
+        strings.remove("Aa");
+        strings.remove("BB");
+        assertEquals(Set.of("AaAa", "BBBB", "AaBB", "C"), toSet(strings));
+    }
+
+    @Test
+    void setAlgebraMatchesHashSet() {
+        Random random = new Random(11);
+        for (int round = 0; round < 20; round++) {
+            PersistentHashSet<Integer> first = new PersistentHashSet<>();
+            PersistentHashSet<Integer> second = new PersistentHashSet<>();
+            Set<Integer> expectedFirst = new HashSet<>();
+            Set<Integer> expectedSecond = new HashSet<>();
+            for (int i = 0; i < 2_000; i++) {
+                int value = random.nextInt(3_000) - 1_500;
+                if (random.nextBoolean()) {
+                    first.add(value);
+                    expectedFirst.add(value);
+                } else {
+                    second.add(value);
+                    expectedSecond.add(value);
+                }
+            }
+            Set<Integer> union = new HashSet<>(expectedFirst);
+            union.addAll(expectedSecond);
+            Set<Integer> intersection = new HashSet<>(expectedFirst);
+            intersection.retainAll(expectedSecond);
+            Set<Integer> difference = new HashSet<>(expectedFirst);
+            difference.removeAll(expectedSecond);
+
+            assertSameContent(union, first.copy().union(second));
+            assertSameContent(intersection, first.copy().intersection(second));
+            assertSameContent(difference, first.copy().difference(second));
+
+            // Исходные версии не изменились, а результат операции отменяется
+            first.union(second).undo();
+            assertSameContent(expectedFirst, first);
+        }
+    }
+
+    @Test
+    void setAlgebraOnSharedVersions() {
+        for (int i = 0; i < 100_000; i++) {
+            hashSet.add(i);
+        }
+        PersistentHashSet<Integer> changed = hashSet.copy();
+        changed.remove(10).remove(20_000).add(-1).add(-2);
+
+        CollectionMetrics.enable();
+        try {
+            CollectionMetrics.reset();
+            long copies = CollectionMetrics.copies();
+            PersistentHashSet<Integer> union = hashSet.copy().union(changed);
+            PersistentHashSet<Integer> intersection = hashSet.copy().intersection(changed);
+            PersistentHashSet<Integer> difference = hashSet.copy().difference(changed);
+            PersistentHashSet<Integer> reverse = changed.copy().difference(hashSet);
+            // Общие поддеревья пропускаются: копируются лишь узлы на путях к различиям
+            assertTrue(CollectionMetrics.copies() - copies < 100);
+
+            assertEquals(100_002, union.size());
+            assertTrue(union.contains(-2) && union.contains(10));
+            assertEquals(99_998, intersection.size());
+            assertFalse(intersection.contains(20_000) || intersection.contains(-1));
+            assertEquals(Set.of(10, 20_000), toSet(difference));
+            assertEquals(Set.of(-1, -2), toSet(reverse));
+        } finally {
+            CollectionMetrics.disable();
+        }
+    }
+
+    private static <T> void assertSameContent(Set<T> expected, PersistentHashSet<T> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, toSet(actual));
+    }
+
+    private static <T> Set<T> toSet(PersistentHashSet<T> set) {
+        Set<T> result = new HashSet<>();
+        set.forEach(result::add);
+        return result;
+    }
+
+    @Test
+    void equalsAndHashCode() {
+        PersistentHashSet<String> first = new PersistentHashSet<>();
+        PersistentHashSet<String> second = new PersistentHashSet<>();
+        Set<String> expected = new HashSet<>();
+        List<String> elements = new ArrayList<>(List.of("Aa", "BB", "AaAa", "BBBB", "C", "D"));
+        for (int i = 0; i < 500; i++) {
+            elements.add("e" + i);
+        }
+        for (String element : elements) {
+            first.add(element);
+            expected.add(element);
+        }
+        // Порядок добавления и удаления не влияет на форму дерева
+        second.add("extra");
+        for (int i = elements.size() - 1; i >= 0; i--) {
+            second.add(elements.get(i));
+        }
+        assertNotEquals(first, second);
+        second.remove("extra");
+        assertEquals(first, second);
+        assertEquals(expected.hashCode(), first.hashCode());
+        assertEquals(first.hashCode(), second.hashCode());
+
+        // Удаление соседа оставляет узел коллизий, который сворачивается в родителя
+        first.remove("C");
+        first.add("C");
+        second.remove("BBBB");
+        second.add("BBBB");
+        assertEquals(first, second);
+        assertNotEquals(first, second.copy().remove("Aa"));
+    }
+
+    @Test
+    void unchangedSetOperationsKeepHistory() {
+        PersistentHashSet<Integer> subset = new PersistentHashSet<>();
+        for (int i = 0; i < 100; i++) {
+            hashSet.add(i);
+            if (i < 10) {
+                subset.add(i);
+            }
+        }
+        CollectionMetrics.enable();
+        try {
+            hashSet.union(subset);
+            assertEquals(1, CollectionMetrics.get(CollectionMetrics.Kind.HASH_SET, CollectionMetrics.Operation.ADD)
+                    .getLatency().getCount());
+            hashSet.difference(new PersistentHashSet<>());
+            assertEquals(1, CollectionMetrics.get(CollectionMetrics.Kind.HASH_SET, CollectionMetrics.Operation.REMOVE)
+                    .getLatency().getCount());
+        } finally {
+            CollectionMetrics.disable();
+            CollectionMetrics.reset();
+        }
+        // Операции без изменений не создали версий: отмена убирает последнее добавление
+        hashSet.undo();
+        assertEquals(99, hashSet.size());
+        assertFalse(hashSet.contains(99));
+
+        hashSet.intersection(subset);
+        assertEquals(10, hashSet.size());
+        hashSet.undo();
+        assertEquals(99, hashSet.size());
+    }
+}
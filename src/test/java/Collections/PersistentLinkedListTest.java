@@ -1,8 +1,16 @@
 package Collections;
 
 import API.PersistentCollection;
+import Help.BitTree;
+import Metrics.MemoryFootprint;
+import Storage.ElementCodec;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -145,4 +153,70 @@ class PersistentLinkedListTest {
         assertFalse(undo2.contains(4));
         assertFalse(undo2.contains(5));
     }
-}
\ No newline at end of file
+
+    @Test
+    void memoryFootprint() {
+        for (int i = 0; i < 100; i++) {
+            persistentLinkedList.add(i);
+        }
+        MemoryFootprint footprint = persistentLinkedList.memoryFootprint();
+        assertEquals(101, footprint.getVersions());
+        assertTrue(footprint.getUniqueBytes() > 0);
+        assertTrue(footprint.getSharedBytes() > 0);
+        assertTrue(footprint.getHistoryBytes() >= footprint.getVersionBytes());
+
+        persistentLinkedList.undo();
+        assertEquals(footprint.getHistoryBytes(), persistentLinkedList.memoryFootprint().getHistoryBytes());
+    }
+
+    @Test
+    void saveAndLoad(@TempDir Path directory) throws IOException {
+        persistentLinkedList.add(1).add(2).add(3);
+        persistentLinkedList.update(1, 20);
+
+        Path snapshot = directory.resolve("list.snapshot");
+        persistentLinkedList.save(snapshot, ElementCodec.INTEGER);
+
+        PersistentLinkedList<Integer> loaded = PersistentLinkedList.load(snapshot, ElementCodec.INTEGER);
+        assertEquals(3, loaded.size());
+        assertEquals(20, loaded.get(1));
+        loaded.undo();
+        assertEquals(2, loaded.get(1));
+    }
+
+    @Test
+    void equalsAndHashCode() {
+        PersistentLinkedList<Integer> first = new PersistentLinkedList<>();
+        PersistentLinkedList<Integer> second = new PersistentLinkedList<>();
+        for (int i = 0; i < 100; i++) {
+            first.add(i);
+            second.add(i);
+        }
+        assertEquals(first, second);
+        assertEquals(IntStream.range(0, 100).boxed().toList().hashCode(), first.hashCode());
+        second.update(50, -1);
+        assertNotEquals(first, second);
+        second.undo();
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+
+    @Test
+    void branchingFactors() {
+        for (int bits = 4; bits <= 6; bits++) {
+            PersistentLinkedList<Integer> list = PersistentLinkedList.withBranching(bits);
+            for (int i = 0; i < 1_000; i++) {
+                list.add(i);
+            }
+            assertEquals(bits, list.getBranchingBits());
+            assertEquals(IntStream.range(0, 1_000).boxed().toList().hashCode(), list.hashCode());
+            list.update(777, -1);
+            assertEquals(-1, list.get(777));
+            list.undo();
+            assertEquals(777, list.get(777));
+            // Новые версии сохраняют ширину узла
+            assertEquals(bits, list.add(1_000).getBranchingBits());
+        }
+        assertEquals(4, PersistentLinkedList.tuned(100, BitTree.Workload.WRITE_HEAVY).getBranchingBits());
+        assertThrows(IllegalArgumentException.class, () -> PersistentLinkedList.withBranching(8));
+    }
+}
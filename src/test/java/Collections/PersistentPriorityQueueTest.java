@@ -0,0 +1,157 @@
+package Collections;
+
+import Metrics.CollectionMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentPriorityQueueTest {
+    private PersistentPriorityQueue<Integer> queue;
+
+    @BeforeEach
+    void setUp() {
+        queue = new PersistentPriorityQueue<>();
+    }
+
+    @Test
+    void findMinAndDeleteMin() {
+        assertNull(queue.findMin());
+        assertNull(queue.deleteMin());
+        queue.add(5).add(1).add(3).add(1);
+        assertEquals(4, queue.size());
+        assertEquals(1, queue.findMin());
+        queue.deleteMin();
+        assertEquals(1, queue.findMin());
+        queue.deleteMin();
+        assertEquals(3, queue.findMin());
+        assertThrows(UnsupportedOperationException.class, () -> queue.update(0, 1));
+        assertThrows(NullPointerException.class, () -> queue.add(null));
+    }
+
+    @Test
+    void matchesPriorityQueue() {
+        PriorityQueue<Integer> expected = new PriorityQueue<>();
+        Random random = new Random(43);
+        for (int i = 0; i < 20_000; i++) {
+            if (random.nextInt(3) == 0 && !expected.isEmpty()) {
+                assertEquals(expected.poll(), queue.findMin());
+                queue.deleteMin();
+            } else {
+                int value = random.nextInt(1_000);
+                expected.add(value);
+                queue.add(value);
+            }
+            assertEquals(expected.size(), queue.size());
+        }
+        List<Integer> sorted = new ArrayList<>(expected);
+        sorted.sort(Comparator.naturalOrder());
+        assertEquals(sorted, queue.toSortedList());
+    }
+
+    @Test
+    void undoAndRedo() {
+        queue.add(3).add(2).add(1);
+        queue.deleteMin();
+        assertEquals(2, queue.findMin());
+        queue.undo();
+        assertEquals(1, queue.findMin());
+        queue.undo().undo();
+        assertEquals(List.of(3), queue.toSortedList());
+        queue.undo().undo();
+        assertEquals(0, queue.size());
+        queue.redo().redo().redo().redo();
+        assertEquals(List.of(2, 3), queue.toSortedList());
+
+        // Старая версия переиспользуется без потери оценок: куча не амортизированная
+        queue.undo();
+        queue.add(0);
+        queue.redo();
+        assertEquals(List.of(0, 1, 2, 3), queue.toSortedList());
+    }
+
+    @Test
+    void removeAndContains() {
+        for (int i = 0; i < 1_000; i++) {
+            queue.add(i % 100);
+        }
+        assertTrue(queue.contains(42));
+        assertFalse(queue.contains(100));
+        assertEquals(42, queue.get(42));
+        assertNull(queue.remove(100));
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(queue.remove(42));
+        }
+        assertFalse(queue.contains(42));
+        assertEquals(990, queue.size());
+        assertEquals(990, queue.toSortedList().size());
+        queue.undo();
+        assertTrue(queue.contains(42));
+    }
+
+    @Test
+    void mergeAndCopy() {
+        PersistentPriorityQueue<String> first = new PersistentPriorityQueue<>(Comparator.reverseOrder());
+        first.add("a").add("c");
+        PersistentPriorityQueue<String> second = first.copy().add("b").add("d");
+        first.merge(second);
+        assertEquals(List.of("d", "c", "c", "b", "a", "a"), first.toSortedList());
+        assertEquals(4, second.size());
+        first.undo();
+        assertEquals(List.of("c", "a"), first.toSortedList());
+    }
+
+    @Test
+    void copiesOnlyRightSpine() {
+        for (int i = 0; i < 100_000; i++) {
+            queue.add(i);
+        }
+        CollectionMetrics.reset();
+        CollectionMetrics.enable();
+        try {
+            queue.add(-1);
+            queue.deleteMin();
+            // Слияние копирует O(log n) узлов
+            assertTrue(CollectionMetrics.get(CollectionMetrics.Kind.PRIORITY_QUEUE,
+                    CollectionMetrics.Operation.ADD).getNodesCopied().getMax() <= 2 * 17);
+            assertTrue(CollectionMetrics.get(CollectionMetrics.Kind.PRIORITY_QUEUE,
+                    CollectionMetrics.Operation.REMOVE).getNodesCopied().getMax() <= 2 * 17);
+        } finally {
+            CollectionMetrics.disable();
+            CollectionMetrics.reset();
+        }
+    }
+
+    @Test
+    void equalsAndHashCode() {
+        PersistentPriorityQueue<Integer> other = new PersistentPriorityQueue<>();
+        queue.add(1).add(2).add(2);
+        other.add(2).add(1).add(2);
+        assertEquals(other, queue);
+        assertEquals(other.hashCode(), queue.hashCode());
+        other.deleteMin().add(3);
+        assertNotEquals(other, queue);
+    }
+
+    @Test
+    void equalsWithComparatorTies() {
+        PersistentPriorityQueue<String> left = new PersistentPriorityQueue<>(Comparator.comparing(String::length));
+        PersistentPriorityQueue<String> right = new PersistentPriorityQueue<>(Comparator.comparing(String::length));
+        left.add("ab").add("cd").add("x");
+        right.add("cd").add("ab").add("x");
+        assertEquals(left, right);
+        assertEquals(right, left);
+        assertEquals(left.hashCode(), right.hashCode());
+
+        // Тот же размер, но другие повторы
+        left.add("ab");
+        right.add("cd");
+        assertNotEquals(left, right);
+    }
+}
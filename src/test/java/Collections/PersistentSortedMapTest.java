@@ -0,0 +1,186 @@
+package Collections;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentSortedMapTest {
+    private PersistentSortedMap<Integer, String> sortedMap;
+
+    @BeforeEach
+    void setUp() {
+        sortedMap = new PersistentSortedMap<>();
+    }
+
+    @Test
+    void addAndGet() {
+        sortedMap.add(2, "two").add(1, "one").add(3, "three");
+        assertEquals(3, sortedMap.size());
+        assertEquals("one", sortedMap.get(1).getValue());
+        assertTrue(sortedMap.contains(2, "two"));
+        assertFalse(sortedMap.contains(2, "three"));
+        assertNull(sortedMap.get(4));
+
+        // Повторное добавление заменяет значение
+        sortedMap.add(2, "second");
+        assertEquals(3, sortedMap.size());
+        assertEquals("second", sortedMap.get(2).getValue());
+    }
+
+    @Test
+    void remove() {
+        sortedMap.add(1, "one").add(2, "two");
+        sortedMap.delete(1);
+        assertEquals(1, sortedMap.size());
+        assertNull(sortedMap.get(1));
+
+        // Попытка удаления несуществующего элемента
+        assertNull(sortedMap.delete(42));
+    }
+
+    @Test
+    void undoAndRedo() {
+        sortedMap.add(1, "one").add(2, "two").delete(1);
+        sortedMap.undo();
+        assertEquals("one", sortedMap.get(1).getValue());
+        sortedMap.undo().undo();
+        assertEquals(0, sortedMap.size());
+
+        // Попытка отмены при отсутствии операций
+        sortedMap.undo();
+        assertEquals(0, sortedMap.size());
+
+        sortedMap.redo().redo();
+        assertEquals(2, sortedMap.size());
+        sortedMap.redo();
+        assertNull(sortedMap.get(1));
+    }
+
+    @Test
+    void navigation() {
+        for (int i = 0; i < 1000; i += 10) {
+            sortedMap.add(i, "v" + i);
+        }
+        assertEquals(0, sortedMap.firstKey());
+        assertEquals(990, sortedMap.lastKey());
+        assertEquals(50, sortedMap.floorKey(55));
+        assertEquals(50, sortedMap.floorKey(50));
+        assertNull(sortedMap.floorKey(-1));
+        assertEquals(60, sortedMap.ceilingKey(55));
+        assertEquals(60, sortedMap.ceilingKey(60));
+        assertNull(sortedMap.ceilingKey(991));
+
+        PersistentSortedMap<Integer, String> range = sortedMap.subMap(95, 205);
+        assertEquals(11, range.size());
+        assertEquals(100, range.firstKey());
+        assertEquals(200, range.lastKey());
+        assertEquals("v150", range.get(150).getValue());
+
+        List<Integer> keys = new ArrayList<>();
+        for (Map.Entry<Integer, String> entry : sortedMap.entries(300, 350)) {
+            keys.add(entry.getKey());
+        }
+        assertEquals(List.of(300, 310, 320, 330, 340), keys);
+    }
+
+    @Test
+    void customComparator() {
+        PersistentSortedMap<String, Integer> map = new PersistentSortedMap<>(Comparator.reverseOrder());
+        map.add("a", 1).add("c", 3).add("b", 2);
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : map) {
+            keys.add(entry.getKey());
+        }
+        assertEquals(List.of("c", "b", "a"), keys);
+    }
+
+    @Test
+    void matchesTreeMap() {
+        Random random = new Random(7);
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        // Ожидаемое содержимое версий последних операций (самая новая — первая)
+        Deque<TreeMap<Integer, String>> versions = new ArrayDeque<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                if (sortedMap.delete(key) != null) {
+                    expected.remove(key);
+                    remember(versions, expected, i);
+                }
+            } else {
+                sortedMap.add(key, "v" + i);
+                expected.put(key, "v" + i);
+                remember(versions, expected, i);
+            }
+        }
+        assertSameContent(expected, sortedMap);
+        for (int probe = -1; probe <= 5_001; probe += 7) {
+            assertEquals(expected.floorKey(probe), sortedMap.floorKey(probe));
+            assertEquals(expected.ceilingKey(probe), sortedMap.ceilingKey(probe));
+        }
+        assertEquals(new ArrayList<>(expected.subMap(1_000, 2_000).keySet()),
+                keysOf(sortedMap.subMap(1_000, 2_000)));
+
+        // Каждая предыдущая версия остаётся доступной через отмену
+        versions.removeFirst();
+        for (TreeMap<Integer, String> version : versions) {
+            sortedMap.undo();
+            assertSameContent(version, sortedMap);
+        }
+    }
+
+    private static void remember(Deque<TreeMap<Integer, String>> versions, TreeMap<Integer, String> version,
+                                 int operation) {
+        if (operation >= 19_000) {
+            versions.addFirst(new TreeMap<>(version));
+        }
+    }
+
+    private static void assertSameContent(TreeMap<Integer, String> expected, PersistentSortedMap<Integer, String> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(new ArrayList<>(expected.entrySet()), entriesOf(actual));
+    }
+
+    private static List<Map.Entry<Integer, String>> entriesOf(PersistentSortedMap<Integer, String> map) {
+        List<Map.Entry<Integer, String>> entries = new ArrayList<>();
+        map.forEach(entries::add);
+        return entries;
+    }
+
+    private static List<Integer> keysOf(PersistentSortedMap<Integer, String> map) {
+        List<Integer> keys = new ArrayList<>();
+        map.forEach(entry -> keys.add(entry.getKey()));
+        return keys;
+    }
+
+    @Test
+    void equalsAndHashCode() {
+        PersistentSortedMap<Integer, String> other = new PersistentSortedMap<>();
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        for (int i = 0; i < 2_000; i++) {
+            sortedMap.add(i, "v" + i);
+            other.add(1_999 - i, "v" + (1_999 - i));
+            expected.put(i, "v" + i);
+        }
+        assertEquals(expected.hashCode(), sortedMap.hashCode());
+        assertEquals(other, sortedMap);
+        assertEquals(sortedMap.subMap(0, 2_000), sortedMap);
+
+        sortedMap.add(1_000, "changed");
+        assertNotEquals(other, sortedMap);
+        assertNotEquals(other.hashCode(), sortedMap.hashCode());
+        sortedMap.undo();
+        assertEquals(other, sortedMap);
+    }
+}
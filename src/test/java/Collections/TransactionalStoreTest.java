@@ -0,0 +1,142 @@
+package Collections;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionalStoreTest {
+    private TransactionalStore store;
+    private TransactionalStore.Ref<PersistentHashMap<String, Integer>> accounts;
+    private TransactionalStore.Ref<PersistentArray<String>> log;
+
+    @BeforeEach
+    void setUp() {
+        store = new TransactionalStore();
+        accounts = store.register(new PersistentHashMap<String, Integer>().add("a", 100).add("b", 0));
+        log = store.register(new PersistentArray<>());
+    }
+
+    @Test
+    void commitsSeveralCollectionsTogether() {
+        int moved = store.atomically(transaction -> {
+            PersistentHashMap<String, Integer> map = transaction.get(accounts);
+            map.add("a", map.get("a").getValue() - 30).add("b", map.get("b").getValue() + 30);
+            transaction.get(log).add("a->b 30");
+            return 30;
+        });
+        assertEquals(30, moved);
+        assertEquals(70, store.snapshot(accounts).get("a").getValue());
+        assertEquals(30, store.snapshot(accounts).get("b").getValue());
+        assertEquals("a->b 30", store.snapshot(log).get(0));
+        assertEquals(1, store.getCommits());
+    }
+
+    @Test
+    void failedTransactionChangesNothing() {
+        assertThrows(IllegalStateException.class, () -> store.atomically(transaction -> {
+            transaction.get(accounts).add("a", 0);
+            transaction.get(log).add("lost");
+            throw new IllegalStateException();
+        }));
+        assertEquals(100, store.snapshot(accounts).get("a").getValue());
+        assertEquals(0, store.snapshot(log).size());
+        assertEquals(0, store.getCommits());
+    }
+
+    @Test
+    void undoAndRedoWholeTransactions() {
+        store.atomically(transaction -> transaction.get(log).add("first"));
+        store.atomically(transaction -> {
+            transaction.get(accounts).delete("b");
+            return transaction.get(log).add("second");
+        });
+        // Транзакция, которая ничего не изменила, не создаёт шага истории
+        store.atomically(transaction -> transaction.get(accounts).size());
+
+        store.undo();
+        assertEquals(0, store.snapshot(accounts).get("b").getValue());
+        assertEquals(1, store.snapshot(log).size());
+        store.undo().undo();
+        assertEquals(0, store.snapshot(log).size());
+
+        store.redo().redo();
+        assertNull(store.snapshot(accounts).get("b"));
+        assertEquals(2, store.snapshot(log).size());
+        store.redo();
+        assertEquals(2, store.snapshot(log).size());
+
+        // Новая транзакция очищает историю повтора
+        store.undo();
+        store.atomically(transaction -> transaction.get(log).add("third"));
+        store.redo();
+        assertEquals("third", store.snapshot(log).get(1));
+    }
+
+    @Test
+    void concurrentIncrementsAreNotLost() throws Exception {
+        int threads = 8;
+        int increments = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < increments; i++) {
+                        store.atomically(transaction -> {
+                            PersistentHashMap<String, Integer> map = transaction.get(accounts);
+                            map.add("b", map.get("b").getValue() + 1);
+                            return transaction.get(log).add("+1");
+                        });
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threads * increments, store.snapshot(accounts).get("b").getValue());
+        assertEquals(threads * increments, store.snapshot(log).size());
+        assertEquals(threads * increments, store.getCommits());
+    }
+
+    @Test
+    void disjointTransactionsDoNotConflict() throws Exception {
+        int threads = 4;
+        List<TransactionalStore.Ref<PersistentHashSet<Integer>>> sets = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            sets.add(store.register(new PersistentHashSet<>()));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                TransactionalStore.Ref<PersistentHashSet<Integer>> set = sets.get(t);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1_000; i++) {
+                        int value = i;
+                        store.atomically(transaction -> transaction.get(set).add(value));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // Смена корня другими транзакциями требует только повторной проверки, но не повторного выполнения
+        assertEquals(0, store.getRetries());
+        for (TransactionalStore.Ref<PersistentHashSet<Integer>> set : sets) {
+            assertEquals(1_000, store.snapshot(set).size());
+        }
+    }
+}
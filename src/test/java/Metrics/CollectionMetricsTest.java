@@ -0,0 +1,76 @@
+package Metrics;
+
+import Collections.PersistentArray;
+import Collections.PersistentHashMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CollectionMetricsTest {
+    @AfterEach
+    void tearDown() {
+        CollectionMetrics.disable();
+        CollectionMetrics.reset();
+    }
+
+    @Test
+    void histogramPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 1e-9);
+        // Погрешность корзины не превышает ~6%
+        assertEquals(500, histogram.getValueAtPercentile(50), 500 * 0.07);
+        assertEquals(990, histogram.getValueAtPercentile(99), 990 * 0.07);
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    void disabledByDefault() {
+        PersistentArray<Integer> array = new PersistentArray<>();
+        array.add(1);
+        array.get(0);
+        assertEquals(0, CollectionMetrics.get(CollectionMetrics.Kind.ARRAY, CollectionMetrics.Operation.ADD)
+                .getLatency().getCount());
+    }
+
+    @Test
+    void recordsOperations() {
+        CollectionMetrics.enable();
+        PersistentArray<Integer> array = new PersistentArray<>();
+        for (int i = 0; i < 100; i++) {
+            array.add(i);
+        }
+        array.update(50, -1);
+        array.get(50);
+        array.undo();
+
+        OperationStats add = CollectionMetrics.get(CollectionMetrics.Kind.ARRAY, CollectionMetrics.Operation.ADD);
+        assertEquals(100, add.getLatency().getCount());
+        assertTrue(add.getNodesCopied().getMax() > 0);
+        assertEquals(100, add.getHistoryDepth().getMax(), 100 * 0.07);
+
+        OperationStats update = CollectionMetrics.get(CollectionMetrics.Kind.ARRAY, CollectionMetrics.Operation.UPDATE);
+        assertEquals(1, update.getLatency().getCount());
+        assertTrue(update.getNodesCopied().getMax() >= update.getDepth().getMax());
+        assertEquals(1, CollectionMetrics.get(CollectionMetrics.Kind.ARRAY, CollectionMetrics.Operation.UNDO)
+                .getLatency().getCount());
+
+        PersistentHashMap<String, Integer> map = new PersistentHashMap<>();
+        map.add("a", 1);
+        map.get("a");
+        OperationStats get = CollectionMetrics.get(CollectionMetrics.Kind.HASH_MAP, CollectionMetrics.Operation.GET);
+        assertEquals(1, get.getLatency().getCount());
+        assertEquals(1, get.getChainLength().getMax());
+
+        assertTrue(CollectionMetrics.report().contains("ARRAY.ADD"));
+    }
+}